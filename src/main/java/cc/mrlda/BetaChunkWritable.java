@@ -0,0 +1,117 @@
+package cc.mrlda;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A chunk of a topic row of beta, i.e., a bounded number of (term, value) entries in ascending order
+ * of the terms, held in primitive arrays. A topic is written as a sequence of chunks keyed by
+ * (topic, NaN), followed by an empty trailer chunk keyed by (topic, normalizer), hence neither the
+ * reducer nor the readers hold a whole topic row at once. The terms are delta encoded as variable
+ * length integers.
+ *
+ * @author kzhai
+ */
+public class BetaChunkWritable implements Writable {
+  private int chunkIndex = 0;
+  private int size = 0;
+  private int[] termIDs = null;
+  private double[] values = null;
+
+  public BetaChunkWritable() {
+    this(0);
+  }
+
+  /**
+   * @param capacity initial number of entries of this chunk
+   */
+  public BetaChunkWritable(int capacity) {
+    termIDs = new int[capacity];
+    values = new double[capacity];
+  }
+
+  public int getChunkIndex() {
+    return chunkIndex;
+  }
+
+  public void setChunkIndex(int chunkIndex) {
+    this.chunkIndex = chunkIndex;
+  }
+
+  /**
+   * @return number of entries of this chunk, 0 for a trailer
+   */
+  public int size() {
+    return size;
+  }
+
+  public int getTermID(int index) {
+    return termIDs[index];
+  }
+
+  public double getValue(int index) {
+    return values[index];
+  }
+
+  /**
+   * @param termID a term greater than the terms of this chunk
+   * @param value the value of the term
+   */
+  public void add(int termID, double value) {
+    if (size == termIDs.length) {
+      ensureCapacity(Math.max(16, 2 * size));
+    }
+    termIDs[size] = termID;
+    values[size] = value;
+    size++;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, chunkIndex);
+    WritableUtils.writeVInt(out, size);
+    int previousTermID = 0;
+    for (int i = 0; i < size; i++) {
+      WritableUtils.writeVInt(out, termIDs[i] - previousTermID);
+      previousTermID = termIDs[i];
+    }
+    for (int i = 0; i < size; i++) {
+      out.writeDouble(values[i]);
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    chunkIndex = WritableUtils.readVInt(in);
+    int numberOfEntries = WritableUtils.readVInt(in);
+    // the previous entries need not be kept
+    size = 0;
+    ensureCapacity(numberOfEntries);
+    int termID = 0;
+    for (int i = 0; i < numberOfEntries; i++) {
+      termID += WritableUtils.readVInt(in);
+      termIDs[i] = termID;
+    }
+    for (int i = 0; i < numberOfEntries; i++) {
+      values[i] = in.readDouble();
+    }
+    size = numberOfEntries;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (termIDs.length < capacity) {
+      int[] newTermIDs = new int[capacity];
+      System.arraycopy(termIDs, 0, newTermIDs, 0, size);
+      termIDs = newTermIDs;
+      double[] newValues = new double[capacity];
+      System.arraycopy(values, 0, newValues, 0, size);
+      values = newValues;
+    }
+  }
+}
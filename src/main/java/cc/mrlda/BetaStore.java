@@ -0,0 +1,245 @@
+package cc.mrlda;
+
+import java.util.BitSet;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A term-major store of the beta matrix in log scale, addressed directly by the term index. Term
+ * indices produced by {@link ParseCorpus} are dense, i.e., from 1 to the size of the vocabulary,
+ * hence the rows are kept in contiguous pages without any per-term object. Each page holds at most
+ * {@link #PAGE_CAPACITY} cells, so that large models stay below the maximum array size, and pages
+ * are allocated upon the first write. A store may also hold the rows of a subset of the terms only,
+ * see {@link #getRowIndex(int)}. The row of term 0, which is not a term, holds the smoothing row of
+ * a truncated beta matrix, see {@link #getSmoothingRow(double[])}.
+ * 
+ * A store is written by a single thread while the model is imported, and is read-only afterwards,
+ * hence it can be shared by all threads of a mapper.
+ * 
+ * @author kzhai
+ */
+public abstract class BetaStore {
+  /**
+   * maximum number of cells in a page
+   */
+  public static final int PAGE_CAPACITY = 1 << 27;
+
+  protected int numberOfTopics = 0;
+  protected int numberOfTerms = 0;
+
+  protected int numberOfRows = 0;
+
+  protected int pageShift = 0;
+  protected int pageMask = 0;
+  protected int numberOfPages = 0;
+
+  /**
+   * rows that have been written, indexed by term index
+   */
+  protected BitSet loaded = null;
+
+  /**
+   * Set up the dimension of this store, must be called before any other method.
+   * 
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param numberOfTerms size of vocabulary in the whole corpus, i.e., the largest term index
+   */
+  public void initialize(int numberOfTopics, int numberOfTerms) {
+    Preconditions.checkArgument(numberOfTopics > 0 && numberOfTopics <= PAGE_CAPACITY,
+        "Invalid number of topics for beta store: " + numberOfTopics);
+    Preconditions.checkArgument(numberOfTerms > 0 && numberOfTerms < Integer.MAX_VALUE,
+        "Invalid number of terms for beta store: " + numberOfTerms);
+
+    this.numberOfTopics = numberOfTopics;
+    this.numberOfTerms = numberOfTerms;
+    numberOfRows = getNumberOfRows();
+
+    // rows per page is a power of 2, the row index then splits into page and offset by bit masks
+    pageShift = 31 - Integer.numberOfLeadingZeros(PAGE_CAPACITY / numberOfTopics);
+    pageMask = (1 << pageShift) - 1;
+    numberOfPages = ((numberOfRows - 1) >>> pageShift) + 1;
+
+    loaded = new BitSet(numberOfTerms + 1);
+    allocatePages(numberOfPages);
+  }
+
+  public int getNumberOfTopics() {
+    return numberOfTopics;
+  }
+
+  public int getNumberOfTerms() {
+    return numberOfTerms;
+  }
+
+  /**
+   * @param termID term index
+   * @return true if the row of the term was written
+   */
+  public boolean containsTerm(int termID) {
+    return termID > 0 && termID <= numberOfTerms && loaded.get(termID);
+  }
+
+  /**
+   * Copy the row of a term into a buffer.
+   * 
+   * @param termID term index
+   * @param logBeta a buffer of size {@link #numberOfTopics}
+   * @return true if the row of the term was written and copied, false otherwise, in which case the
+   *         buffer is left untouched
+   */
+  public boolean getRow(int termID, double[] logBeta) {
+    if (!containsTerm(termID)) {
+      return false;
+    }
+    int row = getRowIndex(termID);
+    copyRow(row >>> pageShift, (row & pageMask) * numberOfTopics, logBeta);
+    return true;
+  }
+
+  /**
+   * @param termID term index, from 1 to {@link #numberOfTerms}
+   * @param topicIndex topic index, from 0 to {@link #numberOfTopics} - 1
+   * @return the beta value in log scale, {@link Double#NaN} if the cell was not written
+   */
+  public double get(int termID, int topicIndex) {
+    int row = getRowIndex(termID);
+    if (row < 0) {
+      return Double.NaN;
+    }
+    return getCell(row >>> pageShift, (row & pageMask) * numberOfTopics + topicIndex);
+  }
+
+  /**
+   * @param termID term index, from 1 to {@link #numberOfTerms}
+   * @param topicIndex topic index, from 0 to {@link #numberOfTopics} - 1
+   * @param logBeta the beta value in log scale
+   * @return false if the term index is out of the range of this store or the term is not held by
+   *         this store, in which case nothing is written
+   */
+  public boolean set(int termID, int topicIndex, double logBeta) {
+    if (termID <= 0 || termID > numberOfTerms) {
+      return false;
+    }
+    int row = getRowIndex(termID);
+    if (row < 0) {
+      return false;
+    }
+
+    setCell(termID, row, topicIndex, logBeta);
+    return true;
+  }
+
+  /**
+   * Copy the smoothing row into a buffer, i.e., the beta values of the terms truncated from a
+   * topic, which also stand for the terms missing from a truncated beta matrix.
+   *
+   * @param logBeta a buffer of size {@link #numberOfTopics}
+   * @return true if the smoothing row was written and copied, false otherwise, i.e., beta was not
+   *         truncated, in which case the buffer is left untouched
+   */
+  public boolean getSmoothingRow(double[] logBeta) {
+    if (!loaded.get(0)) {
+      return false;
+    }
+    int row = getRowIndex(0);
+    copyRow(row >>> pageShift, (row & pageMask) * numberOfTopics, logBeta);
+    return true;
+  }
+
+  /**
+   * @param topicIndex topic index, from 0 to {@link #numberOfTopics} - 1
+   * @param logBeta the beta value in log scale of the terms truncated from the topic
+   * @return false if this store does not hold the smoothing row, in which case nothing is written
+   */
+  public boolean setSmoothing(int topicIndex, double logBeta) {
+    int row = getRowIndex(0);
+    if (row < 0) {
+      return false;
+    }
+    setCell(0, row, topicIndex, logBeta);
+    return true;
+  }
+
+  private void setCell(int termID, int row, int topicIndex, double logBeta) {
+    int page = row >>> pageShift;
+    int offset = (row & pageMask) * numberOfTopics;
+    ensureAllocated(page);
+    if (!loaded.get(termID)) {
+      initializeRow(page, offset);
+      loaded.set(termID);
+    }
+    setCell(page, offset + topicIndex, logBeta);
+  }
+
+  /**
+   * Fill the cells that were not written in the written rows, e.g., the topics dropped by a sparse
+   * phi emission.
+   * 
+   * @param logBeta the beta values in log scale for every topic
+   * @return number of cells filled
+   */
+  public long fillMissingCells(double[] logBeta) {
+    long filledCells = 0;
+    for (int termID = loaded.nextSetBit(1); termID >= 0; termID = loaded.nextSetBit(termID + 1)) {
+      for (int i = 0; i < numberOfTopics; i++) {
+        if (Double.isNaN(get(termID, i))) {
+          set(termID, i, logBeta[i]);
+          filledCells++;
+        }
+      }
+    }
+    return filledCells;
+  }
+
+  /**
+   * @return number of bytes held by the allocated pages
+   */
+  public abstract long getMemoryUsage();
+
+  /**
+   * @return number of rows in the pages, by default one per term index from 0 to
+   *         {@link #numberOfTerms}
+   */
+  protected int getNumberOfRows() {
+    return numberOfTerms + 1;
+  }
+
+  /**
+   * @param termID term index, from 1 to {@link #numberOfTerms}
+   * @return the row of the term in the pages, by default the term index itself, or -1 if this
+   *         store does not hold the term
+   */
+  protected int getRowIndex(int termID) {
+    return termID;
+  }
+
+  /**
+   * Prepare a row before its first cell is written, e.g., mark its cells as not written if a new
+   * page does not read {@link Double#NaN}.
+   *
+   * @param page page of the row
+   * @param offset offset of the first cell of the row in the page
+   */
+  protected void initializeRow(int page, int offset) {
+  }
+
+  protected void ensureAllocated(int page) {
+    if (!isAllocated(page)) {
+      allocatePage(page, Math.min(pageMask + 1, numberOfRows - (page << pageShift))
+          * numberOfTopics);
+    }
+  }
+
+  protected abstract void allocatePages(int numberOfPages);
+
+  protected abstract boolean isAllocated(int page);
+
+  protected abstract void allocatePage(int page, int numberOfCells);
+
+  protected abstract double getCell(int page, int offset);
+
+  protected abstract void setCell(int page, int offset, double logBeta);
+
+  protected abstract void copyRow(int page, int offset, double[] logBeta);
+}
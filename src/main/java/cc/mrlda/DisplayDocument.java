@@ -84,8 +84,26 @@ public class DisplayDocument extends Configured implements Tool {
       Document document = new Document();
       StringBuffer strBuf = new StringBuffer();
 
+      GammaBlockWritable gammaBlock = new GammaBlockWritable();
+
       for (FileStatus fileStatus : fs.listStatus(gammaPath)) {
         sequenceFileReader = new SequenceFile.Reader(fs, fileStatus.getPath(), conf);
+        if (GammaBlockWritable.class.equals(sequenceFileReader.getValueClass())) {
+          // a side file holds the gamma of the documents in blocks, apart from the corpus
+          while (sequenceFileReader.next(intWritable, gammaBlock)) {
+            for (int j = 0; j < gammaBlock.size(); j++) {
+              System.out.print(gammaBlock.getDocumentID(j) + " ");
+              for (int i = 0; i < gammaBlock.getNumberOfTopics(); i++) {
+                System.out.print(gammaBlock.getGammas()[j * gammaBlock.getNumberOfTopics() + i]
+                    + " ");
+              }
+              System.out.print("\n");
+            }
+          }
+          IOUtils.closeStream(sequenceFileReader);
+          continue;
+        }
+
         while (sequenceFileReader.next(intWritable, document)) {
           Preconditions.checkArgument(document.getGamma() != null
               && document.getGamma().length == document.getNumberOfTopics(),
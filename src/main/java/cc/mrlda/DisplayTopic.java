@@ -1,7 +1,9 @@
 package cc.mrlda;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -92,7 +94,7 @@ public class DisplayTopic extends Configured implements Tool {
     Preconditions.checkArgument(fs.exists(indexPath) && fs.isFile(indexPath),
         "Invalid index path...");
     Path betaPath = new Path(betaString);
-    Preconditions.checkArgument(fs.exists(betaPath) && fs.isFile(betaPath), "Invalid beta path...");
+    Preconditions.checkArgument(fs.exists(betaPath), "Invalid beta path...");
 
     SequenceFile.Reader sequenceFileReader = null;
     try {
@@ -107,36 +109,103 @@ public class DisplayTopic extends Configured implements Tool {
       // HMapIFW hmap = new HMapIFW();
       HMapIDW hmap = new HMapIDW();
       TreeMap<Double, Integer> treeMap = new TreeMap<Double, Integer>();
-      sequenceFileReader = new SequenceFile.Reader(fs, betaPath, conf);
-      while (sequenceFileReader.next(pairOfIntFloat, hmap)) {
-        treeMap.clear();
-
-        System.out.println("==============================");
-        System.out.println("Top ranked " + topDisplay + " terms for Topic "
-            + pairOfIntFloat.getLeftElement());
-        System.out.println("==============================");
-
-        Iterator<Integer> itr1 = hmap.keySet().iterator();
-        int temp1 = 0;
-        while (itr1.hasNext()) {
-          temp1 = itr1.next();
-          treeMap.put(-hmap.get(temp1), temp1);
-          if (treeMap.size() > topDisplay) {
-            treeMap.remove(treeMap.lastKey());
+      // the top terms of a term-major, term-blocked or chunked beta are collected over all rows
+      // before display
+      List<TreeMap<Double, Integer>> treeMaps = new ArrayList<TreeMap<Double, Integer>>();
+      PhiVectorWritable vector = new PhiVectorWritable();
+      BetaChunkWritable chunk = new BetaChunkWritable();
+      // beta is either a single file or a directory of parts
+      for (Path betaPartPath : DocumentMapper.listBetaParts(fs, betaPath)) {
+        IOUtils.closeStream(sequenceFileReader);
+        if (betaPartPath.getName().equals(TermVectorReducer.NORMALIZER_FILE)) {
+          continue;
+        }
+        sequenceFileReader = new SequenceFile.Reader(fs, betaPartPath, conf);
+        if (PhiVectorWritable.class.equals(sequenceFileReader.getValueClass())) {
+          while (sequenceFileReader.next(intWritable, vector)) {
+            double[] values = vector.getValues();
+            while (treeMaps.size() < vector.getNumberOfTopics()) {
+              treeMaps.add(new TreeMap<Double, Integer>());
+            }
+            for (int i = 0; i < vector.getNumberOfTopics(); i++) {
+              treeMaps.get(i).put(-values[i], intWritable.get());
+              if (treeMaps.get(i).size() > topDisplay) {
+                treeMaps.get(i).remove(treeMaps.get(i).lastKey());
+              }
+            }
           }
+          continue;
         }
+        if (BetaChunkWritable.class.equals(sequenceFileReader.getValueClass())) {
+          // the chunks of a topic are ranked by their values alone, hence need no normalizer
+          while (sequenceFileReader.next(pairOfIntFloat, chunk)) {
+            while (treeMaps.size() < pairOfIntFloat.getLeftElement()) {
+              treeMaps.add(new TreeMap<Double, Integer>());
+            }
+            TreeMap<Double, Integer> chunkTreeMap = treeMaps
+                .get(pairOfIntFloat.getLeftElement() - 1);
+            for (int i = 0; i < chunk.size(); i++) {
+              if (chunk.getTermID(i) == 0) {
+                // the residual entry of a truncated topic is not a term
+                continue;
+              }
+              chunkTreeMap.put(-chunk.getValue(i), chunk.getTermID(i));
+              if (chunkTreeMap.size() > topDisplay) {
+                chunkTreeMap.remove(chunkTreeMap.lastKey());
+              }
+            }
+          }
+          continue;
+        }
+        while (sequenceFileReader.next(pairOfIntFloat, hmap)) {
+          if (Float.isNaN(pairOfIntFloat.getRightElement())) {
+            // a block of terms of the topic, the other blocks are in other rows
+            while (treeMaps.size() < pairOfIntFloat.getLeftElement()) {
+              treeMaps.add(new TreeMap<Double, Integer>());
+            }
+            TreeMap<Double, Integer> blockTreeMap = treeMaps
+                .get(pairOfIntFloat.getLeftElement() - 1);
+            for (int termID : hmap.keySet()) {
+              blockTreeMap.put(-hmap.get(termID), termID);
+              if (blockTreeMap.size() > topDisplay) {
+                blockTreeMap.remove(blockTreeMap.lastKey());
+              }
+            }
+            continue;
+          }
 
-        Iterator<Double> itr2 = treeMap.keySet().iterator();
-        double temp2 = 0;
-        while (itr2.hasNext()) {
-          temp2 = itr2.next();
-          if (termIndex.containsKey(treeMap.get(temp2))) {
-            System.out.println(termIndex.get(treeMap.get(temp2)) + "\t\t" + -temp2);
-          } else {
-            System.out.println("How embarrassing! Term index not found...");
+          treeMap.clear();
+
+          System.out.println("==============================");
+          System.out.println("Top ranked " + topDisplay + " terms for Topic "
+              + pairOfIntFloat.getLeftElement());
+          System.out.println("==============================");
+
+          Iterator<Integer> itr1 = hmap.keySet().iterator();
+          int temp1 = 0;
+          while (itr1.hasNext()) {
+            temp1 = itr1.next();
+            if (temp1 == 0) {
+              // the residual entry of a truncated topic is not a term
+              continue;
+            }
+            treeMap.put(-hmap.get(temp1), temp1);
+            if (treeMap.size() > topDisplay) {
+              treeMap.remove(treeMap.lastKey());
+            }
           }
+
+          display(treeMap, termIndex);
         }
       }
+
+      for (int i = 0; i < treeMaps.size(); i++) {
+        System.out.println("==============================");
+        System.out.println("Top ranked " + topDisplay + " terms for Topic " + (i + 1));
+        System.out.println("==============================");
+
+        display(treeMaps.get(i), termIndex);
+      }
     } finally {
       IOUtils.closeStream(sequenceFileReader);
     }
@@ -144,6 +213,19 @@ public class DisplayTopic extends Configured implements Tool {
     return 0;
   }
 
+  private static void display(TreeMap<Double, Integer> treeMap, Map<Integer, String> termIndex) {
+    Iterator<Double> itr2 = treeMap.keySet().iterator();
+    double temp2 = 0;
+    while (itr2.hasNext()) {
+      temp2 = itr2.next();
+      if (termIndex.containsKey(treeMap.get(temp2))) {
+        System.out.println(termIndex.get(treeMap.get(temp2)) + "\t\t" + -temp2);
+      } else {
+        System.out.println("How embarrassing! Term index not found...");
+      }
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     int res = ToolRunner.run(new Configuration(), new DisplayTopic(), args);
     System.exit(res);
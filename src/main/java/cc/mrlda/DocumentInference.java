@@ -0,0 +1,217 @@
+package cc.mrlda;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.hadoop.mapred.Reporter;
+
+import cc.mrlda.VariationalInference.ParameterCounter;
+
+import edu.umd.cloud9.math.Gamma;
+import edu.umd.cloud9.util.map.HMapII;
+
+/**
+ * This class runs the per-document variational updates of gamma and phi against a fixed model.
+ * The model, i.e., beta and alpha, is shared and never modified, while all the scratch space lives
+ * in this object, hence an instance must not be shared across threads.
+ *
+ * @author kzhai
+ */
+public class DocumentInference {
+  private int numberOfTopics = 0;
+  private int numberOfTerms = Integer.MAX_VALUE;
+
+  private int maximumGammaIteration = Settings.MAXIMUM_LOCAL_ITERATION;
+  private double gammaConvergeThreshold = Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_THRESHOLD;
+  private double likelihoodConvergeThreshold = Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_CRITERIA;
+
+  private PhiKernel phiKernel = null;
+  private boolean fastGamma = Settings.DEFAULT_FAST_GAMMA;
+
+  private double[] lastGamma = null;
+  /**
+   * gamma update accumulator, in the scale of the phi kernel
+   */
+  private double[] updateGamma = null;
+
+  /**
+   * Scratch space of the current document, addressed by the position of a term within the
+   * document. The arrays grow to the largest number of distinct terms in a document seen so far,
+   * and are reused across documents.
+   */
+  private int numberOfDistinctTerms = 0;
+  private int[] termIDs = new int[0];
+  private int[] termCounts = new int[0];
+  private double[][] logPhiRows = new double[0][];
+  private double[][] logBetaRows = new double[0][];
+
+  private double likelihoodPhi = 0;
+
+  /**
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param numberOfTerms size of vocabulary in the whole corpus, used to initialize beta of the
+   *        unloaded terms.
+   * @param maximumGammaIteration maximum number of gamma updates for a document
+   * @param gammaConvergeThreshold threshold on the relative change of gamma, disabled if
+   *        non-positive
+   * @param likelihoodConvergeThreshold threshold on the relative change of the document
+   *        likelihood, disabled if non-positive
+   * @param phiKernel the kernel to update phi and gamma, used only by this object
+   * @param fastGamma use {@link FastGamma} rather than {@link Gamma}
+   */
+  public DocumentInference(int numberOfTopics, int numberOfTerms, int maximumGammaIteration,
+      double gammaConvergeThreshold, double likelihoodConvergeThreshold, PhiKernel phiKernel,
+      boolean fastGamma) {
+    this.numberOfTopics = numberOfTopics;
+    this.numberOfTerms = numberOfTerms;
+    this.maximumGammaIteration = maximumGammaIteration;
+    this.gammaConvergeThreshold = gammaConvergeThreshold;
+    this.likelihoodConvergeThreshold = likelihoodConvergeThreshold;
+    this.phiKernel = phiKernel;
+    this.fastGamma = fastGamma;
+
+    lastGamma = new double[numberOfTopics];
+    updateGamma = new double[numberOfTopics];
+  }
+
+  /**
+   * Update gamma and phi of a document until converge or the maximum number of iterations is
+   * reached.
+   *
+   * @param content the term counts of the document
+   * @param gamma the gamma vector of the document, take note that it will be updated accordingly
+   * @param expectLogBeta the shared beta matrix
+   * @param alpha the shared alpha vector
+   * @param reporter reporter to send out heart-beat message
+   * @return number of gamma update iterations
+   */
+  public int infer(HMapII content, double[] gamma, BetaStore expectLogBeta, double[] alpha,
+      Reporter reporter) {
+    prepare(content, expectLogBeta, reporter);
+
+    // be careful when adjust this initial value
+    int gammaUpdateIterationCount = 1;
+    double lastLikelihood = 0;
+    boolean converged = false;
+    do {
+      likelihoodPhi = 0;
+
+      for (int i = 0; i < numberOfTopics; i++) {
+        lastGamma[i] = gamma[i];
+        gamma[i] = fastGamma ? FastGamma.digamma(gamma[i]) : Gamma.digamma(gamma[i]);
+      }
+      phiKernel.resetGamma(alpha, updateGamma);
+
+      for (int j = 0; j < numberOfDistinctTerms; j++) {
+        likelihoodPhi += phiKernel.updatePhi(numberOfTopics, termCounts[j], logBetaRows[j], gamma,
+            logPhiRows[j], updateGamma);
+      }
+
+      phiKernel.exportGamma(updateGamma, gamma);
+      double gammaChange = 0;
+      for (int i = 0; i < numberOfTopics; i++) {
+        gammaChange = Math.max(gammaChange, Math.abs(gamma[i] - lastGamma[i]) / lastGamma[i]);
+      }
+
+      // a test with a non-positive threshold is disabled, and never stops the updates on its own
+      converged = gammaConvergeThreshold > 0 || likelihoodConvergeThreshold > 0;
+      if (gammaConvergeThreshold > 0) {
+        converged &= gammaChange < gammaConvergeThreshold;
+      }
+      if (likelihoodConvergeThreshold > 0) {
+        double likelihood = likelihoodPhi;
+        double sumGamma = 0;
+        for (int i = 0; i < numberOfTopics; i++) {
+          sumGamma += gamma[i];
+          likelihood += fastGamma ? FastGamma.lngamma(gamma[i]) : Gamma.lngamma(gamma[i]);
+        }
+        likelihood -= fastGamma ? FastGamma.lngamma(sumGamma) : Gamma.lngamma(sumGamma);
+
+        converged &= gammaUpdateIterationCount > 1
+            && Math.abs((lastLikelihood - likelihood) / lastLikelihood) < likelihoodConvergeThreshold;
+        lastLikelihood = likelihood;
+      }
+
+      gammaUpdateIterationCount++;
+
+      // send out heart-beat message
+      if (Math.random() < 0.01) {
+        reporter.incrCounter(ParameterCounter.DUMMY_COUNTER, 1);
+      }
+    } while (!converged && gammaUpdateIterationCount < maximumGammaIteration);
+
+    // gammaUpdateIterationCount starts from 1, hence it is one more than the number of sweeps
+    return gammaUpdateIterationCount - 1;
+  }
+
+  /**
+   * Lay out the terms of a document by position, and copy their beta vectors once for all sweeps.
+   */
+  private void prepare(HMapII content, BetaStore expectLogBeta, Reporter reporter) {
+    numberOfDistinctTerms = content.size();
+    if (numberOfDistinctTerms > termIDs.length) {
+      int capacity = Math.max(numberOfDistinctTerms, 2 * termIDs.length);
+      termIDs = new int[capacity];
+      termCounts = new int[capacity];
+      logPhiRows = Arrays.copyOf(logPhiRows, capacity);
+      logBetaRows = Arrays.copyOf(logBetaRows, capacity);
+    }
+
+    int j = 0;
+    Iterator<Integer> itr = content.keySet().iterator();
+    while (itr.hasNext()) {
+      int termID = itr.next();
+      termIDs[j] = termID;
+      termCounts[j] = content.get(termID);
+
+      if (logPhiRows[j] == null) {
+        logPhiRows[j] = new double[numberOfTopics];
+        logBetaRows[j] = new double[numberOfTopics];
+      }
+
+      // acquire the corresponding beta vector for this term, a term not found in the shared beta
+      // matrix is written to the scratch row only, hence the shared matrix stays read-only and no
+      // missing term is held beyond the document
+      if (!expectLogBeta.getRow(termID, logBetaRows[j])) {
+        reporter.incrCounter(ParameterCounter.MISSING_BETA, 1);
+        // a term missing from a truncated beta matrix is smoothed rather than initialized
+        if (!expectLogBeta.getSmoothingRow(logBetaRows[j])) {
+          DocumentMapper.initializeBeta(numberOfTopics, termID, numberOfTerms, logBetaRows[j]);
+        }
+      }
+      j++;
+    }
+  }
+
+  /**
+   * @return the phi part of the likelihood of the last document
+   */
+  public double getLikelihoodPhi() {
+    return likelihoodPhi;
+  }
+
+  /**
+   * @return number of distinct terms in the last document
+   */
+  public int getNumberOfDistinctTerms() {
+    return numberOfDistinctTerms;
+  }
+
+  /**
+   * @param position position of a term within the last document
+   * @return the term index
+   */
+  public int getTermID(int position) {
+    return termIDs[position];
+  }
+
+  /**
+   * @param position position of a term within the last document
+   * @return the phi vector of the term in log scale, take note that this vector is reused for the
+   *         following documents
+   */
+  public double[] getLogPhi(int position) {
+    return logPhiRows[position];
+  }
+}
@@ -1,21 +1,36 @@
 package cc.mrlda;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
-
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.hadoop.mapred.lib.MultithreadedMapRunner;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.log4j.Logger;
 
 import cc.mrlda.VariationalInference.ParameterCounter;
 
@@ -23,50 +38,92 @@ import com.google.common.base.Preconditions;
 
 import edu.umd.cloud9.io.map.HMapIDW;
 import edu.umd.cloud9.io.pair.PairOfIntFloat;
-import edu.umd.cloud9.io.pair.PairOfInts;
 import edu.umd.cloud9.math.Gamma;
 import edu.umd.cloud9.math.LogMath;
 import edu.umd.cloud9.util.map.HMapII;
 import edu.umd.cloud9.util.map.HMapIV;
 
 public class DocumentMapper extends MapReduceBase implements
-    Mapper<IntWritable, Document, PairOfInts, DoubleWritable> {
+    Mapper<IntWritable, Document, Writable, Writable> {
+  static final Logger sLogger = Logger.getLogger(DocumentMapper.class);
 
   private boolean directEmit = false;
-  private HMapIV<double[]> totalPhi = null;
-  private double[] totalAlphaSufficientStatistics;
-  private OutputCollector<PairOfInts, DoubleWritable> outputCollector;
+  private OutputCollector<Writable, Writable> outputCollector;
+  private Reporter reporter;
 
   private long configurationTime = 0;
-  private long trainingTime = 0;
 
-  private static HMapIV<double[]> expectLogBeta = null;
+  private static BetaStore expectLogBeta = null;
+  private static Class<? extends BetaStore> betaStoreClass = DoubleBetaStore.class;
   private static double[] alpha = null;
 
   private static int numberOfTopics = 0;
   private static int numberOfTerms = Integer.MAX_VALUE;
 
   private static int maximumGammaIteration = Settings.MAXIMUM_LOCAL_ITERATION;
+  private static double gammaConvergeThreshold = Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_THRESHOLD;
+  private static double likelihoodConvergeThreshold = Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_CRITERIA;
+
+  private static Class<? extends PhiKernel> phiKernelClass = LogSumExpPhiKernel.class;
+
+  private static boolean fastGamma = Settings.DEFAULT_FAST_GAMMA;
+
+  private static double phiThreshold = Settings.DEFAULT_PHI_THRESHOLD;
+  private static int phiTopN = Settings.DEFAULT_PHI_TOP_N;
+  private static boolean vectorEmit = false;
+  private static boolean compactKey = Settings.DEFAULT_COMPACT_KEY;
+  private static boolean floatPhi = Settings.DEFAULT_FLOAT_PHI;
+  private static boolean linearPhi = Settings.DEFAULT_LINEAR_PHI;
+
+  private static int numberOfHotTerms = 0;
+  private static int combinerOverflowTerms = Settings.DEFAULT_COMBINER_OVERFLOW_TERMS;
 
   private static boolean learning = Settings.LEARNING_MODE;
   private static boolean randomStartGamma = Settings.RANDOM_START_GAMMA;
 
   private static double likelihoodAlpha = 0;
 
-  private PairOfInts outputKey = new PairOfInts();
-  private DoubleWritable outputValue = new DoubleWritable();
+  private static final String[] ITERATION_BUCKETS = new String[31];
+  static {
+    for (int i = 0; i < ITERATION_BUCKETS.length; i++) {
+      ITERATION_BUCKETS[i] = String.format("%03d-%03d", 1 << i, (2 << i) - 1);
+    }
+  }
 
-  private MultipleOutputs multipleOutputs;
-  private OutputCollector<IntWritable, Document> outputDocument;
+  /**
+   * the gamma vectors of the documents of the input split from the previous iteration, if any
+   */
+  private GammaStore gammaStore = null;
+  /**
+   * the side file of the gamma vectors of the documents of the input split, shared by all threads
+   */
+  private SequenceFile.Writer gammaWriter = null;
+  private IntWritable gammaKey = new IntWritable();
 
-  private double[] tempLogBeta = null;
+  /**
+   * The scratch space and the in-mapper aggregation of a single thread, which allows this mapper to
+   * run under a {@link MultithreadedMapRunner}. Beta and alpha are shared by all threads and never
+   * modified after {@link #configure(JobConf)}.
+   */
+  private class ThreadState {
+    private DocumentInference inference = new DocumentInference(numberOfTopics, numberOfTerms,
+        maximumGammaIteration, gammaConvergeThreshold, likelihoodConvergeThreshold,
+        ReflectionUtils.newInstance(phiKernelClass, null), fastGamma);
 
-  private double[] tempGamma = null;
-  private double[] updateLogGamma = null;
+    // nothing is emitted in testing mode, hence no combiner is held
+    private InMapperCombiner combiner = directEmit || !learning ? null : new InMapperCombiner(
+        numberOfTopics, numberOfHotTerms, combinerOverflowTerms);
+    private double[] totalAlphaSufficientStatistics = new double[numberOfTopics];
 
-  private HMapIV<double[]> logPhiTable = null;
+    private PhiEmitter emitter = new PhiEmitter(numberOfTopics, phiThreshold, phiTopN,
+        vectorEmit, linearPhi, TopicTermKey.newInstance(compactKey),
+        PhiWritable.newInstance(floatPhi));
+
+    private GammaBlockWritable gammaBlock = new GammaBlockWritable(numberOfTopics);
+  }
 
-  private Iterator<Integer> itr = null;
+  private List<ThreadState> threadStates = null;
+  private ThreadLocal<ThreadState> threadState = null;
 
   public void configure(JobConf conf) {
     configurationTime = System.currentTimeMillis();
@@ -76,6 +133,27 @@ public class DocumentMapper extends MapReduceBase implements
     // Settings.DEFAULT_NUMBER_OF_TOPICS);
     maximumGammaIteration = conf.getInt(Settings.PROPERTY_PREFIX
         + "model.mapper.converge.iteration", Settings.MAXIMUM_LOCAL_ITERATION);
+    gammaConvergeThreshold = conf.getFloat(Settings.PROPERTY_PREFIX + "model.mapper.converge.gamma",
+        Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_THRESHOLD);
+    likelihoodConvergeThreshold = conf.getFloat(Settings.PROPERTY_PREFIX
+        + "model.mapper.converge.likelihood", Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_CRITERIA);
+    phiKernelClass = conf.getClass(Settings.PROPERTY_PREFIX + "model.mapper.phi.kernel",
+        LogSumExpPhiKernel.class, PhiKernel.class);
+    fastGamma = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.fast.gamma",
+        Settings.DEFAULT_FAST_GAMMA);
+    phiThreshold = conf.getFloat(Settings.PROPERTY_PREFIX + "model.mapper.phi.threshold",
+        Settings.DEFAULT_PHI_THRESHOLD);
+    phiTopN = conf.getInt(Settings.PROPERTY_PREFIX + "model.mapper.phi.topn",
+        Settings.DEFAULT_PHI_TOP_N);
+    vectorEmit = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.mapper.vector.emit", false);
+    compactKey = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.compact.key",
+        Settings.DEFAULT_COMPACT_KEY);
+    floatPhi = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.float.phi",
+        Settings.DEFAULT_FLOAT_PHI);
+    linearPhi = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi",
+        Settings.DEFAULT_LINEAR_PHI);
+    betaStoreClass = conf.getClass(Settings.PROPERTY_PREFIX + "model.beta.store",
+        DoubleBetaStore.class, BetaStore.class);
 
     learning = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.train", Settings.LEARNING_MODE);
     randomStartGamma = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.random.start",
@@ -85,16 +163,58 @@ public class DocumentMapper extends MapReduceBase implements
 
     directEmit = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.mapper.direct.emit",
         Settings.DEFAULT_DIRECT_EMIT);
-    if (!directEmit) {
-      totalPhi = new HMapIV<double[]>();
-    }
+    combinerOverflowTerms = conf.getInt(Settings.PROPERTY_PREFIX + "model.mapper.combiner.overflow",
+        Settings.DEFAULT_COMBINER_OVERFLOW_TERMS);
+    // every thread of a multithreaded runner holds a combiner
+    numberOfHotTerms = InMapperCombiner.getNumberOfHotTerms(numberOfTopics, numberOfTerms,
+        conf.getFloat(Settings.PROPERTY_PREFIX + "model.mapper.combiner.memory",
+            Settings.DEFAULT_COMBINER_MEMORY_FRACTION),
+        conf.getInt("mapred.map.multithreadedrunner.threads", 1));
+
+    threadStates = new ArrayList<ThreadState>();
+    threadState = new ThreadLocal<ThreadState>() {
+      protected ThreadState initialValue() {
+        ThreadState state = new ThreadState();
+        synchronized (threadStates) {
+          threadStates.add(state);
+        }
+        return state;
+      }
+    };
 
-    totalAlphaSufficientStatistics = new double[numberOfTopics];
+    String inputFile = conf.get("map.input.file");
+    long inputStart = conf.getLong("map.input.start", 0);
+    gammaStore = null;
+    gammaWriter = null;
+    try {
+      // the corpus is never rewritten, the gamma vectors of its documents are kept apart
+      String gammaDir = conf.get(Settings.PROPERTY_PREFIX + "model.gamma.dir");
+      if (gammaDir != null && !randomStartGamma) {
+        Path gammaPath = new Path(gammaDir);
+        FileSystem fs = gammaPath.getFileSystem(conf);
+        gammaStore = GammaStore.load(fs, conf, GammaStore.listSideFiles(fs, gammaPath,
+            inputFile, inputStart), numberOfTopics);
+      }
 
-    updateLogGamma = new double[numberOfTopics];
-    logPhiTable = new HMapIV<double[]>();
+      if (!learning || !randomStartGamma) {
+        // the side file is committed together with the output of this task
+        Path gammaPath = new Path(FileOutputFormat.getWorkOutputPath(conf),
+            GammaStore.getSideFileName(inputFile, inputStart));
+        gammaWriter = SequenceFile.createWriter(gammaPath.getFileSystem(conf), conf, gammaPath,
+            IntWritable.class, GammaBlockWritable.class);
+      }
+    } catch (IOException ioe) {
+      // without the gamma vectors the task would silently restart every document from scratch
+      throw new RuntimeException("Unable to open the gamma side files of " + inputFile, ioe);
+    }
 
-    multipleOutputs = new MultipleOutputs(conf);
+    // the model of a previous task is kept in the model cache only, in case the JVM is reused
+    expectLogBeta = null;
+    alpha = null;
+    int iteration = conf.getInt(Settings.PROPERTY_PREFIX + "model.iteration", 0);
+    List<Path> betaPaths = new ArrayList<Path>();
+    // the informed prior, to fill the cells missing from beta
+    EtaWritable[] lambdaMap = null;
 
     double alphaSum = 0;
 
@@ -104,29 +224,62 @@ public class DocumentMapper extends MapReduceBase implements
       // TODO: check for the missing columns...
       if (inputFiles != null) {
         for (Path path : inputFiles) {
+          if (path.getName().startsWith(Settings.BETA)
+              && path.getName().endsWith(MappedBetaStore.SUFFIX)) {
+            try {
+              Preconditions.checkArgument(expectLogBeta == null,
+                  "Beta matrix was initialized already...");
+              String identity = ModelCache.getIdentity(FileSystem.getLocal(conf), path, iteration);
+              expectLogBeta = (BetaStore) ModelCache.get(Settings.BETA, identity);
+              if (expectLogBeta == null) {
+                ModelCache.remove(Settings.BETA);
+                BetaStore beta = MappedBetaStore.open(new File(path.toUri().getPath()));
+                Preconditions.checkArgument(beta.getNumberOfTopics() == numberOfTopics,
+                    "Invalid number of topics in binary beta file: " + path.getName());
+                expectLogBeta = beta;
+                ModelCache.put(Settings.BETA, identity, expectLogBeta);
+              }
+            } catch (IllegalArgumentException iae) {
+              // the mapper would otherwise run on an empty beta matrix
+              throw new RuntimeException("Unable to open binary beta file " + path, iae);
+            } catch (IOException ioe) {
+              throw new RuntimeException("Unable to open binary beta file " + path, ioe);
+            }
+            continue;
+          } else if (path.getName().startsWith(Settings.BETA)) {
+            // beta may come in a number of parts, which are imported together after the loop
+            betaPaths.add(path);
+            continue;
+          }
+
           try {
             sequenceFileReader = new SequenceFile.Reader(FileSystem.getLocal(conf), path, conf);
 
-            if (path.getName().startsWith(Settings.BETA)) {
-              // TODO: check whether seeded beta is valid, i.e., a true probability distribution
-              Preconditions.checkArgument(expectLogBeta == null,
-                  "Beta matrix was initialized already...");
-              // beta = importBeta(sequenceFileReader, numberOfTopics, numberOfTerms,
-              // approximateBeta);
-              expectLogBeta = importBeta(sequenceFileReader, numberOfTopics, numberOfTerms);
-            } else if (path.getName().startsWith(Settings.ALPHA)) {
+            if (path.getName().startsWith(Settings.ALPHA)) {
               Preconditions.checkArgument(alpha == null, "Alpha vector was initialized already...");
-              // TODO: check the validity of alpha
-              alpha = VariationalInference.importAlpha(sequenceFileReader, numberOfTopics);
+              String identity = ModelCache.getIdentity(FileSystem.getLocal(conf), path, iteration)
+                  + Settings.DASH + numberOfTopics;
+              alpha = (double[]) ModelCache.get(Settings.ALPHA, identity);
+              if (alpha == null) {
+                ModelCache.remove(Settings.ALPHA);
+                // TODO: check the validity of alpha
+                alpha = VariationalInference.importAlpha(sequenceFileReader, numberOfTopics);
+                ModelCache.put(Settings.ALPHA, identity, alpha);
+              }
               double sumLnGammaAlpha = 0;
               for (double value : alpha) {
-                sumLnGammaAlpha += Gamma.lngamma(value);
+                sumLnGammaAlpha += lngamma(value);
                 alphaSum += value;
               }
-              likelihoodAlpha = Gamma.lngamma(alphaSum) - sumLnGammaAlpha;
+              likelihoodAlpha = lngamma(alphaSum) - sumLnGammaAlpha;
             } else if (path.getName().startsWith(InformedPrior.ETA)) {
-              // beta = parseEta(sequenceFileReader, numberOfTopics);
-              continue;
+              String identity = ModelCache.getIdentity(FileSystem.getLocal(conf), path, iteration);
+              lambdaMap = (EtaWritable[]) ModelCache.get(InformedPrior.ETA, identity);
+              if (lambdaMap == null) {
+                ModelCache.remove(InformedPrior.ETA);
+                lambdaMap = InformedPrior.importEta(sequenceFileReader);
+                ModelCache.put(InformedPrior.ETA, identity, lambdaMap);
+              }
             } else {
               throw new IllegalArgumentException("Unexpected file in distributed cache: "
                   + path.getName());
@@ -140,12 +293,75 @@ public class DocumentMapper extends MapReduceBase implements
           }
         }
       }
+
+      String shardedBetaPath = conf.get(Settings.PROPERTY_PREFIX + "model.beta.sharded");
+      if (shardedBetaPath != null) {
+        // model-parallel mode, load the rows of the terms of this input split only
+        Preconditions.checkArgument(expectLogBeta == null && betaPaths.isEmpty(),
+            "Beta matrix was initialized already...");
+        Path path = new Path(shardedBetaPath);
+        try {
+          FileSystem fs = path.getFileSystem(conf);
+          String identity = ModelCache.getIdentity(fs, path, iteration) + Settings.DASH
+              + conf.get("map.input.file") + Settings.DASH + conf.get("map.input.start");
+          expectLogBeta = (BetaStore) ModelCache.get(Settings.BETA, identity);
+          if (expectLogBeta == null) {
+            ModelCache.remove(Settings.BETA);
+            BetaStore beta = ShardedBetaStore.load(fs, path, scanTerms(conf));
+            Preconditions.checkArgument(beta.getNumberOfTopics() == numberOfTopics,
+                "Invalid number of topics in binary beta file: " + path.getName());
+            expectLogBeta = beta;
+            ModelCache.put(Settings.BETA, identity, expectLogBeta);
+          }
+        } catch (IOException ioe) {
+          // an empty store would silently run every term of the split on a random model
+          throw new RuntimeException("Unable to load the rows of beta from " + path, ioe);
+        } catch (IllegalArgumentException iae) {
+          throw new RuntimeException("Unable to load the rows of beta from " + path, iae);
+        }
+      }
+
+      if (!betaPaths.isEmpty()) {
+        // TODO: check whether seeded beta is valid, i.e., a true probability distribution
+        Preconditions.checkArgument(expectLogBeta == null,
+            "Beta matrix was initialized already...");
+        StringBuilder identity = new StringBuilder();
+        for (Path path : betaPaths) {
+          identity.append(ModelCache.getIdentity(FileSystem.getLocal(conf), path, iteration));
+          identity.append(Settings.DASH);
+        }
+        identity.append(numberOfTopics + Settings.DASH + numberOfTerms + Settings.DASH
+            + betaStoreClass.getName());
+
+        expectLogBeta = (BetaStore) ModelCache.get(Settings.BETA, identity.toString());
+        if (expectLogBeta == null) {
+          // drop the beta matrix of the previous iteration before loading the new one
+          ModelCache.remove(Settings.BETA);
+          BetaStore beta = ReflectionUtils.newInstance(betaStoreClass, conf);
+          beta.initialize(numberOfTopics, numberOfTerms);
+          try {
+            importBeta(FileSystem.getLocal(conf), conf, betaPaths, beta, lambdaMap, conf.getInt(
+                Settings.PROPERTY_PREFIX + "model.mapper.import.threads",
+                Settings.DEFAULT_NUMBER_OF_IMPORT_THREADS));
+          } catch (IOException ioe) {
+            // a partially imported beta matrix holds cells never filled
+            throw new RuntimeException("Unable to import beta from " + betaPaths, ioe);
+          } catch (IllegalArgumentException iae) {
+            throw new RuntimeException("Unable to import beta from " + betaPaths, iae);
+          }
+          expectLogBeta = beta;
+          ModelCache.put(Settings.BETA, identity.toString(), expectLogBeta);
+        }
+      }
+    } catch (IllegalArgumentException iae) {
+      iae.printStackTrace();
     } catch (IOException ioe) {
       ioe.printStackTrace();
     }
 
     if (expectLogBeta == null) {
-      expectLogBeta = new HMapIV<double[]>();
+      expectLogBeta = ReflectionUtils.newInstance(betaStoreClass, conf);
+      expectLogBeta.initialize(numberOfTopics, numberOfTerms);
     }
     if (alpha == null) {
       alpha = new double[numberOfTopics];
@@ -153,9 +369,9 @@ public class DocumentMapper extends MapReduceBase implements
       for (int i = 0; i < numberOfTopics; i++) {
         alpha[i] = Math.random();
         alphaSum += alpha[i];
-        alphaLnGammaSum += Gamma.lngamma(alpha[i]);
+        alphaLnGammaSum += lngamma(alpha[i]);
       }
-      likelihoodAlpha = Gamma.lngamma(alphaSum) - alphaLnGammaSum;
+      likelihoodAlpha = lngamma(alphaSum) - alphaLnGammaSum;
     }
 
     // System.out.println("======================================================================");
@@ -173,159 +389,79 @@ public class DocumentMapper extends MapReduceBase implements
 
   @SuppressWarnings("deprecation")
   public void map(IntWritable key, Document value,
-      OutputCollector<PairOfInts, DoubleWritable> output, Reporter reporter) throws IOException {
+      OutputCollector<Writable, Writable> output, Reporter reporter) throws IOException {
     reporter.incrCounter(ParameterCounter.CONFIG_TIME, configurationTime);
     reporter.incrCounter(ParameterCounter.TOTAL_DOCS, 1);
-    trainingTime = System.currentTimeMillis();
+    long trainingTime = System.currentTimeMillis();
 
-    double likelihoodPhi = 0;
+    ThreadState state = threadState.get();
+    DocumentInference inference = state.inference;
+    PhiEmitter emitter = state.emitter;
 
     // initialize tempGamma for computing
-    if (value.getGamma() != null && value.getNumberOfTopics() == numberOfTopics
+    double[] tempGamma = new double[numberOfTopics];
+    boolean storedGamma = gammaStore != null && gammaStore.getGamma(key.get(), tempGamma);
+    if (gammaStore != null && !storedGamma) {
+      reporter.incrCounter(ParameterCounter.MISSING_GAMMA, 1);
+    }
+    // without a stored gamma, fall back to the gamma embedded in a document of an older corpus
+    if (!storedGamma && value.getGamma() != null && value.getNumberOfTopics() == numberOfTopics
         && !randomStartGamma) {
       // TODO: set up mechanisms to prevent starting from some irrelevant gamma value
       tempGamma = value.getGamma();
-    } else {
-      tempGamma = new double[numberOfTopics];
+    } else if (!storedGamma) {
       for (int i = 0; i < numberOfTopics; i++) {
         tempGamma[i] = alpha[i] + 1.0f * value.getNumberOfTokens() / numberOfTopics;
       }
     }
 
-    double[] logPhi = null;
-
     HMapII content = value.getContent();
     if (content == null) {
       System.err.println("Error: content was null for document " + key.toString());
       return;
     }
 
-    // be careful when adjust this initial value
-    int gammaUpdateIterationCount = 1;
-    do {
-      likelihoodPhi = 0;
-
-      for (int i = 0; i < numberOfTopics; i++) {
-        tempGamma[i] = Gamma.digamma(tempGamma[i]);
-        updateLogGamma[i] = Math.log(alpha[i]);
-      }
-
-      itr = content.keySet().iterator();
-      while (itr.hasNext()) {
-        int termID = itr.next();
-        // acquire the corresponding beta vector for this term
-        if (logPhiTable.containsKey(termID)) {
-          // reuse existing object
-          logPhi = logPhiTable.get(termID);
-        } else {
-          logPhi = new double[numberOfTopics];
-          logPhiTable.put(termID, logPhi);
-        }
-
-        int termCounts = content.get(termID);
-        tempLogBeta = retrieveBeta(numberOfTopics, expectLogBeta, termID, numberOfTerms);
+    int gammaUpdateIterationCount = inference.infer(content, tempGamma, expectLogBeta, alpha,
+        reporter);
+    double likelihoodPhi = inference.getLikelihoodPhi();
 
-        likelihoodPhi += updatePhi(numberOfTopics, termCounts, tempLogBeta, tempGamma, logPhi,
-            updateLogGamma);
-      }
-
-      for (int i = 0; i < numberOfTopics; i++) {
-        tempGamma[i] = Math.exp(updateLogGamma[i]);
-      }
-
-      gammaUpdateIterationCount++;
-
-      // send out heart-beat message
-      if (Math.random() < 0.01) {
-        reporter.incrCounter(ParameterCounter.DUMMY_COUNTER, 1);
-      }
-    } while (gammaUpdateIterationCount < maximumGammaIteration);
+    reporter.incrCounter(ParameterCounter.GAMMA_ITERATION, gammaUpdateIterationCount);
+    reporter.incrCounter(VariationalInference.GAMMA_ITERATION_HISTOGRAM,
+        getIterationBucket(gammaUpdateIterationCount), 1);
 
     // compute the sum of gamma vector
     double sumGamma = 0;
     double likelihoodGamma = 0;
     for (int i = 0; i < numberOfTopics; i++) {
       sumGamma += tempGamma[i];
-      likelihoodGamma += Gamma.lngamma(tempGamma[i]);
+      likelihoodGamma += lngamma(tempGamma[i]);
     }
-    likelihoodGamma -= Gamma.lngamma(sumGamma);
+    likelihoodGamma -= lngamma(sumGamma);
     double documentLogLikelihood = likelihoodAlpha + likelihoodGamma + likelihoodPhi;
     reporter.incrCounter(ParameterCounter.LOG_LIKELIHOOD,
         (long) (-documentLogLikelihood * Settings.DEFAULT_COUNTER_SCALE));
 
-    double digammaSumGamma = Gamma.digamma(sumGamma);
+    double digammaSumGamma = digamma(sumGamma);
     for (int i = 0; i < numberOfTopics; i++) {
-      totalAlphaSufficientStatistics[i] += Gamma.digamma(tempGamma[i]) - digammaSumGamma;
+      state.totalAlphaSufficientStatistics[i] += digamma(tempGamma[i]) - digammaSumGamma;
     }
 
+    // all threads of a multithreaded runner share the same output collector and reporter
     outputCollector = output;
+    this.reporter = reporter;
 
     if (!directEmit) {
       if (learning) {
-        if (Runtime.getRuntime().freeMemory() < Settings.MEMORY_THRESHOLD) {
-          itr = totalPhi.keySet().iterator();
-          while (itr.hasNext()) {
-            int termID = itr.next();
-            logPhi = totalPhi.get(termID);
-            for (int i = 0; i < numberOfTopics; i++) {
-              outputValue.set(logPhi[i]);
-
-              // a *positive* topic index indicates the output is a phi values
-              outputKey.set(i + 1, termID);
-              output.collect(outputKey, outputValue);
-            }
-          }
-          totalPhi.clear();
-
-          // for (int i = 0; i < numberOfTopics; i++) {
-          // a *zero* topic index and a *positive* topic index indicates the output is a term for
-          // alpha updating
-          // outputKey.set(0, i + 1);
-          // outputValue.set(totalAlphaSufficientStatistics[i]);
-          // output.collect(outputKey, outputValue);
-          // totalAlphaSufficientStatistics[i] = 0;
-          // }
-        }
-
-        itr = content.keySet().iterator();
-        while (itr.hasNext()) {
-          int termID = itr.next();
-          if (termID < Settings.TOP_WORDS_FOR_CACHING) {
-            if (totalPhi.containsKey(termID)) {
-              logPhi = logPhiTable.get(termID);
-              tempLogBeta = totalPhi.get(termID);
-              for (int i = 0; i < numberOfTopics; i++) {
-                tempLogBeta[i] = LogMath.add(logPhi[i], tempLogBeta[i]);
-              }
-            } else {
-              totalPhi.put(termID, logPhiTable.get(termID));
-            }
-          } else {
-            logPhi = logPhiTable.get(termID);
-            for (int i = 0; i < numberOfTopics; i++) {
-              outputValue.set(logPhi[i]);
-
-              // a *positive* topic index indicates the output is a phi values
-              outputKey.set(i + 1, termID);
-              output.collect(outputKey, outputValue);
-            }
-          }
+        for (int j = 0; j < inference.getNumberOfDistinctTerms(); j++) {
+          state.combiner.add(inference.getTermID(j), inference.getLogPhi(j), emitter, output,
+              reporter);
         }
       }
     } else {
       if (learning) {
-        itr = content.keySet().iterator();
-        while (itr.hasNext()) {
-          int termID = itr.next();
+        for (int j = 0; j < inference.getNumberOfDistinctTerms(); j++) {
           // only get the phi's of current document
-          logPhi = logPhiTable.get(termID);
-          for (int i = 0; i < numberOfTopics; i++) {
-            outputValue.set(logPhi[i]);
-
-            // a *positive* topic index indicates the output is a phi values
-            outputKey.set(i + 1, termID);
-            output.collect(outputKey, outputValue);
-          }
+          emitter.emit(inference.getTermID(j), inference.getLogPhi(j), output, reporter);
         }
 
         // for (int i = 0; i < numberOfTopics; i++) {
@@ -338,11 +474,12 @@ public class DocumentMapper extends MapReduceBase implements
       }
     }
 
-    // output the embedded updated gamma together with document
-    if (!learning || !randomStartGamma) {
-      outputDocument = multipleOutputs.getCollector(Settings.GAMMA, Settings.GAMMA, reporter);
-      value.setGamma(tempGamma);
-      outputDocument.collect(key, value);
+    // output the updated gamma to the side file rather than together with document
+    if (gammaWriter != null) {
+      state.gammaBlock.add(key.get(), tempGamma);
+      if (state.gammaBlock.size() >= GammaStore.DEFAULT_BLOCK_SIZE) {
+        collectGamma(state.gammaBlock);
+      }
     }
 
     trainingTime = System.currentTimeMillis() - trainingTime;
@@ -350,35 +487,121 @@ public class DocumentMapper extends MapReduceBase implements
   }
 
   public void close() throws IOException {
-    if (learning) {
-      for (int i = 0; i < numberOfTopics; i++) {
-        // a *zero* topic index and a *positive* topic index indicates the output is a term for
-        // alpha updating
-        outputKey.set(0, i + 1);
-        outputValue.set(totalAlphaSufficientStatistics[i]);
-        outputCollector.collect(outputKey, outputValue);
-        totalAlphaSufficientStatistics[i] = 0;
-      }
-
-      if (!directEmit) {
-        double[] phi = null;
-        itr = totalPhi.keySet().iterator();
-        while (itr.hasNext()) {
-          int termID = itr.next();
-          phi = totalPhi.get(termID);
-          for (int i = 0; i < numberOfTopics; i++) {
-            outputValue.set(phi[i]);
-
-            // a *positive* topic index indicates the output is a phi values
-            outputKey.set(i + 1, termID);
-            outputCollector.collect(outputKey, outputValue);
+    if (learning && outputCollector != null) {
+      // merge the in-mapper aggregation of all threads
+      double[] totalAlphaSufficientStatistics = new double[numberOfTopics];
+      ThreadState mergedState = null;
+      for (ThreadState state : threadStates) {
+        for (int i = 0; i < numberOfTopics; i++) {
+          totalAlphaSufficientStatistics[i] += state.totalAlphaSufficientStatistics[i];
+        }
+
+        if (!directEmit) {
+          if (mergedState == null) {
+            mergedState = state;
+          } else {
+            mergedState.combiner.merge(state.combiner, mergedState.emitter, outputCollector,
+                reporter);
+          }
+        }
+      }
+
+      threadStates.get(0).emitter.emitAlphaSufficientStatistics(totalAlphaSufficientStatistics,
+          outputCollector);
+
+      if (mergedState != null) {
+        mergedState.combiner.flush(mergedState.emitter, outputCollector, reporter);
+      }
+    }
+
+    if (gammaWriter != null) {
+      for (ThreadState state : threadStates) {
+        if (state.gammaBlock.size() > 0) {
+          collectGamma(state.gammaBlock);
+        }
+      }
+      gammaWriter.close();
+    }
+  }
+
+  /**
+   * Append a block of gamma vectors to the side file, keyed by its first document.
+   */
+  private void collectGamma(GammaBlockWritable gammaBlock) throws IOException {
+    synchronized (gammaWriter) {
+      gammaKey.set(gammaBlock.getDocumentID(0));
+      gammaWriter.append(gammaKey, gammaBlock);
+    }
+    gammaBlock.clear();
+  }
+
+  /**
+   * Collect the terms of the input split of this task, by a pass over the split in the same way as
+   * {@link org.apache.hadoop.mapred.SequenceFileRecordReader}.
+   * 
+   * @param conf configuration of this task
+   * @return the terms in ascending order
+   * @throws IOException
+   */
+  private static int[] scanTerms(JobConf conf) throws IOException {
+    Path inputPath = new Path(conf.get("map.input.file"));
+    long start = conf.getLong("map.input.start", 0);
+    long end = start + conf.getLong("map.input.length", Long.MAX_VALUE - start);
+
+    BitSet terms = new BitSet();
+    SequenceFile.Reader sequenceFileReader = null;
+    try {
+      sequenceFileReader = new SequenceFile.Reader(inputPath.getFileSystem(conf), inputPath, conf);
+      if (start > sequenceFileReader.getPosition()) {
+        sequenceFileReader.sync(start);
+      }
+
+      IntWritable key = new IntWritable();
+      Document value = new Document();
+      boolean more = sequenceFileReader.getPosition() < end;
+      while (more) {
+        long position = sequenceFileReader.getPosition();
+        more = sequenceFileReader.next(key, value);
+        if (position >= end && sequenceFileReader.syncSeen()) {
+          break;
+        }
+
+        if (more && value.getContent() != null) {
+          Iterator<Integer> itr = value.getContent().keySet().iterator();
+          while (itr.hasNext()) {
+            terms.set(itr.next());
           }
         }
-        totalPhi.clear();
       }
+    } finally {
+      IOUtils.closeStream(sequenceFileReader);
+    }
+
+    int[] termIDs = new int[terms.cardinality()];
+    int i = 0;
+    for (int termID = terms.nextSetBit(0); termID >= 0; termID = terms.nextSetBit(termID + 1)) {
+      termIDs[i++] = termID;
     }
-    
-    multipleOutputs.close();
+    return termIDs;
+  }
+
+  private static double digamma(double x) {
+    return fastGamma ? FastGamma.digamma(x) : Gamma.digamma(x);
+  }
+
+  private static double lngamma(double x) {
+    return fastGamma ? FastGamma.lngamma(x) : Gamma.lngamma(x);
+  }
+
+  /**
+   * Get the name of the histogram bucket for the given number of gamma update iterations, buckets
+   * are powers of 2, i.e., 1, 2-3, 4-7, 8-15, etc.
+   * 
+   * @param iterations number of gamma update iterations a document took
+   * @return the counter name of the corresponding histogram bucket
+   */
+  public static String getIterationBucket(int iterations) {
+    return ITERATION_BUCKETS[31 - Integer.numberOfLeadingZeros(Math.max(iterations, 1))];
   }
 
   /**
@@ -429,9 +652,10 @@ public class DocumentMapper extends MapReduceBase implements
   }
 
   /**
-   * Retrieve the beta array given the beta map and term index. If {@code beta} is null or
-   * {@code termID} was not found in {@code beta}, this method will pop a message to
-   * {@link System.out} and initialize it to avoid duplicate initialization in the future.
+   * Retrieve the beta array given the beta map and term index. If {@code termID} was not found in
+   * {@code beta}, it will be initialized by {@link #initializeBeta(int, int, int, double[])} and
+   * added to {@code beta} to avoid duplicate initialization in the future, see
+   * {@link #retrieveBeta(int, HMapIV, int, int, double[])}.
    * 
    * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
    *        model.
@@ -445,16 +669,37 @@ public class DocumentMapper extends MapReduceBase implements
    */
   public static double[] retrieveBeta(int numberOfTopics, HMapIV<double[]> beta, int termID,
       int numberOfTerms) {
+    return retrieveBeta(numberOfTopics, beta, termID, numberOfTerms, null);
+  }
+
+  /**
+   * Retrieve the beta array given the beta map and term index. If {@code termID} was not found in
+   * {@code beta}, it will be smoothed if beta was truncated, i.e., the term was truncated from all
+   * the topics, or initialized by {@link #initializeBeta(int, int, int, double[])} otherwise, and
+   * added to {@code beta} to avoid duplicate initialization in the future.
+   * 
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param beta a {@link HMapIV<double[]>} object stores the beta matrix, the hash map is keyed by
+   *        term index and valued by a corresponding double array
+   * @param termID term index
+   * @param numberOfTerms size of vocabulary in the whole corpus, used to initialize beta of the
+   *        unloaded or non-initialized terms.
+   * @param logBetaSmoothing the smoothing row of a truncated beta matrix, see
+   *        {@link BetaStore#getSmoothingRow(double[])}, or null if beta was not truncated
+   * @return a double array of size {@link numberOfTopics} that stores the beta value of term index
+   *         in log scale.
+   */
+  public static double[] retrieveBeta(int numberOfTopics, HMapIV<double[]> beta, int termID,
+      int numberOfTerms, double[] logBetaSmoothing) {
     Preconditions.checkArgument(beta != null, "Beta matrix was not properly initialized...");
 
     if (!beta.containsKey(termID)) {
-      System.out.println("Term " + termID + " not found in the corresponding beta matrix...");
-
       double[] tempBeta = new double[numberOfTopics];
-      for (int i = 0; i < numberOfTopics; i++) {
-        // beta is initialized in log scale
-        tempBeta[i] = Math.log(2 * Math.random() / numberOfTerms + Math.random());
-        // tempBeta[i] = Math.log(1.0 / numberOfTerms + Math.random());
+      if (logBetaSmoothing != null) {
+        System.arraycopy(logBetaSmoothing, 0, tempBeta, 0, numberOfTopics);
+      } else {
+        initializeBeta(numberOfTopics, termID, numberOfTerms, tempBeta);
       }
       beta.put(termID, tempBeta);
     }
@@ -462,6 +707,433 @@ public class DocumentMapper extends MapReduceBase implements
     return beta.get(termID);
   }
 
+  /**
+   * Initialize the beta vector of a term missing from the beta matrix. Every value is drawn from a
+   * generator seeded by the hash of the term index and the topic index, hence all the mappers and
+   * all the runs initialize a term to the same vector, without sharing any generator.
+   * 
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param termID term index
+   * @param numberOfTerms size of vocabulary in the whole corpus
+   * @param logBeta the beta vector in log scale, take note that it will be updated accordingly
+   */
+  public static void initializeBeta(int numberOfTopics, int termID, int numberOfTerms,
+      double[] logBeta) {
+    for (int i = 0; i < numberOfTopics; i++) {
+      long seed = 2 * ((long) termID * numberOfTopics + i);
+      // beta is initialized in log scale
+      logBeta[i] = Math.log(2 * uniform(seed) / numberOfTerms + uniform(seed + 1));
+    }
+  }
+
+  /**
+   * @return a uniform value in [0, 1) hashed from the seed by the finalizer of SplitMix64
+   */
+  private static double uniform(long seed) {
+    long z = seed * 0x9E3779B97F4A7C15L + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    return (z >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Import the beta matrix into a {@link BetaStore}, entries of terms out of the range of the store
+   * are ignored with a warning. Topics missing from the row of a term, e.g., dropped by the sparse
+   * phi emission, receive no phi mass but the prior eta, hence they are filled with
+   * digamma(eta) minus the normalizer of the topic.
+   * 
+   * @param sequenceFileReader
+   * @param beta an initialized and empty beta store
+   * @throws IOException
+   */
+  public static void importBeta(SequenceFile.Reader sequenceFileReader, BetaStore beta)
+      throws IOException {
+    importBeta(sequenceFileReader, beta, null);
+  }
+
+  /**
+   * Import the beta matrix into a {@link BetaStore}, the missing topics are filled with the eta of
+   * the informed prior, see {@link #importBeta(SequenceFile.Reader, BetaStore)}.
+   * 
+   * @param sequenceFileReader
+   * @param beta an initialized and empty beta store
+   * @param lambdaMap the informed prior indexed by topic, or null if the prior is not informed
+   * @throws IOException
+   */
+  public static void importBeta(SequenceFile.Reader sequenceFileReader, BetaStore beta,
+      EtaWritable[] lambdaMap) throws IOException {
+    PairOfIntFloat pairOfIntFloat = new PairOfIntFloat();
+
+    double[] logNormalizers = new double[beta.getNumberOfTopics()];
+    Arrays.fill(logNormalizers, Double.NaN);
+
+    int ignoredEntries = 0;
+    if (BetaChunkWritable.class.equals(sequenceFileReader.getValueClass())) {
+      // the normalizers trail the chunks of their topics, hence are read ahead
+      long position = sequenceFileReader.getPosition();
+      importNormalizers(sequenceFileReader, logNormalizers);
+      sequenceFileReader.seek(position);
+
+      BetaChunkWritable chunk = new BetaChunkWritable();
+      while (sequenceFileReader.next(pairOfIntFloat, chunk)) {
+        ignoredEntries += importBeta(pairOfIntFloat, chunk, beta, logNormalizers);
+      }
+    } else {
+      HMapIDW hashMap = new HMapIDW();
+      while (sequenceFileReader.next(pairOfIntFloat, hashMap)) {
+        ignoredEntries += importBeta(pairOfIntFloat, hashMap, beta, logNormalizers);
+      }
+    }
+
+    fillBeta(beta, logNormalizers, lambdaMap, ignoredEntries);
+  }
+
+  /**
+   * Import the beta matrix from a number of part files into a {@link BetaStore}, the parts are
+   * read concurrently on a thread pool, see {@link #importBeta(SequenceFile.Reader, BetaStore)}.
+   * The parts are either topic-major, or term-major together with the normalizers of the topics,
+   * see {@link TermVectorReducer}. The parts of topics split into blocks of terms are topic-major
+   * together with the normalizers of the topics, and the parts of chunked topics carry the
+   * normalizers in the trailers of the topics, see {@link TermReducer}.
+   * 
+   * @param fs the file system of the part files
+   * @param conf configuration
+   * @param betaPaths the part files, each of which holds some topics of the beta matrix
+   * @param beta an initialized and empty beta store
+   * @param numberOfThreads maximum number of parts read at once
+   * @throws IOException
+   */
+  public static void importBeta(final FileSystem fs, final Configuration conf,
+      List<Path> betaPaths, final BetaStore beta, int numberOfThreads) throws IOException {
+    importBeta(fs, conf, betaPaths, beta, null, numberOfThreads);
+  }
+
+  /**
+   * Import the beta matrix from a number of part files into a {@link BetaStore}, the missing topics
+   * are filled with the eta of the informed prior, see
+   * {@link #importBeta(FileSystem, Configuration, List, BetaStore, int)}.
+   * 
+   * @param lambdaMap the informed prior indexed by topic, or null if the prior is not informed
+   */
+  public static void importBeta(final FileSystem fs, final Configuration conf,
+      List<Path> betaPaths, final BetaStore beta, EtaWritable[] lambdaMap, int numberOfThreads)
+      throws IOException {
+    if (betaPaths.size() == 1) {
+      SequenceFile.Reader sequenceFileReader = null;
+      try {
+        sequenceFileReader = new SequenceFile.Reader(fs, betaPaths.get(0), conf);
+        importBeta(sequenceFileReader, beta, lambdaMap);
+      } finally {
+        IOUtils.closeStream(sequenceFileReader);
+      }
+      return;
+    }
+
+    final double[] logNormalizers = new double[beta.getNumberOfTopics()];
+    Arrays.fill(logNormalizers, Double.NaN);
+    importNormalizers(fs, conf, betaPaths, logNormalizers);
+
+    ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1,
+        Math.min(numberOfThreads, betaPaths.size())));
+    List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+    for (final Path betaPath : betaPaths) {
+      futures.add(executorService.submit(new Callable<Integer>() {
+        public Integer call() throws IOException {
+          if (betaPath.getName().equals(TermVectorReducer.NORMALIZER_FILE)) {
+            return 0;
+          }
+
+          int ignoredEntries = 0;
+          SequenceFile.Reader sequenceFileReader = null;
+          try {
+            sequenceFileReader = new SequenceFile.Reader(fs, betaPath, conf);
+            // deserialization runs concurrently, while the store is written by one thread at a time
+            if (PhiVectorWritable.class.equals(sequenceFileReader.getValueClass())) {
+              IntWritable intWritable = new IntWritable();
+              PhiVectorWritable vector = new PhiVectorWritable();
+              while (sequenceFileReader.next(intWritable, vector)) {
+                synchronized (beta) {
+                  ignoredEntries += importBeta(intWritable.get(), vector, beta, logNormalizers);
+                }
+              }
+            } else if (BetaChunkWritable.class.equals(sequenceFileReader.getValueClass())) {
+              PairOfIntFloat pairOfIntFloat = new PairOfIntFloat();
+              BetaChunkWritable chunk = new BetaChunkWritable();
+              while (sequenceFileReader.next(pairOfIntFloat, chunk)) {
+                synchronized (beta) {
+                  ignoredEntries += importBeta(pairOfIntFloat, chunk, beta, logNormalizers);
+                }
+              }
+            } else {
+              PairOfIntFloat pairOfIntFloat = new PairOfIntFloat();
+              HMapIDW hashMap = new HMapIDW();
+              while (sequenceFileReader.next(pairOfIntFloat, hashMap)) {
+                synchronized (beta) {
+                  ignoredEntries += importBeta(pairOfIntFloat, hashMap, beta, logNormalizers);
+                }
+              }
+            }
+          } finally {
+            IOUtils.closeStream(sequenceFileReader);
+          }
+          return ignoredEntries;
+        }
+      }));
+    }
+    executorService.shutdown();
+
+    int ignoredEntries = 0;
+    try {
+      for (Future<Integer> future : futures) {
+        ignoredEntries += future.get();
+      }
+    } catch (InterruptedException ie) {
+      executorService.shutdownNow();
+      throw new IOException("Interrupted while importing beta...");
+    } catch (ExecutionException ee) {
+      executorService.shutdownNow();
+      if (ee.getCause() instanceof IOException) {
+        throw (IOException) ee.getCause();
+      }
+      throw new IllegalArgumentException(ee.getCause());
+    }
+
+    synchronized (beta) {
+      fillBeta(beta, logNormalizers, lambdaMap, ignoredEntries);
+    }
+  }
+
+  /**
+   * @param fs the file system of the beta matrix
+   * @param betaPath a beta file, or a directory of beta part files
+   * @return the beta files
+   * @throws IOException
+   */
+  public static List<Path> listBetaParts(FileSystem fs, Path betaPath) throws IOException {
+    List<Path> betaPaths = new ArrayList<Path>();
+    if (!fs.getFileStatus(betaPath).isDir()) {
+      betaPaths.add(betaPath);
+      return betaPaths;
+    }
+
+    for (FileStatus fileStatus : fs.listStatus(betaPath)) {
+      if (!fileStatus.isDir() && fileStatus.getPath().getName().startsWith(Settings.BETA)) {
+        betaPaths.add(fileStatus.getPath());
+      }
+    }
+    return betaPaths;
+  }
+
+  /**
+   * Import a topic row of the beta matrix.
+   * 
+   * @return number of entries out of the range of the store
+   */
+  private static int importBeta(PairOfIntFloat pairOfIntFloat, HMapIDW hashMap, BetaStore beta,
+      double[] logNormalizers) {
+    Preconditions.checkArgument(pairOfIntFloat.getLeftElement() > 0
+        && pairOfIntFloat.getLeftElement() <= beta.getNumberOfTopics(),
+        "Invalid beta vector for term " + pairOfIntFloat.getLeftElement() + "...");
+
+    // topic is from 1 to K
+    int topicIndex = pairOfIntFloat.getLeftElement() - 1;
+    double logNormalizer = pairOfIntFloat.getRightElement();
+    if (Double.isNaN(logNormalizer)) {
+      // a block of terms of the topic, normalized by the aggregated normalizer of the topic
+      logNormalizer = logNormalizers[topicIndex];
+      Preconditions.checkArgument(!Double.isNaN(logNormalizer), "Missing normalizer for topic "
+          + pairOfIntFloat.getLeftElement() + "...");
+    } else {
+      logNormalizers[topicIndex] = logNormalizer;
+    }
+
+    int ignoredEntries = 0;
+    Iterator<Integer> itr = hashMap.keySet().iterator();
+    while (itr.hasNext()) {
+      int termIndex = itr.next();
+      if (termIndex == 0) {
+        // the residual entry of a truncated topic
+        beta.setSmoothing(topicIndex, hashMap.get(termIndex) - logNormalizer);
+        continue;
+      }
+      if (beta.containsTerm(termIndex) && !Double.isNaN(beta.get(termIndex, topicIndex))) {
+        throw new IllegalArgumentException("Dual initialization for term " + termIndex
+            + " in topic " + topicIndex + "...");
+      }
+      if (!beta.set(termIndex, topicIndex, hashMap.get(termIndex) - logNormalizer)) {
+        ignoredEntries++;
+      }
+    }
+    return ignoredEntries;
+  }
+
+  /**
+   * Import a chunk of a topic row of the beta matrix, normalized by the normalizer of the topic
+   * read ahead from its trailer, or from the normalizers of the topics split into blocks of terms.
+   * 
+   * @return number of entries out of the range of the store
+   */
+  private static int importBeta(PairOfIntFloat pairOfIntFloat, BetaChunkWritable chunk,
+      BetaStore beta, double[] logNormalizers) {
+    Preconditions.checkArgument(pairOfIntFloat.getLeftElement() > 0
+        && pairOfIntFloat.getLeftElement() <= beta.getNumberOfTopics(),
+        "Invalid beta chunk for topic " + pairOfIntFloat.getLeftElement() + "...");
+    if (chunk.size() == 0) {
+      // the trailer of the topic
+      return 0;
+    }
+
+    // topic is from 1 to K
+    int topicIndex = pairOfIntFloat.getLeftElement() - 1;
+    double logNormalizer = logNormalizers[topicIndex];
+    Preconditions.checkArgument(!Double.isNaN(logNormalizer), "Missing normalizer for topic "
+        + pairOfIntFloat.getLeftElement() + "...");
+
+    int ignoredEntries = 0;
+    for (int i = 0; i < chunk.size(); i++) {
+      int termIndex = chunk.getTermID(i);
+      if (termIndex == 0) {
+        // the residual entry of a truncated topic
+        beta.setSmoothing(topicIndex, chunk.getValue(i) - logNormalizer);
+        continue;
+      }
+      if (beta.containsTerm(termIndex) && !Double.isNaN(beta.get(termIndex, topicIndex))) {
+        throw new IllegalArgumentException("Dual initialization for term " + termIndex
+            + " in topic " + topicIndex + "...");
+      }
+      if (!beta.set(termIndex, topicIndex, chunk.getValue(i) - logNormalizer)) {
+        ignoredEntries++;
+      }
+    }
+    return ignoredEntries;
+  }
+
+  /**
+   * Import a term row of a term-major beta matrix.
+   * 
+   * @return number of entries out of the range of the store
+   */
+  private static int importBeta(int termID, PhiVectorWritable vector, BetaStore beta,
+      double[] logNormalizers) {
+    Preconditions.checkArgument(termID > 0 && vector.getNumberOfTopics() == logNormalizers.length,
+        "Invalid beta vector for term " + termID + "...");
+
+    double[] values = vector.getValues();
+    int ignoredEntries = 0;
+    for (int i = 0; i < logNormalizers.length; i++) {
+      if (!beta.set(termID, i, values[i] - logNormalizers[i])) {
+        ignoredEntries++;
+      }
+    }
+    return ignoredEntries;
+  }
+
+  /**
+   * Import the normalizers of the topics of a term-major, term-blocked or chunked beta matrix, if
+   * any. The normalizers of a chunked beta matrix are read from the keys of the trailers only.
+   * 
+   * @param logNormalizers the normalizers of the topics, in the same scale as the beta values
+   * @throws IOException
+   */
+  private static void importNormalizers(FileSystem fs, Configuration conf, List<Path> betaPaths,
+      double[] logNormalizers) throws IOException {
+    for (Path betaPath : betaPaths) {
+      SequenceFile.Reader sequenceFileReader = null;
+      try {
+        sequenceFileReader = new SequenceFile.Reader(fs, betaPath, conf);
+        if (betaPath.getName().equals(TermVectorReducer.NORMALIZER_FILE)) {
+          IntWritable intWritable = new IntWritable();
+          PhiVectorWritable vector = new PhiVectorWritable();
+          Preconditions.checkArgument(sequenceFileReader.next(intWritable, vector)
+              && vector.getNumberOfTopics() == logNormalizers.length,
+              "Invalid beta normalizers in " + betaPath + "...");
+          System.arraycopy(vector.getValues(), 0, logNormalizers, 0, logNormalizers.length);
+        } else if (BetaChunkWritable.class.equals(sequenceFileReader.getValueClass())) {
+          importNormalizers(sequenceFileReader, logNormalizers);
+        }
+      } finally {
+        IOUtils.closeStream(sequenceFileReader);
+      }
+    }
+  }
+
+  /**
+   * Import the normalizers of the topics from the trailers of a chunked beta file, reading the keys
+   * only. The trailers of topics split into blocks of terms carry no normalizer.
+   */
+  private static void importNormalizers(SequenceFile.Reader sequenceFileReader,
+      double[] logNormalizers) throws IOException {
+    PairOfIntFloat pairOfIntFloat = new PairOfIntFloat();
+    while (sequenceFileReader.next(pairOfIntFloat)) {
+      if (!Float.isNaN(pairOfIntFloat.getRightElement())) {
+        Preconditions.checkArgument(pairOfIntFloat.getLeftElement() > 0
+            && pairOfIntFloat.getLeftElement() <= logNormalizers.length,
+            "Invalid beta chunk for topic " + pairOfIntFloat.getLeftElement() + "...");
+        logNormalizers[pairOfIntFloat.getLeftElement() - 1] = pairOfIntFloat.getRightElement();
+      }
+    }
+  }
+
+  /**
+   * Fill the cells of the imported beta matrix which were not written. The missing cells of a
+   * truncated topic are more likely truncated than unseen, hence they are filled with the
+   * smoothing value of the topic, and the smoothing row is completed for the topics not truncated.
+   * The missing cells of the informed terms of a topic take their own eta, the way
+   * {@link TermReducer} adds the prior.
+   */
+  private static void fillBeta(BetaStore beta, double[] logNormalizers, EtaWritable[] lambdaMap,
+      int ignoredEntries) {
+    if (ignoredEntries > 0) {
+      sLogger.warn(ignoredEntries
+          + " beta entries out of the range of vocabulary were ignored...");
+    }
+
+    // the eta of the terms unknown to the prior
+    double eta = Math.exp(lambdaMap != null ? InformedPrior.DEFAULT_UNINFORMED_LOG_ETA
+        : Settings.DEFAULT_LOG_ETA);
+    double[] logBetaFloor = new double[beta.getNumberOfTopics()];
+    double[] logBetaSmoothing = new double[beta.getNumberOfTopics()];
+    boolean truncated = beta.getSmoothingRow(logBetaSmoothing);
+    for (int i = 0; i < logBetaFloor.length; i++) {
+      EtaWritable informedTerms = lambdaMap != null ? InformedPrior.getEta(lambdaMap, i + 1)
+          : null;
+      double logNormalizer = logNormalizers[i];
+      if (Double.isNaN(logNormalizer)) {
+        // topic received no phi mass at all, fall back to the prior
+        double etaSum = eta * beta.getNumberOfTerms();
+        for (int j = 0; informedTerms != null && j < informedTerms.size(); j++) {
+          etaSum += Math.exp(informedTerms.getLogEta(j)) - eta;
+        }
+        logNormalizer = Gamma.digamma(etaSum);
+      }
+
+      if (truncated && !Double.isNaN(logBetaSmoothing[i])) {
+        logBetaFloor[i] = logBetaSmoothing[i];
+        continue;
+      }
+      logBetaFloor[i] = Gamma.digamma(eta) - logNormalizer;
+
+      for (int j = 0; informedTerms != null && j < informedTerms.size(); j++) {
+        int termID = informedTerms.getTermID(j);
+        if (beta.containsTerm(termID) && Double.isNaN(beta.get(termID, i))) {
+          beta.set(termID, i, Gamma.digamma(Math.exp(informedTerms.getLogEta(j)))
+              - logNormalizer);
+        }
+      }
+    }
+    beta.fillMissingCells(logBetaFloor);
+
+    if (truncated) {
+      for (int i = 0; i < logBetaFloor.length; i++) {
+        if (Double.isNaN(logBetaSmoothing[i])) {
+          beta.setSmoothing(i, logBetaFloor[i]);
+        }
+      }
+    }
+  }
+
   /**
    * 
    * @param sequenceFileReader
@@ -0,0 +1,45 @@
+package cc.mrlda;
+
+import java.util.Arrays;
+
+/**
+ * A {@link BetaStore} in double precision.
+ * 
+ * @author kzhai
+ */
+public class DoubleBetaStore extends BetaStore {
+  private double[][] pages = null;
+
+  public long getMemoryUsage() {
+    long memoryUsage = 0;
+    for (double[] page : pages) {
+      memoryUsage += page == null ? 0 : 8L * page.length;
+    }
+    return memoryUsage;
+  }
+
+  protected void allocatePages(int numberOfPages) {
+    pages = new double[numberOfPages][];
+  }
+
+  protected boolean isAllocated(int page) {
+    return pages[page] != null;
+  }
+
+  protected void allocatePage(int page, int numberOfCells) {
+    pages[page] = new double[numberOfCells];
+    Arrays.fill(pages[page], Double.NaN);
+  }
+
+  protected double getCell(int page, int offset) {
+    return pages[page][offset];
+  }
+
+  protected void setCell(int page, int offset, double logBeta) {
+    pages[page][offset] = logBeta;
+  }
+
+  protected void copyRow(int page, int offset, double[] logBeta) {
+    System.arraycopy(pages[page], offset, logBeta, 0, numberOfTopics);
+  }
+}
@@ -0,0 +1,119 @@
+package cc.mrlda;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The informed prior of a topic, i.e., the terms known to the topic in ascending order, each with
+ * its own eta in log scale, held in primitive arrays. A term is looked up by a binary search, hence
+ * without allocation. The terms are delta encoded as variable length integers.
+ *
+ * @author kzhai
+ */
+public class EtaWritable implements Writable {
+  private int size = 0;
+  private int[] termIDs = null;
+  private float[] logEtas = null;
+
+  public EtaWritable() {
+    this(0);
+  }
+
+  /**
+   * @param capacity initial number of terms of this prior
+   */
+  public EtaWritable(int capacity) {
+    termIDs = new int[capacity];
+    logEtas = new float[capacity];
+  }
+
+  /**
+   * @return number of terms known to this prior
+   */
+  public int size() {
+    return size;
+  }
+
+  public int getTermID(int index) {
+    return termIDs[index];
+  }
+
+  public float getLogEta(int index) {
+    return logEtas[index];
+  }
+
+  /**
+   * @param termID a term greater than the terms of this prior
+   * @param logEta the eta of the term in log scale
+   */
+  public void add(int termID, float logEta) {
+    Preconditions.checkArgument(size == 0 || termID > termIDs[size - 1], "Term " + termID
+        + " out of order in informed prior...");
+    if (size == termIDs.length) {
+      ensureCapacity(Math.max(16, 2 * size));
+    }
+    termIDs[size] = termID;
+    logEtas[size] = logEta;
+    size++;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * @param termID term index
+   * @param defaultLogEta the eta in log scale of the terms unknown to this prior
+   * @return the eta of the term in log scale
+   */
+  public float getLogEta(int termID, float defaultLogEta) {
+    int index = Arrays.binarySearch(termIDs, 0, size, termID);
+    return index >= 0 ? logEtas[index] : defaultLogEta;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, size);
+    int previousTermID = 0;
+    for (int i = 0; i < size; i++) {
+      WritableUtils.writeVInt(out, termIDs[i] - previousTermID);
+      previousTermID = termIDs[i];
+    }
+    for (int i = 0; i < size; i++) {
+      out.writeFloat(logEtas[i]);
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    int numberOfTerms = WritableUtils.readVInt(in);
+    // the previous terms need not be kept
+    size = 0;
+    ensureCapacity(numberOfTerms);
+    int termID = 0;
+    for (int i = 0; i < numberOfTerms; i++) {
+      termID += WritableUtils.readVInt(in);
+      termIDs[i] = termID;
+    }
+    for (int i = 0; i < numberOfTerms; i++) {
+      logEtas[i] = in.readFloat();
+    }
+    size = numberOfTerms;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (termIDs.length < capacity) {
+      int[] newTermIDs = new int[capacity];
+      System.arraycopy(termIDs, 0, newTermIDs, 0, size);
+      termIDs = newTermIDs;
+      float[] newLogEtas = new float[capacity];
+      System.arraycopy(logEtas, 0, newLogEtas, 0, size);
+      logEtas = newLogEtas;
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package cc.mrlda;
+
+import edu.umd.cloud9.math.Gamma;
+
+/**
+ * Fast implementations of the digamma, trigamma and log gamma functions for positive arguments,
+ * which replace {@link Gamma} in the inner loops of the variational inference.
+ * <ul>
+ * <li>{@link #digamma(double)} evaluates a third order Taylor expansion around the nearest knot of a
+ * table with spacing 1/256 on [1, 10), shifts arguments below 1 by the recurrence
+ * psi(x) = psi(x + 1) - 1 / x, and uses the asymptotic series from 10 on. The error is below
+ * 2e-11, absolute where |psi(x)| < 1 and relative elsewhere.</li>
+ * <li>{@link #trigamma(double)} shifts the argument above 10 by the recurrence and uses the
+ * asymptotic series. The relative error is below 1e-13.</li>
+ * <li>{@link #lngamma(double)} shifts the argument above 10 with a single logarithm of the product
+ * of the shifts, and uses the Stirling series. The error is below 2e-12, absolute where
+ * |lngamma(x)| < 1 and relative elsewhere.</li>
+ * </ul>
+ * Non-positive arguments fall back to {@link Gamma}.
+ *
+ * @author kzhai
+ */
+public class FastGamma {
+  private static final double LOG_SQRT_TWO_PI = 0.5 * Math.log(2 * Math.PI);
+
+  private static final double ASYMPTOTIC_THRESHOLD = 10;
+
+  private static final int TABLE_RESOLUTION = 256;
+  private static final double TABLE_START = 1;
+
+  /**
+   * digamma and its first three derivatives on the knots, interleaved
+   */
+  private static final double[] DIGAMMA_TABLE = new double[4 * (int) ((ASYMPTOTIC_THRESHOLD - TABLE_START)
+      * TABLE_RESOLUTION + 1)];
+  static {
+    for (int i = 0; i < DIGAMMA_TABLE.length / 4; i++) {
+      double x = TABLE_START + 1.0 * i / TABLE_RESOLUTION;
+
+      // shift the argument far enough for the asymptotic series to be exact in double precision
+      double shift0 = 0;
+      double shift1 = 0;
+      double shift2 = 0;
+      double shift3 = 0;
+      while (x < 2 * ASYMPTOTIC_THRESHOLD) {
+        double inverse = 1.0 / x;
+        double inverse2 = inverse * inverse;
+        shift0 -= inverse;
+        shift1 += inverse2;
+        shift2 -= 2 * inverse2 * inverse;
+        shift3 += 6 * inverse2 * inverse2;
+        x += 1;
+      }
+
+      DIGAMMA_TABLE[4 * i] = shift0 + asymptoticDigamma(x);
+      DIGAMMA_TABLE[4 * i + 1] = shift1 + asymptoticTrigamma(x);
+      DIGAMMA_TABLE[4 * i + 2] = shift2 + asymptoticTetragamma(x);
+      DIGAMMA_TABLE[4 * i + 3] = shift3 + asymptoticPentagamma(x);
+    }
+  }
+
+  /**
+   * @param x a positive value
+   * @return the digamma function of x
+   */
+  public static double digamma(double x) {
+    if (!(x > 0)) {
+      return Gamma.digamma(x);
+    }
+
+    double shift = 0;
+    if (x < TABLE_START) {
+      shift = -1.0 / x;
+      x += 1;
+    }
+
+    if (x >= ASYMPTOTIC_THRESHOLD) {
+      return shift + asymptoticDigamma(x);
+    }
+
+    // the nearest knot, hence the offset is at most half of the table spacing
+    int knot = (int) ((x - TABLE_START) * TABLE_RESOLUTION + 0.5);
+    double h = x - TABLE_START - 1.0 * knot / TABLE_RESOLUTION;
+    int index = 4 * knot;
+    return shift
+        + DIGAMMA_TABLE[index]
+        + h
+        * (DIGAMMA_TABLE[index + 1] + h
+            * (DIGAMMA_TABLE[index + 2] / 2 + h * DIGAMMA_TABLE[index + 3] / 6));
+  }
+
+  /**
+   * @param x a positive value
+   * @return the trigamma function of x
+   */
+  public static double trigamma(double x) {
+    if (!(x > 0)) {
+      return Gamma.trigamma(x);
+    }
+
+    double shift = 0;
+    while (x < ASYMPTOTIC_THRESHOLD) {
+      shift += 1.0 / (x * x);
+      x += 1;
+    }
+
+    return shift + asymptoticTrigamma(x);
+  }
+
+  /**
+   * @param x a positive value
+   * @return the natural logarithm of the gamma function of x
+   */
+  public static double lngamma(double x) {
+    if (!(x > 0)) {
+      return Gamma.lngamma(x);
+    }
+
+    double product = 1;
+    while (x < ASYMPTOTIC_THRESHOLD) {
+      product *= x;
+      x += 1;
+    }
+
+    double inverse = 1.0 / x;
+    double inverse2 = inverse * inverse;
+    double series = inverse
+        * (1.0 / 12 - inverse2 * (1.0 / 360 - inverse2 * (1.0 / 1260 - inverse2 / 1680)));
+    double lngamma = (x - 0.5) * Math.log(x) - x + LOG_SQRT_TWO_PI + series;
+
+    return product == 1 ? lngamma : lngamma - Math.log(product);
+  }
+
+  private static double asymptoticDigamma(double x) {
+    double inverse2 = 1.0 / (x * x);
+    return Math.log(x)
+        - 0.5
+        / x
+        - inverse2
+        * (1.0 / 12 - inverse2
+            * (1.0 / 120 - inverse2 * (1.0 / 252 - inverse2 * (1.0 / 240 - inverse2 / 132))));
+  }
+
+  private static double asymptoticTrigamma(double x) {
+    double inverse = 1.0 / x;
+    double inverse2 = inverse * inverse;
+    return inverse
+        * (1 + inverse
+            * (0.5 + inverse
+                * (1.0 / 6 - inverse2
+                    * (1.0 / 30 - inverse2 * (1.0 / 42 - inverse2 * (1.0 / 30 - inverse2 * 5 / 66))))));
+  }
+
+  private static double asymptoticTetragamma(double x) {
+    double inverse = 1.0 / x;
+    double inverse2 = inverse * inverse;
+    return -inverse2
+        * (1 + inverse
+            * (1 + inverse
+                * (0.5 - inverse2
+                    * (1.0 / 6 - inverse2 * (1.0 / 6 - inverse2 * (3.0 / 10 - inverse2 * 5 / 6))))));
+  }
+
+  private static double asymptoticPentagamma(double x) {
+    double inverse = 1.0 / x;
+    double inverse2 = inverse * inverse;
+    return inverse2
+        * inverse
+        * (2 + inverse
+            * (3 + inverse
+                * (2 - inverse2 * (1 - inverse2 * (4.0 / 3 - inverse2 * (3 - inverse2 * 10))))));
+  }
+}
@@ -0,0 +1,49 @@
+package cc.mrlda;
+
+import java.util.Arrays;
+
+/**
+ * A {@link BetaStore} in single precision, which takes half the memory of {@link DoubleBetaStore}.
+ * Rounding the log beta values to single precision perturbs beta by a relative error of about 1e-6.
+ * 
+ * @author kzhai
+ */
+public class FloatBetaStore extends BetaStore {
+  private float[][] pages = null;
+
+  public long getMemoryUsage() {
+    long memoryUsage = 0;
+    for (float[] page : pages) {
+      memoryUsage += page == null ? 0 : 4L * page.length;
+    }
+    return memoryUsage;
+  }
+
+  protected void allocatePages(int numberOfPages) {
+    pages = new float[numberOfPages][];
+  }
+
+  protected boolean isAllocated(int page) {
+    return pages[page] != null;
+  }
+
+  protected void allocatePage(int page, int numberOfCells) {
+    pages[page] = new float[numberOfCells];
+    Arrays.fill(pages[page], Float.NaN);
+  }
+
+  protected double getCell(int page, int offset) {
+    return pages[page][offset];
+  }
+
+  protected void setCell(int page, int offset, double logBeta) {
+    pages[page][offset] = (float) logBeta;
+  }
+
+  protected void copyRow(int page, int offset, double[] logBeta) {
+    float[] cells = pages[page];
+    for (int i = 0; i < numberOfTopics; i++) {
+      logBeta[i] = cells[offset + i];
+    }
+  }
+}
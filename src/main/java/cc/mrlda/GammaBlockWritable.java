@@ -0,0 +1,129 @@
+package cc.mrlda;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A block of gamma vectors of the documents of an input split, held in primitive arrays, i.e., the
+ * document indices, delta encoded as variable length integers from the offset of the block, and a
+ * row of K single precision values per document. See {@link GammaStore}.
+ *
+ * @author kzhai
+ */
+public class GammaBlockWritable implements Writable {
+  private int numberOfTopics = 0;
+  private int size = 0;
+  private int[] documentIDs = new int[0];
+  private float[] gammas = new float[0];
+
+  public GammaBlockWritable() {
+  }
+
+  /**
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   */
+  public GammaBlockWritable(int numberOfTopics) {
+    this.numberOfTopics = numberOfTopics;
+  }
+
+  public int getNumberOfTopics() {
+    return numberOfTopics;
+  }
+
+  /**
+   * @return number of documents of this block
+   */
+  public int size() {
+    return size;
+  }
+
+  public int getDocumentID(int index) {
+    return documentIDs[index];
+  }
+
+  /**
+   * @param index position of a document within this block
+   * @param gamma a buffer of size {@link #getNumberOfTopics()}
+   */
+  public void getGamma(int index, double[] gamma) {
+    int offset = index * numberOfTopics;
+    for (int i = 0; i < numberOfTopics; i++) {
+      gamma[i] = gammas[offset + i];
+    }
+  }
+
+  /**
+   * @return the gamma vectors of the documents of this block, a row of K values per document,
+   *         take note that the array is reused by the following blocks
+   */
+  public float[] getGammas() {
+    return gammas;
+  }
+
+  /**
+   * @param documentID document index
+   * @param gamma the gamma vector of the document
+   */
+  public void add(int documentID, double[] gamma) {
+    ensureCapacity(size + 1);
+    documentIDs[size] = documentID;
+    int offset = size * numberOfTopics;
+    for (int i = 0; i < numberOfTopics; i++) {
+      gammas[offset + i] = (float) gamma[i];
+    }
+    size++;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, numberOfTopics);
+    WritableUtils.writeVInt(out, size);
+    int previousDocumentID = 0;
+    for (int i = 0; i < size; i++) {
+      // the documents of a split mostly come in ascending order, hence take a byte each
+      WritableUtils.writeVInt(out, documentIDs[i] - previousDocumentID);
+      previousDocumentID = documentIDs[i];
+    }
+    for (int i = 0; i < size * numberOfTopics; i++) {
+      out.writeFloat(gammas[i]);
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    numberOfTopics = WritableUtils.readVInt(in);
+    int numberOfDocuments = WritableUtils.readVInt(in);
+    // the previous documents need not be kept
+    size = 0;
+    ensureCapacity(numberOfDocuments);
+    int documentID = 0;
+    for (int i = 0; i < numberOfDocuments; i++) {
+      documentID += WritableUtils.readVInt(in);
+      documentIDs[i] = documentID;
+    }
+    for (int i = 0; i < numberOfDocuments * numberOfTopics; i++) {
+      gammas[i] = in.readFloat();
+    }
+    size = numberOfDocuments;
+  }
+
+  private void ensureCapacity(int capacity) {
+    // the number of topics may change with the blocks read
+    if (documentIDs.length < capacity || gammas.length < capacity * numberOfTopics) {
+      capacity = Math.max(capacity, Math.max(16, 2 * documentIDs.length));
+      int[] newDocumentIDs = new int[capacity];
+      System.arraycopy(documentIDs, 0, newDocumentIDs, 0, size);
+      documentIDs = newDocumentIDs;
+      float[] newGammas = new float[capacity * numberOfTopics];
+      System.arraycopy(gammas, 0, newGammas, 0, size * numberOfTopics);
+      gammas = newGammas;
+    }
+  }
+}
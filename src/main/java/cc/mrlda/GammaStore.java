@@ -0,0 +1,239 @@
+package cc.mrlda;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+/**
+ * The gamma vectors of the documents, kept apart from the corpus, so that the corpus is never
+ * rewritten. Every map task writes the gamma vectors of its input split to a side file named after
+ * the split, see {@link #getSideFileName(String, long)}, as a sequence of
+ * {@link GammaBlockWritable} keyed by the first document of the block. The map task of the same
+ * split in the next iteration loads the side file, or all the side files of its input file if the
+ * splits have changed in between, into this store, which holds the documents in ascending order
+ * in primitive arrays, and looks up a document by a binary search.
+ *
+ * @author kzhai
+ */
+public class GammaStore {
+  /**
+   * number of documents per block of a side file
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+  private int numberOfTopics = 0;
+  private int size = 0;
+  private int[] documentIDs = new int[0];
+  private float[] gammas = new float[0];
+
+  /**
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   */
+  public GammaStore(int numberOfTopics) {
+    this.numberOfTopics = numberOfTopics;
+  }
+
+  public int getNumberOfTopics() {
+    return numberOfTopics;
+  }
+
+  /**
+   * @return number of documents in this store
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param documentID document index
+   * @param gamma a buffer of size {@link #getNumberOfTopics()}
+   * @return true if the document is in this store and its gamma is copied, false otherwise, in
+   *         which case the buffer is left untouched
+   */
+  public boolean getGamma(int documentID, double[] gamma) {
+    int index = Arrays.binarySearch(documentIDs, 0, size, documentID);
+    if (index < 0) {
+      return false;
+    }
+    int offset = index * numberOfTopics;
+    for (int i = 0; i < numberOfTopics; i++) {
+      gamma[i] = gammas[offset + i];
+    }
+    return true;
+  }
+
+  /**
+   * @param inputFile the file of an input split
+   * @param start the start of the input split in the file
+   * @return the name of the side file of the input split
+   */
+  public static String getSideFileName(String inputFile, long start) {
+    return getSideFilePrefix(inputFile) + start;
+  }
+
+  private static String getSideFilePrefix(String inputFile) {
+    return Settings.GAMMA + Settings.DASH + new Path(inputFile).getName() + Settings.DASH;
+  }
+
+  /**
+   * @param fs the file system of the side files
+   * @param gammaDir the directory of the side files
+   * @param inputFile the file of an input split
+   * @param start the start of the input split in the file
+   * @return the side file of the input split, or all the side files of the input file if the
+   *         input split has none
+   * @throws IOException
+   */
+  public static List<Path> listSideFiles(FileSystem fs, Path gammaDir, String inputFile,
+      long start) throws IOException {
+    List<Path> gammaPaths = new ArrayList<Path>();
+    Path gammaPath = new Path(gammaDir, getSideFileName(inputFile, start));
+    if (fs.exists(gammaPath)) {
+      gammaPaths.add(gammaPath);
+      return gammaPaths;
+    }
+
+    String prefix = getSideFilePrefix(inputFile);
+    for (Path path : listSideFiles(fs, gammaDir)) {
+      if (path.getName().startsWith(prefix)) {
+        gammaPaths.add(path);
+      }
+    }
+    return gammaPaths;
+  }
+
+  /**
+   * @param fs the file system of the side files
+   * @param gammaDir the directory of the side files
+   * @return all the side files in the directory
+   * @throws IOException
+   */
+  public static List<Path> listSideFiles(FileSystem fs, Path gammaDir) throws IOException {
+    List<Path> gammaPaths = new ArrayList<Path>();
+    for (FileStatus fileStatus : fs.listStatus(gammaDir)) {
+      if (!fileStatus.isDir()
+          && fileStatus.getPath().getName().startsWith(Settings.GAMMA + Settings.DASH)) {
+        gammaPaths.add(fileStatus.getPath());
+      }
+    }
+    return gammaPaths;
+  }
+
+  /**
+   * @param fs the file system of the gamma directory
+   * @param conf configuration
+   * @param gammaDir a gamma directory
+   * @return true if the gamma directory holds side files, false if it holds documents together
+   *         with their gamma vectors, as written before the corpus was kept apart from gamma
+   * @throws IOException
+   */
+  public static boolean isSideStore(FileSystem fs, Configuration conf, Path gammaDir)
+      throws IOException {
+    for (FileStatus fileStatus : fs.listStatus(gammaDir)) {
+      String name = fileStatus.getPath().getName();
+      if (fileStatus.isDir() || name.startsWith("_") || name.startsWith(".")) {
+        continue;
+      }
+
+      SequenceFile.Reader sequenceFileReader = null;
+      try {
+        sequenceFileReader = new SequenceFile.Reader(fs, fileStatus.getPath(), conf);
+        return GammaBlockWritable.class.equals(sequenceFileReader.getValueClass());
+      } finally {
+        IOUtils.closeStream(sequenceFileReader);
+      }
+    }
+    // an empty directory holds no documents either
+    return true;
+  }
+
+  /**
+   * Load the gamma vectors of the side files, the blocks of a different number of topics are
+   * skipped.
+   *
+   * @param fs the file system of the side files
+   * @param conf configuration
+   * @param gammaPaths the side files
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @return the gamma vectors of the documents of the side files
+   * @throws IOException
+   */
+  public static GammaStore load(FileSystem fs, Configuration conf, List<Path> gammaPaths,
+      int numberOfTopics) throws IOException {
+    GammaStore gammaStore = new GammaStore(numberOfTopics);
+    IntWritable intWritable = new IntWritable();
+    GammaBlockWritable block = new GammaBlockWritable();
+    for (Path gammaPath : gammaPaths) {
+      SequenceFile.Reader sequenceFileReader = null;
+      try {
+        sequenceFileReader = new SequenceFile.Reader(fs, gammaPath, conf);
+        while (sequenceFileReader.next(intWritable, block)) {
+          if (block.getNumberOfTopics() == numberOfTopics) {
+            gammaStore.add(block);
+          }
+        }
+      } finally {
+        IOUtils.closeStream(sequenceFileReader);
+      }
+    }
+    gammaStore.sort();
+    return gammaStore;
+  }
+
+  private void add(GammaBlockWritable block) {
+    if (documentIDs.length < size + block.size()) {
+      int capacity = Math.max(size + block.size(), 2 * documentIDs.length);
+      documentIDs = Arrays.copyOf(documentIDs, capacity);
+      gammas = Arrays.copyOf(gammas, capacity * numberOfTopics);
+    }
+    for (int i = 0; i < block.size(); i++) {
+      documentIDs[size + i] = block.getDocumentID(i);
+    }
+    System.arraycopy(block.getGammas(), 0, gammas, size * numberOfTopics, block.size()
+        * numberOfTopics);
+    size += block.size();
+  }
+
+  /**
+   * Sort the documents, which are already sorted unless the side files were written by a number
+   * of threads.
+   */
+  private void sort() {
+    boolean sorted = true;
+    for (int i = 1; i < size && sorted; i++) {
+      sorted = documentIDs[i - 1] <= documentIDs[i];
+    }
+    if (sorted) {
+      return;
+    }
+
+    // the documents packed with their positions
+    long[] order = new long[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = ((long) documentIDs[i] << 32) | i;
+    }
+    Arrays.sort(order);
+
+    int[] sortedDocumentIDs = new int[size];
+    float[] sortedGammas = new float[size * numberOfTopics];
+    for (int i = 0; i < size; i++) {
+      int index = (int) order[i];
+      sortedDocumentIDs[i] = documentIDs[index];
+      System.arraycopy(gammas, index * numberOfTopics, sortedGammas, i * numberOfTopics,
+          numberOfTopics);
+    }
+    documentIDs = sortedDocumentIDs;
+    gammas = sortedGammas;
+  }
+}
@@ -0,0 +1,130 @@
+package cc.mrlda;
+
+import java.util.Arrays;
+
+/**
+ * A {@link BetaStore} in half precision, i.e., IEEE 754 binary16, which takes a quarter of the
+ * memory of {@link DoubleBetaStore}. Half precision keeps 11 significant bits, hence a log beta
+ * value of magnitude between 16 and 32 is rounded by at most 2^-7, i.e., beta is perturbed by a
+ * relative error below 1%. A log beta value below {@link #LOG_BETA_FLOOR}, e.g., the digamma of
+ * eta of a term without any phi mass in a topic, is clamped to the floor, as it is far beyond the
+ * range of half precision and would otherwise overflow to negative infinity.
+ *
+ * @author kzhai
+ */
+public class HalfBetaStore extends BetaStore {
+  private static final short NaN = 0x7e00;
+
+  /**
+   * smallest log beta value held in half precision, exactly representable, whose beta is zero in
+   * effect
+   */
+  public static final double LOG_BETA_FLOOR = -6e4;
+
+  private short[][] pages = null;
+
+  /**
+   * @param value a value in double precision
+   * @return the nearest value in half precision, ties to even, as its bit pattern
+   */
+  public static short toHalf(double value) {
+    // rounded from the double directly, as rounding through a float may round twice
+    long bits = Double.doubleToRawLongBits(value);
+    int sign = (int) (bits >>> 48) & 0x8000;
+    int exponent = (int) (bits >>> 52 & 0x7ff) - 1023 + 15;
+    long mantissa = bits & 0xfffffffffffffL;
+
+    if (exponent == 0x7ff - 1023 + 15) {
+      // infinity or NaN
+      return (short) (mantissa == 0 ? sign | 0x7c00 : NaN);
+    }
+    if (exponent >= 0x1f) {
+      // overflow to infinity
+      return (short) (sign | 0x7c00);
+    }
+
+    int shift = 42;
+    int half = (exponent << 10) | (int) (mantissa >>> shift);
+    if (exponent <= 0) {
+      if (exponent < -10) {
+        // underflow to zero
+        return (short) sign;
+      }
+      // subnormal, with the implicit leading bit made explicit
+      mantissa |= 1L << 52;
+      shift = 43 - exponent;
+      half = (int) (mantissa >>> shift);
+    }
+
+    // round to nearest, ties to even, a carry rolls over into the exponent as it should
+    long remainder = mantissa & ((1L << shift) - 1);
+    long halfway = 1L << (shift - 1);
+    if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+      half++;
+    }
+    return (short) (sign | half);
+  }
+
+  /**
+   * @param logBeta a beta value in log scale
+   * @return the value clamped to {@link #LOG_BETA_FLOOR} in half precision, as its bit pattern,
+   *         {@link Double#NaN} is kept as is
+   */
+  public static short toHalfLogBeta(double logBeta) {
+    return toHalf(logBeta < LOG_BETA_FLOOR ? LOG_BETA_FLOOR : logBeta);
+  }
+
+  /**
+   * @param half a value in half precision, as its bit pattern
+   * @return the value in double precision
+   */
+  public static double toDouble(short half) {
+    int exponent = (half >>> 10) & 0x1f;
+    int mantissa = half & 0x3ff;
+    double value;
+    if (exponent == 0x1f) {
+      value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+    } else if (exponent == 0) {
+      value = Math.scalb((double) mantissa, -24);
+    } else {
+      value = Math.scalb((double) (mantissa | 0x400), exponent - 25);
+    }
+    return (half & 0x8000) == 0 ? value : -value;
+  }
+
+  public long getMemoryUsage() {
+    long memoryUsage = 0;
+    for (short[] page : pages) {
+      memoryUsage += page == null ? 0 : 2L * page.length;
+    }
+    return memoryUsage;
+  }
+
+  protected void allocatePages(int numberOfPages) {
+    pages = new short[numberOfPages][];
+  }
+
+  protected boolean isAllocated(int page) {
+    return pages[page] != null;
+  }
+
+  protected void allocatePage(int page, int numberOfCells) {
+    pages[page] = new short[numberOfCells];
+    Arrays.fill(pages[page], NaN);
+  }
+
+  protected double getCell(int page, int offset) {
+    return toDouble(pages[page][offset]);
+  }
+
+  protected void setCell(int page, int offset, double logBeta) {
+    pages[page][offset] = toHalfLogBeta(logBeta);
+  }
+
+  protected void copyRow(int page, int offset, double[] logBeta) {
+    short[] cells = pages[page];
+    for (int i = 0; i < numberOfTopics; i++) {
+      logBeta[i] = toDouble(cells[offset + i]);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package cc.mrlda;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+import cc.mrlda.VariationalInference.ParameterCounter;
+
+import edu.umd.cloud9.math.LogMath;
+
+/**
+ * In-mapper combiner of the phi vectors, with a memory footprint fixed at construction time.
+ * <ul>
+ * <li>Terms with index 1 to H, i.e., the most frequent terms as the corpus is indexed by
+ * decreasing frequency, are accumulated in a preallocated dense H-by-K region, and are only emitted
+ * on {@link #flush(PhiEmitter, OutputCollector, Reporter)}.</li>
+ * <li>The other terms are accumulated in an overflow region of a bounded number of vectors. Once it
+ * is full, the least recently updated term is emitted and its vector is reused.</li>
+ * </ul>
+ * Vectors are accumulated in log scale. An instance must not be shared across threads.
+ *
+ * @author kzhai
+ */
+public class InMapperCombiner {
+  private int numberOfTopics = 0;
+  private int numberOfHotTerms = 0;
+  private int overflowCapacity = 0;
+
+  private double[] hotLogPhi = null;
+  private BitSet hotTerms = null;
+
+  private LinkedHashMap<Integer, double[]> overflowLogPhi = null;
+
+  /**
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param numberOfHotTerms number of terms in the dense region
+   * @param overflowCapacity maximum number of terms in the overflow region, terms beyond the dense
+   *        region are emitted directly if non-positive
+   */
+  public InMapperCombiner(int numberOfTopics, int numberOfHotTerms, int overflowCapacity) {
+    this.numberOfTopics = numberOfTopics;
+    this.numberOfHotTerms = Math.max(0, Math.min(numberOfHotTerms, Integer.MAX_VALUE
+        / numberOfTopics));
+    this.overflowCapacity = Math.max(0, overflowCapacity);
+
+    hotLogPhi = new double[this.numberOfHotTerms * numberOfTopics];
+    hotTerms = new BitSet(this.numberOfHotTerms);
+
+    // access ordered, hence the eldest entry is the least recently updated term
+    overflowLogPhi = new LinkedHashMap<Integer, double[]>(16, 0.75f, true);
+  }
+
+  /**
+   * Work out the number of terms of the dense region of a combiner.
+   *
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param numberOfTerms size of vocabulary in the whole corpus
+   * @param memoryFraction fraction of the maximum heap size given to the dense regions
+   * @param numberOfThreads number of threads, each of which holds a combiner
+   * @return the number of terms of the dense region
+   */
+  public static int getNumberOfHotTerms(int numberOfTopics, int numberOfTerms,
+      double memoryFraction, int numberOfThreads) {
+    long budget = (long) (Runtime.getRuntime().maxMemory() * memoryFraction)
+        / Math.max(1, numberOfThreads);
+    long numberOfHotTerms = budget / (8L * numberOfTopics);
+    return (int) Math.max(0, Math.min(numberOfHotTerms, numberOfTerms));
+  }
+
+  /**
+   * Accumulate the phi vector of a term.
+   *
+   * @param termID term index
+   * @param logPhi the phi vector of the term in log scale, not retained by this combiner
+   * @param emitter emitter for the terms evicted from the overflow region
+   * @param output the output collector of the mapper
+   * @param reporter reporter to update the counters
+   * @throws IOException
+   */
+  public void add(int termID, double[] logPhi, PhiEmitter emitter,
+      OutputCollector<Writable, Writable> output, Reporter reporter) throws IOException {
+    if (termID > 0 && termID <= numberOfHotTerms) {
+      int offset = (termID - 1) * numberOfTopics;
+      if (hotTerms.get(termID - 1)) {
+        for (int i = 0; i < numberOfTopics; i++) {
+          hotLogPhi[offset + i] = LogMath.add(hotLogPhi[offset + i], logPhi[i]);
+        }
+        reporter.incrCounter(ParameterCounter.COMBINED_PHI, numberOfTopics);
+      } else {
+        System.arraycopy(logPhi, 0, hotLogPhi, offset, numberOfTopics);
+        hotTerms.set(termID - 1);
+      }
+      return;
+    }
+
+    if (overflowCapacity == 0) {
+      emitter.emit(termID, logPhi, output, reporter);
+      return;
+    }
+
+    double[] accumulatedLogPhi = overflowLogPhi.get(termID);
+    if (accumulatedLogPhi != null) {
+      for (int i = 0; i < numberOfTopics; i++) {
+        accumulatedLogPhi[i] = LogMath.add(accumulatedLogPhi[i], logPhi[i]);
+      }
+      reporter.incrCounter(ParameterCounter.COMBINED_PHI, numberOfTopics);
+      return;
+    }
+
+    if (overflowLogPhi.size() >= overflowCapacity) {
+      Iterator<Map.Entry<Integer, double[]>> itr = overflowLogPhi.entrySet().iterator();
+      Map.Entry<Integer, double[]> eldest = itr.next();
+      accumulatedLogPhi = eldest.getValue();
+      emitter.emit(eldest.getKey(), accumulatedLogPhi, output, reporter);
+      itr.remove();
+      reporter.incrCounter(ParameterCounter.COMBINER_EVICTION, 1);
+    } else {
+      accumulatedLogPhi = new double[numberOfTopics];
+    }
+
+    System.arraycopy(logPhi, 0, accumulatedLogPhi, 0, numberOfTopics);
+    overflowLogPhi.put(termID, accumulatedLogPhi);
+  }
+
+  /**
+   * Accumulate all the phi vectors of another combiner, which is cleared afterwards.
+   *
+   * @param combiner another combiner of the same number of topics
+   * @param emitter emitter for the terms evicted from the overflow region
+   * @param output the output collector of the mapper
+   * @param reporter reporter to update the counters
+   * @throws IOException
+   */
+  public void merge(InMapperCombiner combiner, PhiEmitter emitter,
+      OutputCollector<Writable, Writable> output, Reporter reporter) throws IOException {
+    double[] logPhi = new double[numberOfTopics];
+    for (int j = combiner.hotTerms.nextSetBit(0); j >= 0; j = combiner.hotTerms.nextSetBit(j + 1)) {
+      System.arraycopy(combiner.hotLogPhi, j * numberOfTopics, logPhi, 0, numberOfTopics);
+      add(j + 1, logPhi, emitter, output, reporter);
+    }
+    combiner.hotTerms.clear();
+
+    for (Map.Entry<Integer, double[]> entry : combiner.overflowLogPhi.entrySet()) {
+      add(entry.getKey(), entry.getValue(), emitter, output, reporter);
+    }
+    combiner.overflowLogPhi.clear();
+  }
+
+  /**
+   * Emit and clear all the accumulated phi vectors.
+   *
+   * @param emitter emitter of the phi vectors
+   * @param output the output collector of the mapper
+   * @param reporter reporter to update the counters
+   * @throws IOException
+   */
+  public void flush(PhiEmitter emitter, OutputCollector<Writable, Writable> output,
+      Reporter reporter) throws IOException {
+    double[] logPhi = new double[numberOfTopics];
+    for (int j = hotTerms.nextSetBit(0); j >= 0; j = hotTerms.nextSetBit(j + 1)) {
+      System.arraycopy(hotLogPhi, j * numberOfTopics, logPhi, 0, numberOfTopics);
+      emitter.emit(j + 1, logPhi, output, reporter);
+    }
+    hotTerms.clear();
+
+    for (Map.Entry<Integer, double[]> entry : overflowLogPhi.entrySet()) {
+      emitter.emit(entry.getKey(), entry.getValue(), output, reporter);
+    }
+    overflowLogPhi.clear();
+
+    reporter.incrCounter(ParameterCounter.COMBINER_FLUSH, 1);
+  }
+
+  /**
+   * @return number of terms in the dense region
+   */
+  public int getNumberOfHotTerms() {
+    return numberOfHotTerms;
+  }
+}
@@ -3,11 +3,10 @@ package cc.mrlda;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -31,8 +30,13 @@ import org.apache.log4j.Logger;
 import com.google.common.base.Preconditions;
 
 import edu.umd.cloud9.io.array.ArrayListOfIntsWritable;
-import edu.umd.cloud9.util.map.HMapIV;
 
+/**
+ * Index an informed prior on beta. Every line of the input file lists the terms known to a topic,
+ * each optionally followed by its own eta, e.g., <code>term:50</code>, where a term without an eta
+ * takes {@link #DEFAULT_INFORMED_LOG_ETA}. The index is keyed by the topic, from 1 to K, with the
+ * known terms and their etas in an {@link EtaWritable}.
+ */
 public class InformedPrior extends Configured implements Tool {
   static final Logger sLogger = Logger.getLogger(InformedPrior.class);
 
@@ -43,6 +47,11 @@ public class InformedPrior extends Configured implements Tool {
   public static final float DEFAULT_INFORMED_LOG_ETA = (float) Math.log(1000.0);
   public static final float DEFAULT_UNINFORMED_LOG_ETA = (float) Math.log(0.001);
 
+  /**
+   * separator of a term and its eta in the input file
+   */
+  public static final char WEIGHT_SEPARATOR = ':';
+
   @SuppressWarnings("unchecked")
   public int run(String[] args) throws Exception {
     Options options = new Options();
@@ -124,7 +133,7 @@ public class InformedPrior extends Configured implements Tool {
       bufferedReader = new BufferedReader(new InputStreamReader(fs.open(inputPath)));
       sequenceFileReader = new SequenceFile.Reader(fs, termIndexPath, conf);
       sequenceFileWriter = new SequenceFile.Writer(fs, conf, outputPath, IntWritable.class,
-          ArrayListOfIntsWritable.class);
+          EtaWritable.class);
       exportTerms(bufferedReader, sequenceFileReader, sequenceFileWriter);
       sLogger.info("Successfully index the informed prior to " + outputPath);
     } finally {
@@ -142,7 +151,9 @@ public class InformedPrior extends Configured implements Tool {
     Map<String, Integer> termIndex = ParseCorpus.importParameter(sequenceFileReader);
 
     IntWritable intWritable = new IntWritable();
-    ArrayListOfIntsWritable arrayListOfIntsWritable = new ArrayListOfIntsWritable();
+    EtaWritable etaWritable = new EtaWritable();
+    // the terms of a topic are sorted before they are written
+    TreeMap<Integer, Float> logEtas = new TreeMap<Integer, Float>();
 
     StringTokenizer stk = null;
     String temp = null;
@@ -152,51 +163,110 @@ public class InformedPrior extends Configured implements Tool {
     while (line != null) {
       index++;
       intWritable.set(index);
-      arrayListOfIntsWritable.clear();
+      logEtas.clear();
 
       stk = new StringTokenizer(line);
       while (stk.hasMoreTokens()) {
         temp = stk.nextToken();
+        float logEta = DEFAULT_INFORMED_LOG_ETA;
+        int separator = temp.lastIndexOf(WEIGHT_SEPARATOR);
+        if (separator > 0 && !termIndex.containsKey(temp)) {
+          try {
+            float eta = Float.parseFloat(temp.substring(separator + 1));
+            Preconditions.checkArgument(eta > 0, "Invalid eta " + eta + " for term "
+                + temp.substring(0, separator) + "...");
+            logEta = (float) Math.log(eta);
+            temp = temp.substring(0, separator);
+          } catch (NumberFormatException nfe) {
+            // not an eta, hence part of the term
+          }
+        }
+
         if (termIndex.containsKey(temp)) {
-          arrayListOfIntsWritable.add(termIndex.get(temp));
+          logEtas.put(termIndex.get(temp), logEta);
         } else {
           sLogger.info("How embarrassing! Term " + temp + " not found in the index file...");
         }
       }
 
-      sequenceFileWriter.append(intWritable, arrayListOfIntsWritable);
+      etaWritable.clear();
+      for (Map.Entry<Integer, Float> entry : logEtas.entrySet()) {
+        etaWritable.add(entry.getKey(), entry.getValue());
+      }
+      sequenceFileWriter.append(intWritable, etaWritable);
       line = bufferedReader.readLine();
     }
   }
 
-  public static float getLogEta(int termID, Set<Integer> knownTerms) {
-    if (knownTerms != null && knownTerms.contains(termID)) {
-      return DEFAULT_INFORMED_LOG_ETA;
+  /**
+   * @param termID term index
+   * @param knownTerms the informed prior of a topic, or null if the topic has none
+   * @return the eta of the term in the topic in log scale
+   */
+  public static float getLogEta(int termID, EtaWritable knownTerms) {
+    if (knownTerms != null) {
+      return knownTerms.getLogEta(termID, DEFAULT_UNINFORMED_LOG_ETA);
     }
     return DEFAULT_UNINFORMED_LOG_ETA;
   }
 
-  public static HMapIV<Set<Integer>> importEta(SequenceFile.Reader sequenceFileReader)
+  /**
+   * @param lambdaMap the informed prior indexed by topic
+   * @param topic topic index, from 1 to K
+   * @return the informed prior of the topic, or null if the topic has none
+   */
+  public static EtaWritable getEta(EtaWritable[] lambdaMap, int topic) {
+    return topic < lambdaMap.length ? lambdaMap[topic] : null;
+  }
+
+  /**
+   * Import the informed prior, either with an eta per term, or as plain lists of terms, all of
+   * which take {@link #DEFAULT_INFORMED_LOG_ETA}.
+   * 
+   * @return the informed prior indexed by topic, from 1 to K, null for the topics without any
+   * @throws IOException
+   */
+  public static EtaWritable[] importEta(SequenceFile.Reader sequenceFileReader)
       throws IOException {
-    HMapIV<Set<Integer>> lambdaMap = new HMapIV<Set<Integer>>();
+    EtaWritable[] lambdaMap = new EtaWritable[0];
 
     IntWritable intWritable = new IntWritable();
+    boolean weighted = EtaWritable.class.equals(sequenceFileReader.getValueClass());
     ArrayListOfIntsWritable arrayListOfInts = new ArrayListOfIntsWritable();
 
-    while (sequenceFileReader.next(intWritable, arrayListOfInts)) {
+    while (true) {
+      EtaWritable eta = new EtaWritable();
+      if (weighted) {
+        if (!sequenceFileReader.next(intWritable, eta)) {
+          break;
+        }
+      } else {
+        if (!sequenceFileReader.next(intWritable, arrayListOfInts)) {
+          break;
+        }
+        int[] termIDs = new int[arrayListOfInts.size()];
+        for (int i = 0; i < termIDs.length; i++) {
+          termIDs[i] = arrayListOfInts.get(i);
+        }
+        Arrays.sort(termIDs);
+        for (int i = 0; i < termIDs.length; i++) {
+          if (i == 0 || termIDs[i] != termIDs[i - 1]) {
+            eta.add(termIDs[i], DEFAULT_INFORMED_LOG_ETA);
+          }
+        }
+      }
+
       Preconditions.checkArgument(intWritable.get() > 0, "Invalid eta prior for term "
           + intWritable.get() + "...");
 
       // topic is from 1 to K
       int topicIndex = intWritable.get();
-      Set<Integer> hashset = new HashSet<Integer>();
-
-      Iterator<Integer> itr = arrayListOfInts.iterator();
-      while (itr.hasNext()) {
-        hashset.add(itr.next());
+      if (topicIndex >= lambdaMap.length) {
+        EtaWritable[] newLambdaMap = new EtaWritable[topicIndex + 1];
+        System.arraycopy(lambdaMap, 0, newLambdaMap, 0, lambdaMap.length);
+        lambdaMap = newLambdaMap;
       }
-
-      lambdaMap.put(topicIndex, hashset);
+      lambdaMap[topicIndex] = eta;
     }
     return lambdaMap;
   }
@@ -0,0 +1,37 @@
+package cc.mrlda;
+
+/**
+ * This phi kernel normalizes phi the same way as {@link LogSumExpPhiKernel}, but keeps the gamma
+ * update in linear scale, which saves another exponential and logarithm per topic per term. It is
+ * safe as long as the gamma of a document, which is bounded by alpha plus the document length,
+ * does not overflow.
+ * 
+ * @author kzhai
+ */
+public class LinearPhiKernel extends LogSumExpPhiKernel {
+  public void resetGamma(double[] alpha, double[] updateGamma) {
+    System.arraycopy(alpha, 0, updateGamma, 0, alpha.length);
+  }
+
+  public double updatePhi(int numberOfTopics, int termCounts, double[] logBeta,
+      double[] digammaGamma, double[] logPhi, double[] updateGamma) {
+    double logNormalizer = normalizePhi(numberOfTopics, logBeta, digammaGamma, logPhi);
+    double logTermCounts = Math.log(termCounts);
+
+    double convergePhi = 0;
+    for (int i = 0; i < numberOfTopics; i++) {
+      logPhi[i] -= logNormalizer;
+      convergePhi += termCounts * phi[i] * (logBeta[i] - logPhi[i]);
+      logPhi[i] += logTermCounts;
+
+      // update the K-dimensional vector gamma with phi
+      updateGamma[i] += termCounts * phi[i];
+    }
+
+    return convergePhi;
+  }
+
+  public void exportGamma(double[] updateGamma, double[] gamma) {
+    System.arraycopy(updateGamma, 0, gamma, 0, gamma.length);
+  }
+}
@@ -0,0 +1,664 @@
+package cc.mrlda;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+
+import edu.umd.cloud9.io.map.HMapIDW;
+import edu.umd.cloud9.io.pair.PairOfIntFloat;
+import edu.umd.cloud9.math.Gamma;
+import edu.umd.cloud9.util.map.HMapII;
+
+/**
+ * Trains a latent Dirichlet allocation model on a single node, for corpora that fit in memory. It
+ * takes the options of {@link VariationalInference}, reads the same document files and model
+ * snapshots, and writes the same alpha, beta and gamma snapshots, the latter as the side files of
+ * {@link GammaStore} named after the document files, hence either tool resumes from the snapshots
+ * of the other. Unlike {@link VariationalInference}, which runs a job per iteration,
+ * the corpus and the model stay in memory across iterations, and the documents are inferred in
+ * blocks on a pool of threads, each of which sums up its own sufficient statistics, merged at the
+ * end of every iteration, hence every thread holds up to a dense copy of the K by V phi sums. The
+ * options specific to the jobs, e.g., the number of mappers and reducers or the layout of beta,
+ * are ignored, while the number of threads per mapper sets the size of the pool, which defaults to
+ * the number of available processors.
+ *
+ * @author kzhai
+ */
+public class LocalVariationalInference extends Configured implements Tool {
+  static final Logger sLogger = Logger.getLogger(LocalVariationalInference.class);
+
+  /**
+   * number of documents inferred by a thread at a time
+   */
+  private static final int DOCUMENT_BLOCK_SIZE = 256;
+
+  private int numberOfTopics = 0;
+  private int numberOfTerms = 0;
+  private boolean training = Settings.LEARNING_MODE;
+  private boolean randomStartGamma = Settings.RANDOM_START_GAMMA;
+  private boolean fastGamma = Settings.DEFAULT_FAST_GAMMA;
+
+  private int maximumGammaIteration = Settings.MAXIMUM_LOCAL_ITERATION;
+  private double gammaConvergeThreshold = Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_THRESHOLD;
+  private double likelihoodConvergeThreshold = Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_CRITERIA;
+  private Class<? extends PhiKernel> phiKernelClass = LogSumExpPhiKernel.class;
+
+  private List<IntWritable> keys = null;
+  private List<Document> documents = null;
+  /**
+   * the document files, and the end of the documents of every file in the list of documents
+   */
+  private List<Path> documentPaths = null;
+  private List<Integer> documentEnds = null;
+
+  private BetaStore expectLogBeta = null;
+  private double[] alpha = null;
+  private double likelihoodAlpha = 0;
+  private EtaWritable[] lambdaMap = null;
+
+  /**
+   * The inference state and the sufficient statistics of a thread, which lives across iterations,
+   * while the sufficient statistics are reset every iteration.
+   */
+  private class ThreadState {
+    private DocumentInference inference = new DocumentInference(numberOfTopics, numberOfTerms,
+        maximumGammaIteration, gammaConvergeThreshold, likelihoodConvergeThreshold,
+        ReflectionUtils.newInstance(phiKernelClass, null), fastGamma);
+
+    /**
+     * phi summed up over the documents in linear scale, indexed by term, a row is allocated once
+     * the term is seen
+     */
+    private double[][] phiSums = new double[numberOfTerms + 1][];
+    private double[] totalAlphaSufficientStatistics = new double[numberOfTopics];
+    private double logLikelihood = 0;
+    private long gammaIterations = 0;
+
+    private void reset() {
+      for (double[] phiSum : phiSums) {
+        if (phiSum != null) {
+          Arrays.fill(phiSum, 0);
+        }
+      }
+      Arrays.fill(totalAlphaSufficientStatistics, 0);
+      logLikelihood = 0;
+      gammaIterations = 0;
+    }
+  }
+
+  private List<ThreadState> threadStates = null;
+  private ThreadLocal<ThreadState> threadState = null;
+
+  public int run(String[] args) throws Exception {
+    return run(getConf(), new VariationalInferenceOptions(args));
+  }
+
+  private int run(Configuration configuration, VariationalInferenceOptions variationalOptions)
+      throws Exception {
+    String inputPath = variationalOptions.getInputPath();
+    String outputPath = variationalOptions.getOutputPath();
+    numberOfTopics = variationalOptions.getNumberOfTopics();
+    numberOfTerms = variationalOptions.getNumberOfTerms();
+    int numberOfIterations = variationalOptions.getNumberOfIterations();
+    int mapperThreads = variationalOptions.getMapperThreads();
+    training = variationalOptions.isTraining();
+    randomStartGamma = variationalOptions.isRandomStartGamma();
+    boolean resume = variationalOptions.isResume();
+    Path informedPrior = variationalOptions.getInformedPrior();
+    String modelPath = variationalOptions.getModelPath();
+    int snapshotIndex = variationalOptions.getSnapshotIndex();
+    boolean symmetricAlpha = variationalOptions.isSymmetricAlpha();
+
+    int numberOfThreads = mapperThreads > 1 ? mapperThreads : Runtime.getRuntime()
+        .availableProcessors();
+
+    gammaConvergeThreshold = configuration.getFloat(Settings.PROPERTY_PREFIX
+        + "model.mapper.converge.gamma", Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_THRESHOLD);
+    likelihoodConvergeThreshold = configuration.getFloat(Settings.PROPERTY_PREFIX
+        + "model.mapper.converge.likelihood", Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_CRITERIA);
+    fastGamma = configuration.getBoolean(Settings.PROPERTY_PREFIX + "model.fast.gamma",
+        Settings.DEFAULT_FAST_GAMMA);
+    phiKernelClass = configuration.getClass(Settings.PROPERTY_PREFIX + "model.mapper.phi.kernel",
+        LogSumExpPhiKernel.class, PhiKernel.class);
+    Class<? extends BetaStore> betaStoreClass = configuration.getClass(Settings.PROPERTY_PREFIX
+        + "model.beta.store", DoubleBetaStore.class, BetaStore.class);
+
+    sLogger.info("Tool: " + LocalVariationalInference.class.getSimpleName());
+    sLogger.info(" - input path: " + inputPath);
+    sLogger.info(" - output path: " + outputPath);
+    sLogger.info(" - number of topics: " + numberOfTopics);
+    sLogger.info(" - number of terms: " + numberOfTerms);
+    sLogger.info(" - number of iterations: " + numberOfIterations);
+    sLogger.info(" - number of threads: " + numberOfThreads);
+    sLogger.info(" - training mode: " + training);
+    sLogger.info(" - random start gamma: " + randomStartGamma);
+    sLogger.info(" - resume training: " + resume);
+    sLogger.info(" - informed prior: " + informedPrior);
+    sLogger.info(" - symmetric alpha: " + symmetricAlpha);
+    sLogger.info(" - gamma converge threshold: " + gammaConvergeThreshold);
+    sLogger.info(" - likelihood converge threshold: " + likelihoodConvergeThreshold);
+    sLogger.info(" - fast gamma functions: " + fastGamma);
+    sLogger.info(" - beta store: " + betaStoreClass.getSimpleName());
+
+    FileSystem fs = FileSystem.get(configuration);
+
+    // delete the overall output path
+    Path outputDir = new Path(outputPath);
+    if (!resume && fs.exists(outputDir)) {
+      fs.delete(outputDir, true);
+      fs.mkdirs(outputDir);
+    }
+
+    if (informedPrior != null) {
+      Path eta = informedPrior;
+      Preconditions.checkArgument(fs.exists(informedPrior) && fs.isFile(informedPrior),
+          "Illegal informed prior file: must be an existing file...");
+      informedPrior = new Path(outputPath + InformedPrior.ETA);
+      FileUtil.copy(fs, eta, fs, informedPrior, false, configuration);
+
+      SequenceFile.Reader sequenceFileReader = null;
+      try {
+        sequenceFileReader = new SequenceFile.Reader(fs, informedPrior, configuration);
+        lambdaMap = InformedPrior.importEta(sequenceFileReader);
+      } finally {
+        IOUtils.closeStream(sequenceFileReader);
+      }
+    }
+
+    Path inputDir = new Path(inputPath);
+    // the gamma snapshot read by the current iteration, deleted once the next one is written
+    Path gammaDir = null;
+
+    String alphaPath = outputPath + Settings.ALPHA + Settings.DASH;
+    String betaPath = outputPath + Settings.BETA + Settings.DASH;
+    Path alphaDir = null;
+    Path betaDir = null;
+    if (!training) {
+      alphaDir = new Path(modelPath + Settings.ALPHA + Settings.DASH + snapshotIndex);
+      betaDir = new Path(modelPath + Settings.BETA + Settings.DASH + snapshotIndex);
+    } else if (resume) {
+      alphaDir = new Path(alphaPath + snapshotIndex);
+      betaDir = new Path(betaPath + snapshotIndex);
+      gammaDir = new Path(outputPath + Settings.GAMMA + Settings.DASH + snapshotIndex);
+      if (!GammaStore.isSideStore(fs, configuration, gammaDir)) {
+        // a snapshot written before the corpus was kept apart holds the documents with gamma
+        inputDir = gammaDir;
+      }
+    }
+
+    importDocuments(fs, configuration, inputDir);
+    sLogger.info("Successfully import " + documents.size() + " documents from " + inputDir);
+    sLogger.info("Total number of terms is: " + numberOfTerms);
+
+    if (gammaDir != null && !gammaDir.equals(inputDir) && !randomStartGamma) {
+      int missingGamma = importGamma(fs, configuration, gammaDir);
+      sLogger.info("Successfully import gamma from " + gammaDir + ", " + missingGamma
+          + " documents initialized for missing gamma");
+    }
+
+    if (alphaDir != null) {
+      Preconditions.checkArgument(fs.exists(alphaDir), "Missing model parameter alpha...");
+      SequenceFile.Reader sequenceFileReader = null;
+      try {
+        sequenceFileReader = new SequenceFile.Reader(fs, alphaDir, configuration);
+        alpha = VariationalInference.importAlpha(sequenceFileReader, numberOfTopics);
+      } finally {
+        IOUtils.closeStream(sequenceFileReader);
+      }
+      sLogger.info("Successfully import alpha vector from file " + alphaDir);
+    } else {
+      // initialize alpha vector the same way as the distributed trainer
+      alpha = new double[numberOfTopics];
+      Arrays.fill(alpha, 1e-3);
+      exportAlpha(fs, configuration, new Path(alphaPath + 0));
+    }
+
+    expectLogBeta = ReflectionUtils.newInstance(betaStoreClass, configuration);
+    expectLogBeta.initialize(numberOfTopics, numberOfTerms);
+    if (betaDir != null) {
+      Preconditions.checkArgument(fs.exists(betaDir), "Missing model parameter beta...");
+      DocumentMapper.importBeta(fs, configuration, DocumentMapper.listBetaParts(fs, betaDir),
+          expectLogBeta, lambdaMap, Settings.DEFAULT_NUMBER_OF_IMPORT_THREADS);
+      sLogger.info("Successfully import beta matrix from " + betaDir);
+    }
+
+    threadStates = new ArrayList<ThreadState>();
+    threadState = new ThreadLocal<ThreadState>() {
+      protected ThreadState initialValue() {
+        ThreadState state = new ThreadState();
+        synchronized (threadStates) {
+          threadStates.add(state);
+        }
+        return state;
+      }
+    };
+
+    double lastLogLikelihood = 0;
+    int iterationCount = snapshotIndex;
+    ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+    try {
+      do {
+        long startTime = System.currentTimeMillis();
+        double alphaSum = 0;
+        double sumLnGammaAlpha = 0;
+        for (double value : alpha) {
+          sumLnGammaAlpha += lngamma(value);
+          alphaSum += value;
+        }
+        likelihoodAlpha = lngamma(alphaSum) - sumLnGammaAlpha;
+
+        synchronized (threadStates) {
+          for (ThreadState state : threadStates) {
+            state.reset();
+          }
+        }
+
+        inferDocuments(executorService);
+
+        double logLikelihood = 0;
+        long gammaIterations = 0;
+        for (ThreadState state : threadStates) {
+          logLikelihood += state.logLikelihood;
+          gammaIterations += state.gammaIterations;
+        }
+        sLogger.info("Iteration " + (iterationCount + 1) + " inferred " + documents.size()
+            + " documents in " + (System.currentTimeMillis() - startTime) / 1000.0 + " seconds");
+        sLogger.info("Average number of gamma update iterations per document: " + gammaIterations
+            * 1.0 / documents.size());
+
+        if (training) {
+          updateAlpha(symmetricAlpha);
+          alphaDir = exportAlpha(fs, configuration, new Path(alphaPath + (iterationCount + 1)));
+          sLogger.info("Successfully export new alpha vector to file " + alphaDir);
+
+          BetaStore logBeta = ReflectionUtils.newInstance(betaStoreClass, configuration);
+          logBeta.initialize(numberOfTopics, numberOfTerms);
+          betaDir = new Path(betaPath + (iterationCount + 1));
+          updateBeta(fs, configuration, betaDir, logBeta);
+          expectLogBeta = logBeta;
+          sLogger.info("Successfully export new beta matrix to file " + betaDir);
+        }
+
+        if (!randomStartGamma || !training) {
+          Path newGammaDir = new Path(outputPath + Settings.GAMMA + Settings.DASH
+              + (iterationCount + 1));
+          exportGamma(fs, configuration, newGammaDir);
+          if (gammaDir != null && !gammaDir.equals(inputDir)) {
+            // remove old gamma output, but never the documents
+            fs.delete(gammaDir, true);
+          }
+          gammaDir = newGammaDir;
+        }
+
+        sLogger.info("Iteration " + (iterationCount + 1) + " finished in "
+            + (System.currentTimeMillis() - startTime) / 1000.0 + " seconds");
+        sLogger.info("Log likelihood after iteration " + (iterationCount + 1) + " is "
+            + logLikelihood);
+        if (!training) {
+          break;
+        }
+        if (Math.abs((lastLogLikelihood - logLikelihood) / lastLogLikelihood)
+            <= Settings.DEFAULT_GLOBAL_CONVERGE_CRITERIA) {
+          sLogger.info("Model converged after " + (iterationCount + 1) + " iterations...");
+          break;
+        }
+        lastLogLikelihood = logLikelihood;
+
+        iterationCount++;
+      } while (iterationCount < numberOfIterations);
+    } finally {
+      executorService.shutdownNow();
+    }
+
+    return 0;
+  }
+
+  /**
+   * Import the documents of a file or of a directory of part files.
+   */
+  private void importDocuments(FileSystem fs, Configuration conf, Path inputDir)
+      throws IOException {
+    keys = new ArrayList<IntWritable>();
+    documents = new ArrayList<Document>();
+
+    documentPaths = new ArrayList<Path>();
+    documentEnds = new ArrayList<Integer>();
+    if (fs.getFileStatus(inputDir).isDir()) {
+      for (FileStatus fileStatus : fs.listStatus(inputDir)) {
+        String name = fileStatus.getPath().getName();
+        // skip the logs and markers of jobs
+        if (!fileStatus.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+          documentPaths.add(fileStatus.getPath());
+        }
+      }
+    } else {
+      documentPaths.add(inputDir);
+    }
+
+    int maximumTermID = 0;
+    for (Path documentPath : documentPaths) {
+      SequenceFile.Reader sequenceFileReader = null;
+      try {
+        sequenceFileReader = new SequenceFile.Reader(fs, documentPath, conf);
+        IntWritable key = new IntWritable();
+        Document document = new Document();
+        while (sequenceFileReader.next(key, document)) {
+          if (document.getContent() != null) {
+            for (int termID : document.getContent().keySet()) {
+              maximumTermID = Math.max(maximumTermID, termID);
+            }
+          }
+          keys.add(key);
+          documents.add(document);
+          key = new IntWritable();
+          document = new Document();
+        }
+      } finally {
+        IOUtils.closeStream(sequenceFileReader);
+      }
+      documentEnds.add(documents.size());
+    }
+    // the M-step has nothing to update without any document
+    Preconditions.checkArgument(!documents.isEmpty(), "No documents found in input path "
+        + inputDir + "...");
+
+    // the vocabulary covers all the terms of the corpus
+    numberOfTerms = Math.max(numberOfTerms, maximumTermID);
+  }
+
+  /**
+   * Infer all the documents against the current model, a block of documents per task.
+   */
+  private void inferDocuments(ExecutorService executorService) throws IOException {
+    List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+    for (int start = 0; start < documents.size(); start += DOCUMENT_BLOCK_SIZE) {
+      final int blockStart = start;
+      final int blockEnd = Math.min(start + DOCUMENT_BLOCK_SIZE, documents.size());
+      futures.add(executorService.submit(new Callable<Integer>() {
+        public Integer call() {
+          ThreadState state = threadState.get();
+          for (int d = blockStart; d < blockEnd; d++) {
+            inferDocument(state, documents.get(d));
+          }
+          return blockEnd - blockStart;
+        }
+      }));
+    }
+
+    try {
+      for (Future<Integer> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new IOException("Interrupted while inferring documents...");
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ee.getCause();
+      }
+      throw new IllegalArgumentException(ee.getCause());
+    }
+  }
+
+  /**
+   * Infer a document, and add its sufficient statistics to the state of the current thread, the
+   * same way as {@link DocumentMapper#map} does.
+   */
+  private void inferDocument(ThreadState state, Document document) {
+    double[] gamma = null;
+    if (document.getGamma() != null && document.getNumberOfTopics() == numberOfTopics
+        && !randomStartGamma) {
+      gamma = document.getGamma();
+    } else {
+      gamma = new double[numberOfTopics];
+      for (int i = 0; i < numberOfTopics; i++) {
+        gamma[i] = alpha[i] + 1.0f * document.getNumberOfTokens() / numberOfTopics;
+      }
+    }
+
+    HMapII content = document.getContent();
+    if (content == null) {
+      return;
+    }
+
+    DocumentInference inference = state.inference;
+    state.gammaIterations += inference.infer(content, gamma, expectLogBeta, alpha, Reporter.NULL);
+
+    double sumGamma = 0;
+    double likelihoodGamma = 0;
+    for (int i = 0; i < numberOfTopics; i++) {
+      sumGamma += gamma[i];
+      likelihoodGamma += lngamma(gamma[i]);
+    }
+    likelihoodGamma -= lngamma(sumGamma);
+    state.logLikelihood += likelihoodAlpha + likelihoodGamma + inference.getLikelihoodPhi();
+
+    double digammaSumGamma = digamma(sumGamma);
+    for (int i = 0; i < numberOfTopics; i++) {
+      state.totalAlphaSufficientStatistics[i] += digamma(gamma[i]) - digammaSumGamma;
+    }
+
+    if (training) {
+      for (int j = 0; j < inference.getNumberOfDistinctTerms(); j++) {
+        int termID = inference.getTermID(j);
+        if (state.phiSums[termID] == null) {
+          state.phiSums[termID] = new double[numberOfTopics];
+        }
+        double[] phiSum = state.phiSums[termID];
+        double[] logPhi = inference.getLogPhi(j);
+        for (int i = 0; i < numberOfTopics; i++) {
+          phiSum[i] += Math.exp(logPhi[i]);
+        }
+      }
+    }
+
+    if (!training || !randomStartGamma) {
+      document.setGamma(gamma);
+    }
+  }
+
+  /**
+   * Update alpha from the alpha sufficient statistics of all threads, the same way as
+   * {@link VariationalInference} does.
+   */
+  private void updateAlpha(boolean symmetricAlpha) {
+    double[] alphaSufficientStatistics = new double[numberOfTopics];
+    for (ThreadState state : threadStates) {
+      for (int i = 0; i < numberOfTopics; i++) {
+        alphaSufficientStatistics[i] += state.totalAlphaSufficientStatistics[i];
+      }
+    }
+
+    if (symmetricAlpha) {
+      double totalAlphaSufficientStatistics = 0;
+      double oldAlpha = 0;
+      for (int i = 0; i < numberOfTopics; i++) {
+        totalAlphaSufficientStatistics += alphaSufficientStatistics[i];
+        oldAlpha += alpha[i];
+      }
+      oldAlpha /= numberOfTopics;
+      double newAlpha = VariationalInference.updateScalarAlpha(numberOfTopics, documents.size(),
+          oldAlpha, totalAlphaSufficientStatistics, fastGamma);
+      for (int i = 0; i < numberOfTopics; i++) {
+        alpha[i] = newAlpha;
+      }
+    } else {
+      alpha = VariationalInference.updateVectorAlpha(numberOfTopics, documents.size(), alpha,
+          alphaSufficientStatistics, fastGamma);
+    }
+  }
+
+  /**
+   * Update beta from the phi sums of all threads, the same way as {@link TermReducer} does, and
+   * write it in the format of {@link TermReducer}, a row per topic keyed by its normalizer.
+   *
+   * @param betaDir the beta file
+   * @param logBeta an initialized and empty beta store, which receives the new beta
+   */
+  private void updateBeta(FileSystem fs, Configuration conf, Path betaDir, BetaStore logBeta)
+      throws IOException {
+    // merge the phi sums of all threads into the first one
+    double[][] phiSums = threadStates.get(0).phiSums;
+    for (int t = 1; t < threadStates.size(); t++) {
+      double[][] threadPhiSums = threadStates.get(t).phiSums;
+      for (int termID = 1; termID <= numberOfTerms; termID++) {
+        if (threadPhiSums[termID] == null) {
+          continue;
+        }
+        if (phiSums[termID] == null) {
+          phiSums[termID] = new double[numberOfTopics];
+        }
+        for (int i = 0; i < numberOfTopics; i++) {
+          phiSums[termID][i] += threadPhiSums[termID][i];
+        }
+      }
+    }
+
+    double defaultEta = Math.exp(Settings.DEFAULT_LOG_ETA);
+    SequenceFile.Writer sequenceFileWriter = null;
+    try {
+      sequenceFileWriter = new SequenceFile.Writer(fs, conf, betaDir, PairOfIntFloat.class,
+          HMapIDW.class);
+      PairOfIntFloat outputKey = new PairOfIntFloat();
+      HMapIDW outputValue = new HMapIDW();
+      for (int i = 0; i < numberOfTopics; i++) {
+        EtaWritable eta = lambdaMap != null ? InformedPrior.getEta(lambdaMap, i + 1) : null;
+        double normalizer = 0;
+        outputValue.clear();
+        for (int termID = 1; termID <= numberOfTerms; termID++) {
+          if (phiSums[termID] == null) {
+            continue;
+          }
+          // lambda is the prior plus the expected counts of the term in the topic
+          double lambda = phiSums[termID][i]
+              + (lambdaMap != null ? Math.exp(InformedPrior.getLogEta(termID, eta)) : defaultEta);
+          normalizer += lambda;
+          outputValue.put(termID, digamma(lambda));
+        }
+
+        float logNormalizer = (float) digamma(normalizer);
+        for (int termID = 1; termID <= numberOfTerms; termID++) {
+          if (phiSums[termID] != null) {
+            // normalized the same way as the beta file is imported
+            logBeta.set(termID, i, outputValue.get(termID) - logNormalizer);
+          }
+        }
+
+        // topic is from 1 to K
+        outputKey.set(i + 1, logNormalizer);
+        sequenceFileWriter.append(outputKey, outputValue);
+      }
+    } finally {
+      IOUtils.closeStream(sequenceFileWriter);
+    }
+  }
+
+  private Path exportAlpha(FileSystem fs, Configuration conf, Path alphaDir) throws IOException {
+    SequenceFile.Writer sequenceFileWriter = null;
+    try {
+      sequenceFileWriter = new SequenceFile.Writer(fs, conf, alphaDir, IntWritable.class,
+          DoubleWritable.class);
+      VariationalInference.exportAlpha(sequenceFileWriter, alpha);
+    } finally {
+      IOUtils.closeStream(sequenceFileWriter);
+    }
+    return alphaDir;
+  }
+
+  /**
+   * Set the gamma of the documents from all the side files of a gamma snapshot.
+   *
+   * @return number of documents missing from the side files
+   */
+  private int importGamma(FileSystem fs, Configuration conf, Path gammaDir) throws IOException {
+    GammaStore gammaStore = GammaStore.load(fs, conf, GammaStore.listSideFiles(fs, gammaDir),
+        numberOfTopics);
+    int missingGamma = 0;
+    for (int d = 0; d < documents.size(); d++) {
+      double[] gamma = new double[numberOfTopics];
+      if (gammaStore.getGamma(keys.get(d).get(), gamma)) {
+        documents.get(d).setGamma(gamma);
+      } else {
+        documents.get(d).setGamma(null);
+        missingGamma++;
+      }
+    }
+    return missingGamma;
+  }
+
+  /**
+   * Write the gamma of the documents, as a directory of a side file per document file, each of
+   * which stands for a single input split starting at the beginning of the file.
+   */
+  private void exportGamma(FileSystem fs, Configuration conf, Path gammaDir) throws IOException {
+    fs.mkdirs(gammaDir);
+    IntWritable intWritable = new IntWritable();
+    GammaBlockWritable gammaBlock = new GammaBlockWritable(numberOfTopics);
+    int start = 0;
+    for (int p = 0; p < documentPaths.size(); p++) {
+      int end = documentEnds.get(p);
+      Path gammaPath = new Path(gammaDir, GammaStore.getSideFileName(documentPaths.get(p)
+          .toString(), 0));
+      SequenceFile.Writer sequenceFileWriter = null;
+      try {
+        sequenceFileWriter = new SequenceFile.Writer(fs, conf, gammaPath, IntWritable.class,
+            GammaBlockWritable.class);
+        for (int d = start; d < end; d++) {
+          if (documents.get(d).getGamma() == null) {
+            continue;
+          }
+          gammaBlock.add(keys.get(d).get(), documents.get(d).getGamma());
+          if (gammaBlock.size() >= GammaStore.DEFAULT_BLOCK_SIZE) {
+            intWritable.set(gammaBlock.getDocumentID(0));
+            sequenceFileWriter.append(intWritable, gammaBlock);
+            gammaBlock.clear();
+          }
+        }
+        if (gammaBlock.size() > 0) {
+          intWritable.set(gammaBlock.getDocumentID(0));
+          sequenceFileWriter.append(intWritable, gammaBlock);
+          gammaBlock.clear();
+        }
+      } finally {
+        IOUtils.closeStream(sequenceFileWriter);
+      }
+      start = end;
+    }
+  }
+
+  private double digamma(double x) {
+    return fastGamma ? FastGamma.digamma(x) : Gamma.digamma(x);
+  }
+
+  private double lngamma(double x) {
+    return fastGamma ? FastGamma.lngamma(x) : Gamma.lngamma(x);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new Configuration(), new LocalVariationalInference(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,27 @@
+package cc.mrlda;
+
+/**
+ * The original phi kernel, which folds {@link edu.umd.cloud9.math.LogMath#add(double, double)}
+ * over all topics, and keeps the gamma update in log scale.
+ * 
+ * @author kzhai
+ */
+public class LogMathPhiKernel implements PhiKernel {
+  public void resetGamma(double[] alpha, double[] updateGamma) {
+    for (int i = 0; i < alpha.length; i++) {
+      updateGamma[i] = Math.log(alpha[i]);
+    }
+  }
+
+  public double updatePhi(int numberOfTopics, int termCounts, double[] logBeta,
+      double[] digammaGamma, double[] logPhi, double[] updateGamma) {
+    return DocumentMapper.updatePhi(numberOfTopics, termCounts, logBeta, digammaGamma, logPhi,
+        updateGamma);
+  }
+
+  public void exportGamma(double[] updateGamma, double[] gamma) {
+    for (int i = 0; i < gamma.length; i++) {
+      gamma[i] = Math.exp(updateGamma[i]);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package cc.mrlda;
+
+/**
+ * Sum up values in log scale, i.e., log(exp(a) + exp(b) + ...), a block of values at a time. A
+ * block is combined with one pass for its maximum and one pass for the sum of the exponentials
+ * relative to the maximum, hence it takes one exponential per value and a single logarithm per
+ * block, rather than an exponential and a logarithm per value as folding
+ * {@link edu.umd.cloud9.math.LogMath#add(double, double)} does.
+ *
+ * @author kzhai
+ */
+public class LogSumAccumulator {
+  private static final int DEFAULT_BLOCK_SIZE = 256;
+
+  private double[] buffer = null;
+  private int size = 0;
+
+  /**
+   * sum of the values of the combined blocks in log scale
+   */
+  private double logSum = Double.NEGATIVE_INFINITY;
+
+  public LogSumAccumulator() {
+    this(DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * @param blockSize number of values buffered before they are combined
+   */
+  public LogSumAccumulator(int blockSize) {
+    buffer = new double[blockSize];
+  }
+
+  /**
+   * Start a new sum.
+   */
+  public void clear() {
+    size = 0;
+    logSum = Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * @param logValue a value in log scale, {@link Double#NEGATIVE_INFINITY} for 0
+   */
+  public void add(double logValue) {
+    buffer[size++] = logValue;
+    if (size == buffer.length) {
+      combine();
+    }
+  }
+
+  /**
+   * @return the sum of the values added since the last {@link #clear()} in log scale, or
+   *         {@link Double#NEGATIVE_INFINITY} if none was added
+   */
+  public double getLogSum() {
+    if (size > 0) {
+      combine();
+    }
+    return logSum;
+  }
+
+  private void combine() {
+    double maximum = logSum;
+    for (int i = 0; i < size; i++) {
+      // a NaN value is kept as the maximum, hence propagates to the sum
+      maximum = Math.max(maximum, buffer[i]);
+    }
+
+    if (!Double.isInfinite(maximum) && !Double.isNaN(maximum)) {
+      double sum = Math.exp(logSum - maximum);
+      for (int i = 0; i < size; i++) {
+        sum += Math.exp(buffer[i] - maximum);
+      }
+      logSum = maximum + Math.log(sum);
+    } else {
+      // all the values are 0, or the sum is infinite or undefined
+      logSum = maximum;
+    }
+    size = 0;
+  }
+}
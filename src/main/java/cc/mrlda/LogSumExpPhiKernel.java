@@ -0,0 +1,82 @@
+package cc.mrlda;
+
+/**
+ * This phi kernel normalizes phi with a single pass of log-sum-exp, i.e., it subtracts the maximum,
+ * sums up the exponentials and takes one logarithm per term, rather than one
+ * {@link edu.umd.cloud9.math.LogMath#add(double, double)} per topic. The gamma update is still kept
+ * in log scale.
+ * 
+ * @author kzhai
+ */
+public class LogSumExpPhiKernel implements PhiKernel {
+  /**
+   * the normalized phi vector in linear scale
+   */
+  protected double[] phi = null;
+
+  public void resetGamma(double[] alpha, double[] updateGamma) {
+    for (int i = 0; i < alpha.length; i++) {
+      updateGamma[i] = Math.log(alpha[i]);
+    }
+  }
+
+  public double updatePhi(int numberOfTopics, int termCounts, double[] logBeta,
+      double[] digammaGamma, double[] logPhi, double[] updateGamma) {
+    double logNormalizer = normalizePhi(numberOfTopics, logBeta, digammaGamma, logPhi);
+    double logTermCounts = Math.log(termCounts);
+
+    double convergePhi = 0;
+    for (int i = 0; i < numberOfTopics; i++) {
+      logPhi[i] -= logNormalizer;
+      convergePhi += termCounts * phi[i] * (logBeta[i] - logPhi[i]);
+      logPhi[i] += logTermCounts;
+
+      // update the K-dimensional vector gamma with phi
+      double maximum = Math.max(updateGamma[i], logPhi[i]);
+      if (maximum != Double.NEGATIVE_INFINITY) {
+        updateGamma[i] = maximum
+            + Math.log1p(Math.exp(Math.min(updateGamma[i], logPhi[i]) - maximum));
+      }
+    }
+
+    return convergePhi;
+  }
+
+  public void exportGamma(double[] updateGamma, double[] gamma) {
+    for (int i = 0; i < gamma.length; i++) {
+      gamma[i] = Math.exp(updateGamma[i]);
+    }
+  }
+
+  /**
+   * Compute the unnormalized phi vector in log scale and the normalized phi vector in linear scale.
+   * 
+   * @return the normalizer of the phi vector in log scale
+   */
+  protected double normalizePhi(int numberOfTopics, double[] logBeta, double[] digammaGamma,
+      double[] logPhi) {
+    if (phi == null || phi.length < numberOfTopics) {
+      phi = new double[numberOfTopics];
+    }
+
+    double maximum = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < numberOfTopics; i++) {
+      logPhi[i] = logBeta[i] + digammaGamma[i];
+      if (logPhi[i] > maximum) {
+        maximum = logPhi[i];
+      }
+    }
+
+    double sum = 0;
+    for (int i = 0; i < numberOfTopics; i++) {
+      phi[i] = Math.exp(logPhi[i] - maximum);
+      sum += phi[i];
+    }
+
+    for (int i = 0; i < numberOfTopics; i++) {
+      phi[i] /= sum;
+    }
+
+    return maximum + Math.log(sum);
+  }
+}
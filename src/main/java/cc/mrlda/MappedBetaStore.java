@@ -0,0 +1,558 @@
+package cc.mrlda;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link BetaStore} backed by a memory mapped binary beta file, which needs no deserialization
+ * at all, and is shared through the page cache by all the mapper JVMs on a node.
+ *
+ * The file starts with a header of {@link #HEADER_SIZE} bytes, i.e., {@link #MAGIC},
+ * {@link #VERSION}, number of topics K, number of terms V, precision in bytes and a reserved
+ * integer, followed by a bitmap of the written rows in ceil((V + 1) / 64) longs, and the beta
+ * values in log scale, term-major, from term 0 to term V. All values are little endian. The rows
+ * are split into the pages of {@link BetaStore}, each of which is mapped separately, so that every
+ * mapping stays below 2GB.
+ *
+ * The values are kept in double, single or half precision, see {@link HalfBetaStore}, or quantized
+ * to a byte. A quantized value q of topic k stands for offset[k] + q * scale[k], and q = 255 for a
+ * value not written, where a value below offset[k] saturates to q = 0. The offsets and scales of
+ * the K topics are kept as 2K floats between the header and the bitmap.
+ *
+ * A store is either created for writing by {@link #create(File, int, int, int)} or
+ * {@link #quantize(BetaStore, File)}, or opened for reading by {@link #open(File)}.
+ *
+ * @author kzhai
+ */
+public class MappedBetaStore extends BetaStore {
+  public static final String SUFFIX = ".bin";
+
+  public static final int MAGIC = 0x4d524c42;
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 24;
+
+  public static final int SINGLE_PRECISION = 4;
+  public static final int DOUBLE_PRECISION = 8;
+  public static final int HALF_PRECISION = 2;
+  public static final int BYTE_PRECISION = 1;
+
+  /**
+   * number of levels of a quantized value, the last level marks a value not written
+   */
+  private static final int QUANTIZATION_LEVELS = 255;
+
+  /**
+   * range in log scale of the quantized values of a topic below its maximum, a value further below,
+   * e.g., the digamma of eta of a term without any phi mass in the topic, saturates to level 0
+   */
+  private static final double QUANTIZATION_RANGE = 40;
+
+  private RandomAccessFile file = null;
+  private FileChannel.MapMode mapMode = null;
+  private int precision = DOUBLE_PRECISION;
+  private long dataOffset = 0;
+
+  private MappedByteBuffer[] buffers = null;
+  private DoubleBuffer[] doublePages = null;
+  private FloatBuffer[] floatPages = null;
+
+  /**
+   * offsets then scales of the topics of a quantized store, null otherwise
+   */
+  private float[] quantization = null;
+
+  private MappedBetaStore(RandomAccessFile file, FileChannel.MapMode mapMode, int precision,
+      float[] quantization) {
+    this.file = file;
+    this.mapMode = mapMode;
+    this.precision = precision;
+    this.quantization = quantization;
+  }
+
+  /**
+   * Create an empty binary beta file for writing, {@link #close()} must be called once all the
+   * values are written.
+   *
+   * @param file the binary beta file, overwritten if exists
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param numberOfTerms size of vocabulary in the whole corpus, i.e., the largest term index
+   * @param precision {@link #DOUBLE_PRECISION}, {@link #SINGLE_PRECISION} or
+   *        {@link #HALF_PRECISION}, a quantized store is created by
+   *        {@link #quantize(BetaStore, File)}
+   * @return a writable store
+   * @throws IOException
+   */
+  public static MappedBetaStore create(File file, int numberOfTopics, int numberOfTerms,
+      int precision) throws IOException {
+    Preconditions.checkArgument(precision == SINGLE_PRECISION || precision == DOUBLE_PRECISION
+        || precision == HALF_PRECISION, "Invalid precision for binary beta: " + precision);
+    return create(file, numberOfTopics, numberOfTerms, precision, null);
+  }
+
+  /**
+   * Quantize a store to a byte per value, with the offset and scale of every topic set by the
+   * minimum and maximum of the topic, where the minimum is at most {@link #QUANTIZATION_RANGE} below
+   * the maximum, {@link #close()} must be called on the returned store.
+   *
+   * @param source a store holding all the rows
+   * @param file the binary beta file, overwritten if exists
+   * @return a writable quantized store holding all the rows of the source
+   * @throws IOException
+   */
+  public static MappedBetaStore quantize(BetaStore source, File file) throws IOException {
+    int numberOfTopics = source.getNumberOfTopics();
+    double[] minimum = new double[numberOfTopics];
+    double[] maximum = new double[numberOfTopics];
+    Arrays.fill(minimum, Double.POSITIVE_INFINITY);
+    Arrays.fill(maximum, Double.NEGATIVE_INFINITY);
+
+    double[] logBeta = new double[numberOfTopics];
+    BitSet loaded = source.loaded;
+    for (int termID = loaded.nextSetBit(0); termID >= 0; termID = loaded.nextSetBit(termID + 1)) {
+      getRow(source, termID, logBeta);
+      for (int i = 0; i < numberOfTopics; i++) {
+        // zero beta, i.e., negative infinity, is clamped to the minimum
+        if (!Double.isNaN(logBeta[i]) && !Double.isInfinite(logBeta[i])) {
+          minimum[i] = Math.min(minimum[i], logBeta[i]);
+          maximum[i] = Math.max(maximum[i], logBeta[i]);
+        }
+      }
+    }
+
+    float[] quantization = new float[2 * numberOfTopics];
+    for (int i = 0; i < numberOfTopics; i++) {
+      if (minimum[i] <= maximum[i]) {
+        // the values of zero beta in effect would otherwise stretch a level over the whole range
+        minimum[i] = Math.max(minimum[i], maximum[i] - QUANTIZATION_RANGE);
+        quantization[i] = (float) minimum[i];
+        quantization[numberOfTopics + i] = (float) ((maximum[i] - minimum[i])
+            / (QUANTIZATION_LEVELS - 1));
+      }
+    }
+
+    MappedBetaStore store = create(file, numberOfTopics, source.getNumberOfTerms(),
+        BYTE_PRECISION, quantization);
+    for (int termID = loaded.nextSetBit(0); termID >= 0; termID = loaded.nextSetBit(termID + 1)) {
+      getRow(source, termID, logBeta);
+      for (int i = 0; i < numberOfTopics; i++) {
+        if (termID == 0) {
+          store.setSmoothing(i, logBeta[i]);
+        } else {
+          store.set(termID, i, logBeta[i]);
+        }
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Copy a row of a store, or its smoothing row for term 0.
+   */
+  private static void getRow(BetaStore source, int termID, double[] logBeta) {
+    if (termID == 0) {
+      source.getSmoothingRow(logBeta);
+    } else {
+      source.getRow(termID, logBeta);
+    }
+  }
+
+  private static MappedBetaStore create(File file, int numberOfTopics, int numberOfTerms,
+      int precision, float[] quantization) throws IOException {
+    MappedBetaStore store = new MappedBetaStore(new RandomAccessFile(file, "rw"),
+        FileChannel.MapMode.READ_WRITE, precision, quantization);
+    store.initialize(numberOfTopics, numberOfTerms);
+    // rows never written stay as a hole of the file
+    store.file.setLength(store.dataOffset + (numberOfTerms + 1L) * numberOfTopics * precision);
+    return store;
+  }
+
+  /**
+   * Open a binary beta file for reading, the file is closed right after it is mapped.
+   *
+   * @param file the binary beta file
+   * @return a read-only store
+   * @throws IOException
+   */
+  public static MappedBetaStore open(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      channel.read(header, 0);
+      header.flip();
+      int[] dimensions = readHeader(header, file.toString());
+
+      long bitmapOffset = getBitmapOffset(dimensions[0], dimensions[2]);
+      float[] quantization = null;
+      if (dimensions[2] == BYTE_PRECISION) {
+        quantization = readQuantization(
+            channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, bitmapOffset - HEADER_SIZE),
+            dimensions[0]);
+      }
+
+      MappedBetaStore store = new MappedBetaStore(randomAccessFile, FileChannel.MapMode.READ_ONLY,
+          dimensions[2], quantization);
+      store.initialize(dimensions[0], dimensions[1]);
+
+      ByteBuffer bitmap = channel.map(FileChannel.MapMode.READ_ONLY, bitmapOffset,
+          store.dataOffset - bitmapOffset).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; bitmap.hasRemaining(); i += 64) {
+        long word = bitmap.getLong();
+        while (word != 0) {
+          store.loaded.set(i + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+
+      for (int page = 0; page < store.numberOfPages; page++) {
+        store.allocatePage(page, store.getNumberOfCells(page));
+      }
+      return store;
+    } finally {
+      // the mappings stay valid after the file is closed
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * @param header the header of a binary beta file
+   * @param name name of the file, used in error messages
+   * @return number of topics, number of terms and precision
+   */
+  static int[] readHeader(ByteBuffer header, String name) {
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    Preconditions.checkArgument(header.remaining() >= HEADER_SIZE && header.getInt() == MAGIC,
+        "Invalid binary beta file: " + name);
+    Preconditions.checkArgument(header.getInt() == VERSION, "Unsupported binary beta version: "
+        + name);
+    int numberOfTopics = header.getInt();
+    int numberOfTerms = header.getInt();
+    int precision = header.getInt();
+    Preconditions.checkArgument(precision == SINGLE_PRECISION || precision == DOUBLE_PRECISION
+        || precision == HALF_PRECISION || precision == BYTE_PRECISION,
+        "Invalid precision for binary beta: " + precision);
+    return new int[] { numberOfTopics, numberOfTerms, precision };
+  }
+
+  /**
+   * @param fs the file system of the binary beta file
+   * @param binaryBetaPath a binary beta file
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param numberOfTerms size of vocabulary in the whole corpus
+   * @param precision precision of the values
+   * @return true if the header of the file is valid and of the given dimension and precision
+   * @throws IOException
+   */
+  public static boolean matches(FileSystem fs, Path binaryBetaPath, int numberOfTopics,
+      int numberOfTerms, int precision) throws IOException {
+    byte[] header = new byte[HEADER_SIZE];
+    FSDataInputStream inputStream = fs.open(binaryBetaPath);
+    try {
+      inputStream.readFully(0, header);
+    } catch (EOFException eofe) {
+      return false;
+    } finally {
+      inputStream.close();
+    }
+
+    int[] dimensions = null;
+    try {
+      dimensions = readHeader(ByteBuffer.wrap(header), binaryBetaPath.toString());
+    } catch (IllegalArgumentException iae) {
+      return false;
+    }
+    return dimensions[0] == numberOfTopics && dimensions[1] == numberOfTerms
+        && dimensions[2] == precision;
+  }
+
+  /**
+   * @param buffer the offsets and scales of a quantized binary beta file
+   * @param numberOfTopics number of topics
+   * @return offsets then scales of the topics
+   */
+  static float[] readQuantization(ByteBuffer buffer, int numberOfTopics) {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    float[] quantization = new float[2 * numberOfTopics];
+    for (int i = 0; i < quantization.length; i++) {
+      quantization[i] = buffer.getFloat();
+    }
+    return quantization;
+  }
+
+  /**
+   * @param numberOfTopics number of topics
+   * @param precision precision of the values
+   * @return offset of the bitmap in a binary beta file
+   */
+  static long getBitmapOffset(int numberOfTopics, int precision) {
+    // 2K floats keep the bitmap aligned to 8 bytes
+    return HEADER_SIZE + (precision == BYTE_PRECISION ? 8L * numberOfTopics : 0);
+  }
+
+  /**
+   * @param numberOfTopics number of topics
+   * @param numberOfTerms size of vocabulary in the whole corpus
+   * @param precision precision of the values
+   * @return offset of the beta values in a binary beta file
+   */
+  static long getDataOffset(int numberOfTopics, int numberOfTerms, int precision) {
+    // the bitmap covers term 0 to V, and keeps the values aligned to 8 bytes
+    return getBitmapOffset(numberOfTopics, precision) + 8L * ((numberOfTerms + 64) / 64);
+  }
+
+  /**
+   * Decode a value of a binary beta file.
+   *
+   * @param cells the beta values, little endian
+   * @param index index of the value in the buffer
+   * @param topicIndex topic index of the value
+   * @param precision precision of the values
+   * @param quantization offsets then scales of the topics, if quantized
+   * @return the beta value in log scale, {@link Double#NaN} if not written
+   */
+  static double getCell(ByteBuffer cells, int index, int topicIndex, int precision,
+      float[] quantization) {
+    switch (precision) {
+    case DOUBLE_PRECISION:
+      return cells.getDouble(index * DOUBLE_PRECISION);
+    case SINGLE_PRECISION:
+      return cells.getFloat(index * SINGLE_PRECISION);
+    case HALF_PRECISION:
+      return HalfBetaStore.toDouble(cells.getShort(index * HALF_PRECISION));
+    default:
+      int level = cells.get(index) & 0xff;
+      if (level == QUANTIZATION_LEVELS) {
+        return Double.NaN;
+      }
+      return quantization[topicIndex] + level * quantization[quantization.length / 2 + topicIndex];
+    }
+  }
+
+  /**
+   * Convert a beta SequenceFile to a binary beta file, the parts are imported concurrently.
+   *
+   * @param fs the file system of both files
+   * @param conf configuration
+   * @param betaPaths the beta SequenceFile, or its parts
+   * @param binaryBetaPath the binary beta file to write
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param numberOfTerms size of vocabulary in the whole corpus
+   * @param precision {@link #DOUBLE_PRECISION}, {@link #SINGLE_PRECISION},
+   *        {@link #HALF_PRECISION} or {@link #BYTE_PRECISION}
+   * @param lambdaMap the informed prior indexed by topic, or null if the prior is not informed
+   * @throws IOException
+   */
+  public static void exportBeta(FileSystem fs, Configuration conf, List<Path> betaPaths,
+      Path binaryBetaPath, int numberOfTopics, int numberOfTerms, int precision,
+      EtaWritable[] lambdaMap) throws IOException {
+    // the file is transposed through a local mapping, since a distributed file system does not
+    // support random writes
+    File localFile = File.createTempFile(Settings.BETA, SUFFIX);
+    File unquantizedFile = null;
+    MappedBetaStore store = null;
+    MappedBetaStore unquantizedStore = null;
+    try {
+      if (precision == BYTE_PRECISION) {
+        // the range of every topic is only known once the whole beta is imported
+        unquantizedFile = File.createTempFile(Settings.BETA, SUFFIX);
+        unquantizedStore = create(unquantizedFile, numberOfTopics, numberOfTerms,
+            SINGLE_PRECISION);
+        DocumentMapper.importBeta(fs, conf, betaPaths, unquantizedStore, lambdaMap, Runtime
+            .getRuntime().availableProcessors());
+        store = quantize(unquantizedStore, localFile);
+        unquantizedStore.close();
+        unquantizedStore = null;
+      } else {
+        store = create(localFile, numberOfTopics, numberOfTerms, precision);
+        DocumentMapper.importBeta(fs, conf, betaPaths, store, lambdaMap, Runtime.getRuntime()
+            .availableProcessors());
+      }
+      store.close();
+      store = null;
+
+      fs.copyFromLocalFile(false, true, new Path(localFile.getAbsolutePath()), binaryBetaPath);
+    } finally {
+      if (store != null) {
+        store.close();
+      }
+      if (unquantizedStore != null) {
+        unquantizedStore.close();
+      }
+      if (unquantizedFile != null) {
+        unquantizedFile.delete();
+      }
+      localFile.delete();
+    }
+  }
+
+  /**
+   * Write the header and the bitmap of a store created for writing, and flush the file.
+   *
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    Preconditions.checkArgument(mapMode == FileChannel.MapMode.READ_WRITE,
+        "Binary beta file was opened read-only...");
+
+    ByteBuffer header = ByteBuffer.allocate((int) dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC).putInt(VERSION).putInt(numberOfTopics).putInt(numberOfTerms)
+        .putInt(precision).putInt(0);
+    if (quantization != null) {
+      for (float value : quantization) {
+        header.putFloat(value);
+      }
+    }
+    for (int i = 0; i <= numberOfTerms; i += 64) {
+      long word = 0;
+      for (int j = loaded.nextSetBit(i); j >= 0 && j < i + 64; j = loaded.nextSetBit(j + 1)) {
+        word |= 1L << (j - i);
+      }
+      header.putLong(word);
+    }
+    header.flip();
+
+    try {
+      file.getChannel().write(header, 0);
+      for (MappedByteBuffer buffer : buffers) {
+        if (buffer != null) {
+          buffer.force();
+        }
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  /**
+   * @return number of bytes of the mapped pages, which live in the page cache rather than the heap
+   */
+  public long getMemoryUsage() {
+    long memoryUsage = 0;
+    for (MappedByteBuffer buffer : buffers) {
+      memoryUsage += buffer == null ? 0 : buffer.capacity();
+    }
+    return memoryUsage;
+  }
+
+  /**
+   * A newly written row of the file reads zero, hence its cells are marked as not written first.
+   */
+  protected void initializeRow(int page, int offset) {
+    for (int i = 0; i < numberOfTopics; i++) {
+      setCell(page, offset + i, Double.NaN);
+    }
+  }
+
+  protected void allocatePages(int numberOfPages) {
+    dataOffset = getDataOffset(numberOfTopics, numberOfTerms, precision);
+
+    buffers = new MappedByteBuffer[numberOfPages];
+    doublePages = new DoubleBuffer[numberOfPages];
+    floatPages = new FloatBuffer[numberOfPages];
+  }
+
+  protected boolean isAllocated(int page) {
+    return buffers[page] != null;
+  }
+
+  protected void allocatePage(int page, int numberOfCells) {
+    long position = dataOffset + ((long) page << pageShift) * numberOfTopics * precision;
+    try {
+      buffers[page] = file.getChannel().map(mapMode, position, (long) numberOfCells * precision);
+    } catch (IOException ioe) {
+      throw new IllegalStateException("Fail to map page " + page + " of binary beta file...", ioe);
+    }
+    buffers[page].order(ByteOrder.LITTLE_ENDIAN);
+
+    if (precision == DOUBLE_PRECISION) {
+      doublePages[page] = buffers[page].asDoubleBuffer();
+    } else if (precision == SINGLE_PRECISION) {
+      floatPages[page] = buffers[page].asFloatBuffer();
+    }
+  }
+
+  protected double getCell(int page, int offset) {
+    if (!isAllocated(page)) {
+      return Double.NaN;
+    }
+    if (precision == DOUBLE_PRECISION) {
+      return doublePages[page].get(offset);
+    } else if (precision == SINGLE_PRECISION) {
+      return floatPages[page].get(offset);
+    }
+    // pages start at a row, hence the topic of a cell is its offset modulo K
+    return getCell(buffers[page], offset, offset % numberOfTopics, precision, quantization);
+  }
+
+  protected void setCell(int page, int offset, double logBeta) {
+    switch (precision) {
+    case DOUBLE_PRECISION:
+      doublePages[page].put(offset, logBeta);
+      break;
+    case SINGLE_PRECISION:
+      floatPages[page].put(offset, (float) logBeta);
+      break;
+    case HALF_PRECISION:
+      buffers[page].putShort(offset * HALF_PRECISION, HalfBetaStore.toHalfLogBeta(logBeta));
+      break;
+    default:
+      int topicIndex = offset % numberOfTopics;
+      int level = QUANTIZATION_LEVELS;
+      if (!Double.isNaN(logBeta)) {
+        float scale = quantization[numberOfTopics + topicIndex];
+        double levels = scale > 0 ? (logBeta - quantization[topicIndex]) / scale : 0;
+        level = (int) Math.max(0, Math.min(QUANTIZATION_LEVELS - 1, Math.round(levels)));
+      }
+      buffers[page].put(offset, (byte) level);
+    }
+  }
+
+  protected void copyRow(int page, int offset, double[] logBeta) {
+    // absolute reads only, hence the buffers can be shared by all threads
+    if (precision == DOUBLE_PRECISION) {
+      DoubleBuffer cells = doublePages[page];
+      for (int i = 0; i < numberOfTopics; i++) {
+        logBeta[i] = cells.get(offset + i);
+      }
+    } else if (precision == SINGLE_PRECISION) {
+      FloatBuffer cells = floatPages[page];
+      for (int i = 0; i < numberOfTopics; i++) {
+        logBeta[i] = cells.get(offset + i);
+      }
+    } else {
+      ByteBuffer cells = buffers[page];
+      for (int i = 0; i < numberOfTopics; i++) {
+        logBeta[i] = getCell(cells, offset + i, i, precision, quantization);
+      }
+    }
+  }
+
+  private int getNumberOfCells(int page) {
+    return Math.min(pageMask + 1, numberOfRows - (page << pageShift)) * numberOfTopics;
+  }
+}
@@ -0,0 +1,72 @@
+package cc.mrlda;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Process-wide cache of the model parameters loaded from the distributed cache, which lets the
+ * later tasks of a job reuse the parameters loaded by the earlier ones when the task JVM is reused,
+ * i.e., with mapred.job.reuse.jvm.num.tasks enabled.
+ * <p>
+ * Every kind of parameter, e.g., beta or alpha, occupies a slot holding a single model, identified
+ * by the path, iteration and length of the file it was loaded from. Storing a model under a
+ * different identity drops the previous one, hence a JVM never holds the parameters of two
+ * iterations at once. The cached models are shared by all tasks, and must never be modified.
+ *
+ * @author kzhai
+ */
+public class ModelCache {
+  private static final Map<String, String> identities = new HashMap<String, String>();
+  private static final Map<String, Object> models = new HashMap<String, Object>();
+
+  /**
+   * @param fs the file system of the file
+   * @param path path of the file the model is loaded from
+   * @param iteration iteration of the model
+   * @return the identity of the model file
+   * @throws IOException
+   */
+  public static String getIdentity(FileSystem fs, Path path, int iteration) throws IOException {
+    return path.toString() + Settings.DASH + iteration + Settings.DASH
+        + fs.getFileStatus(path).getLen();
+  }
+
+  /**
+   * @param slot the kind of the model parameter
+   * @param identity the identity of the model file
+   * @return the cached model of the given identity, or null if a model of a different identity or
+   *         no model is cached in the slot
+   */
+  public static synchronized Object get(String slot, String identity) {
+    if (!identity.equals(identities.get(slot))) {
+      return null;
+    }
+    return models.get(slot);
+  }
+
+  /**
+   * Cache a model, the model previously cached in the slot is dropped.
+   *
+   * @param slot the kind of the model parameter
+   * @param identity the identity of the model file
+   * @param model the model
+   */
+  public static synchronized void put(String slot, String identity, Object model) {
+    identities.put(slot, identity);
+    models.put(slot, model);
+  }
+
+  /**
+   * Drop the model cached in a slot, e.g., before loading a new one, so both never coexist.
+   *
+   * @param slot the kind of the model parameter
+   */
+  public static synchronized void remove(String slot) {
+    identities.remove(slot);
+    models.remove(slot);
+  }
+}
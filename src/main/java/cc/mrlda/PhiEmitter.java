@@ -0,0 +1,196 @@
+package cc.mrlda;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+import cc.mrlda.VariationalInference.ParameterCounter;
+
+
+/**
+ * Emits the phi vector of a term, optionally only the topics holding at least a given fraction of
+ * the phi mass of the term and/or only a given number of most likely topics. The most likely topic
+ * is always emitted, and the dropped entries and mass are reported in the counters. Topics missing
+ * from the output are handled in {@link DocumentMapper#importBeta(SequenceFile.Reader, BetaStore)}.
+ * The phi vector is emitted either as K (topic, term) records, or as a single
+ * {@link PhiVectorWritable} keyed by the term, where the dropped topics are negative infinity. The
+ * records per topic optionally carry phi in linear scale, hence are summed up by plain additions
+ * downstream, while the vector is always in log scale. An instance holds its own output buffers,
+ * hence must not be shared across threads.
+ *
+ * @author kzhai
+ */
+public class PhiEmitter {
+  private int numberOfTopics = 0;
+  private double phiThreshold = Settings.DEFAULT_PHI_THRESHOLD;
+  private int phiTopN = Settings.DEFAULT_PHI_TOP_N;
+  private boolean vectorEmit = false;
+  private boolean linearPhi = false;
+
+  private TopicTermKey outputKey = null;
+  private PhiWritable outputValue = null;
+  private IntWritable outputTerm = new IntWritable();
+  private PhiVectorWritable outputVector = null;
+
+  private double[] sortedLogPhi = null;
+
+  /**
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param phiThreshold minimum fraction of the phi mass of a term a topic must hold to be emitted,
+   *        disabled if non-positive
+   * @param phiTopN number of most likely topics to emit, disabled if non-positive
+   */
+  public PhiEmitter(int numberOfTopics, double phiThreshold, int phiTopN) {
+    this(numberOfTopics, phiThreshold, phiTopN, false);
+  }
+
+  /**
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param phiThreshold minimum fraction of the phi mass of a term a topic must hold to be emitted,
+   *        disabled if non-positive
+   * @param phiTopN number of most likely topics to emit, disabled if non-positive
+   * @param vectorEmit emit a {@link PhiVectorWritable} per term rather than a record per topic
+   */
+  public PhiEmitter(int numberOfTopics, double phiThreshold, int phiTopN, boolean vectorEmit) {
+    this(numberOfTopics, phiThreshold, phiTopN, vectorEmit, new TopicTermKey(),
+        new PhiWritable());
+  }
+
+  /**
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param phiThreshold minimum fraction of the phi mass of a term a topic must hold to be emitted,
+   *        disabled if non-positive
+   * @param phiTopN number of most likely topics to emit, disabled if non-positive
+   * @param vectorEmit emit a {@link PhiVectorWritable} per term rather than a record per topic
+   * @param outputKey the key of the records per topic, of the map output key class
+   * @param outputValue the value of the records per topic, of the map output value class
+   */
+  public PhiEmitter(int numberOfTopics, double phiThreshold, int phiTopN, boolean vectorEmit,
+      TopicTermKey outputKey, PhiWritable outputValue) {
+    this(numberOfTopics, phiThreshold, phiTopN, vectorEmit, false, outputKey, outputValue);
+  }
+
+  /**
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param phiThreshold minimum fraction of the phi mass of a term a topic must hold to be emitted,
+   *        disabled if non-positive
+   * @param phiTopN number of most likely topics to emit, disabled if non-positive
+   * @param vectorEmit emit a {@link PhiVectorWritable} per term rather than a record per topic
+   * @param linearPhi emit the records per topic in linear rather than log scale
+   * @param outputKey the key of the records per topic, of the map output key class
+   * @param outputValue the value of the records per topic, of the map output value class
+   */
+  public PhiEmitter(int numberOfTopics, double phiThreshold, int phiTopN, boolean vectorEmit,
+      boolean linearPhi, TopicTermKey outputKey, PhiWritable outputValue) {
+    this.numberOfTopics = numberOfTopics;
+    this.phiThreshold = phiThreshold;
+    this.phiTopN = phiTopN;
+    this.vectorEmit = vectorEmit;
+    this.linearPhi = linearPhi;
+    this.outputKey = outputKey;
+    this.outputValue = outputValue;
+
+    sortedLogPhi = new double[numberOfTopics];
+    outputVector = new PhiVectorWritable(numberOfTopics);
+  }
+
+  /**
+   * @param termID term index
+   * @param logPhi the phi vector of the term in log scale
+   * @param output the output collector of the mapper
+   * @param reporter reporter to update the counters
+   * @throws IOException
+   */
+  public void emit(int termID, double[] logPhi, OutputCollector<Writable, Writable> output,
+      Reporter reporter) throws IOException {
+    double logCutoff = Double.NEGATIVE_INFINITY;
+    if (phiThreshold > 0 || (phiTopN > 0 && phiTopN < numberOfTopics)) {
+      double maximum = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < numberOfTopics; i++) {
+        maximum = Math.max(maximum, logPhi[i]);
+      }
+
+      if (phiThreshold > 0) {
+        double sum = 0;
+        for (int i = 0; i < numberOfTopics; i++) {
+          sum += Math.exp(logPhi[i] - maximum);
+        }
+        logCutoff = maximum + Math.log(sum) + Math.log(phiThreshold);
+      }
+
+      if (phiTopN > 0 && phiTopN < numberOfTopics) {
+        System.arraycopy(logPhi, 0, sortedLogPhi, 0, numberOfTopics);
+        Arrays.sort(sortedLogPhi);
+        logCutoff = Math.max(logCutoff, sortedLogPhi[numberOfTopics - phiTopN]);
+      }
+
+      logCutoff = Math.min(logCutoff, maximum);
+    }
+
+    int droppedEntries = 0;
+    double droppedMass = 0;
+    double[] vector = outputVector.getValues();
+    for (int i = 0; i < numberOfTopics; i++) {
+      if (logPhi[i] < logCutoff) {
+        droppedEntries++;
+        droppedMass += Math.exp(logPhi[i]);
+        vector[i] = Double.NEGATIVE_INFINITY;
+        continue;
+      }
+
+      if (vectorEmit) {
+        vector[i] = logPhi[i];
+      } else {
+        outputValue.set(linearPhi ? Math.exp(logPhi[i]) : logPhi[i]);
+
+        // a *positive* topic index indicates the output is a phi values
+        outputKey.set(i + 1, termID);
+        output.collect(outputKey, outputValue);
+      }
+    }
+
+    if (vectorEmit) {
+      outputTerm.set(termID);
+      output.collect(outputTerm, outputVector);
+    }
+
+    if (droppedEntries > 0) {
+      reporter.incrCounter(ParameterCounter.DROPPED_PHI, droppedEntries);
+      reporter.incrCounter(ParameterCounter.DROPPED_PHI_MASS,
+          (long) (droppedMass * Settings.DEFAULT_COUNTER_SCALE));
+    }
+  }
+
+  /**
+   * @param totalAlphaSufficientStatistics the alpha sufficient statistics of a mapper
+   * @param output the output collector of the mapper
+   * @throws IOException
+   */
+  public void emitAlphaSufficientStatistics(double[] totalAlphaSufficientStatistics,
+      OutputCollector<Writable, Writable> output) throws IOException {
+    if (vectorEmit) {
+      // a *zero* term index indicates the output is the vector for alpha updating
+      outputTerm.set(0);
+      outputVector.set(totalAlphaSufficientStatistics);
+      output.collect(outputTerm, outputVector);
+      return;
+    }
+
+    for (int i = 0; i < numberOfTopics; i++) {
+      // a *zero* topic index and a *positive* topic index indicates the output is a term for
+      // alpha updating
+      outputKey.set(0, i + 1);
+      outputValue.set(totalAlphaSufficientStatistics[i]);
+      output.collect(outputKey, outputValue);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package cc.mrlda;
+
+/**
+ * A kernel computes the phi vector of a term and accumulates it into the gamma update of a
+ * document. The accumulator {@code updateGamma} is in a kernel specific scale, hence it must only
+ * be initialized by {@link #resetGamma(double[], double[])} and read back through
+ * {@link #exportGamma(double[], double[])}.
+ * 
+ * A kernel may keep scratch space, every thread must hold its own instance.
+ * 
+ * @author kzhai
+ */
+public interface PhiKernel {
+  /**
+   * Seed the gamma update of a document with the alpha vector.
+   * 
+   * @param alpha the alpha vector
+   * @param updateGamma the gamma update accumulator, take note that it will be updated accordingly
+   */
+  public void resetGamma(double[] alpha, double[] updateGamma);
+
+  /**
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   * @param termCounts the term counts associated with the term
+   * @param logBeta the beta vector in log scale
+   * @param digammaGamma the digamma of the gamma vector
+   * @param logPhi the phi vector, scaled by the term counts and in log scale, take note that it
+   *        will be updated accordingly
+   * @param updateGamma the gamma update accumulator, take note that it will be updated accordingly
+   * @return the contribution of this term to the phi part of the likelihood
+   */
+  public double updatePhi(int numberOfTopics, int termCounts, double[] logBeta,
+      double[] digammaGamma, double[] logPhi, double[] updateGamma);
+
+  /**
+   * Convert the gamma update accumulator into the gamma vector.
+   * 
+   * @param updateGamma the gamma update accumulator
+   * @param gamma the gamma vector, take note that it will be updated accordingly
+   */
+  public void exportGamma(double[] updateGamma, double[] gamma);
+}
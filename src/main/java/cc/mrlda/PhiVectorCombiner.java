@@ -0,0 +1,38 @@
+package cc.mrlda;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * The combiner of the vector-valued map output, see {@link PhiVectorWritable}, which sums the
+ * vectors of a term element-wise.
+ */
+public class PhiVectorCombiner extends MapReduceBase implements
+    Reducer<IntWritable, PhiVectorWritable, IntWritable, PhiVectorWritable> {
+  private PhiVectorWritable outputValue = new PhiVectorWritable();
+
+  public void reduce(IntWritable key, Iterator<PhiVectorWritable> values,
+      OutputCollector<IntWritable, PhiVectorWritable> output, Reporter reporter)
+      throws IOException {
+    // the value object is reused by the iterator, hence copy it
+    outputValue.set(values.next());
+    if (key.get() == 0) {
+      // this is not a phi vector
+      while (values.hasNext()) {
+        outputValue.add(values.next());
+      }
+    } else {
+      // this is a phi vector
+      while (values.hasNext()) {
+        outputValue.logAdd(values.next());
+      }
+    }
+    output.collect(key, outputValue);
+  }
+}
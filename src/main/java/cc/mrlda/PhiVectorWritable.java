@@ -0,0 +1,150 @@
+package cc.mrlda;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The phi values of a term for all the topics in log scale, i.e., a single map output record in
+ * place of K (topic, term) records. Topics dropped by the sparse phi emission are
+ * {@link Double#NEGATIVE_INFINITY}, and a vector holding few topics is serialized sparsely, as
+ * pairs of topic index and value. The same vector also carries the alpha sufficient statistics of a
+ * mapper, in linear scale, under term 0.
+ *
+ * @author kzhai
+ */
+public class PhiVectorWritable implements Writable {
+  private int numberOfTopics = 0;
+  private double[] values = new double[0];
+
+  public PhiVectorWritable() {
+  }
+
+  /**
+   * @param numberOfTopics number of topics defined by the current latent Dirichlet allocation
+   *        model.
+   */
+  public PhiVectorWritable(int numberOfTopics) {
+    setNumberOfTopics(numberOfTopics);
+  }
+
+  public int getNumberOfTopics() {
+    return numberOfTopics;
+  }
+
+  /**
+   * @return the values, backed by this vector, of which the first {@link #getNumberOfTopics()} are
+   *         valid
+   */
+  public double[] getValues() {
+    return values;
+  }
+
+  /**
+   * @param values the values to copy into this vector, resized to their length
+   */
+  public void set(double[] values) {
+    setNumberOfTopics(values.length);
+    System.arraycopy(values, 0, this.values, 0, numberOfTopics);
+  }
+
+  /**
+   * @param vector the vector to copy into this vector
+   */
+  public void set(PhiVectorWritable vector) {
+    setNumberOfTopics(vector.numberOfTopics);
+    System.arraycopy(vector.values, 0, values, 0, numberOfTopics);
+  }
+
+  /**
+   * Add another vector element-wise in log scale.
+   *
+   * @param vector a vector of the same number of topics
+   */
+  public void logAdd(PhiVectorWritable vector) {
+    for (int i = 0; i < numberOfTopics; i++) {
+      values[i] = logAdd(values[i], vector.values[i]);
+    }
+  }
+
+  /**
+   * Add another vector element-wise in linear scale.
+   *
+   * @param vector a vector of the same number of topics
+   */
+  public void add(PhiVectorWritable vector) {
+    for (int i = 0; i < numberOfTopics; i++) {
+      values[i] += vector.values[i];
+    }
+  }
+
+  /**
+   * @return log(exp(a) + exp(b)), where either value may be {@link Double#NEGATIVE_INFINITY}
+   */
+  public static double logAdd(double a, double b) {
+    if (a == Double.NEGATIVE_INFINITY) {
+      return b;
+    } else if (b == Double.NEGATIVE_INFINITY) {
+      return a;
+    } else if (a < b) {
+      return b + Math.log1p(Math.exp(a - b));
+    } else {
+      return a + Math.log1p(Math.exp(b - a));
+    }
+  }
+
+  public void write(DataOutput out) throws IOException {
+    int numberOfEntries = 0;
+    for (int i = 0; i < numberOfTopics; i++) {
+      if (values[i] != Double.NEGATIVE_INFINITY) {
+        numberOfEntries++;
+      }
+    }
+
+    WritableUtils.writeVInt(out, numberOfTopics);
+    // a sparse entry takes a topic index on top of the value
+    if (numberOfEntries * 10 < numberOfTopics * 8) {
+      WritableUtils.writeVInt(out, numberOfEntries);
+      for (int i = 0; i < numberOfTopics; i++) {
+        if (values[i] != Double.NEGATIVE_INFINITY) {
+          WritableUtils.writeVInt(out, i);
+          out.writeDouble(values[i]);
+        }
+      }
+    } else {
+      // a negative number of entries marks a dense vector
+      WritableUtils.writeVInt(out, -1);
+      for (int i = 0; i < numberOfTopics; i++) {
+        out.writeDouble(values[i]);
+      }
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    setNumberOfTopics(WritableUtils.readVInt(in));
+    int numberOfEntries = WritableUtils.readVInt(in);
+    if (numberOfEntries < 0) {
+      for (int i = 0; i < numberOfTopics; i++) {
+        values[i] = in.readDouble();
+      }
+    } else {
+      for (int i = 0; i < numberOfTopics; i++) {
+        values[i] = Double.NEGATIVE_INFINITY;
+      }
+      for (int j = 0; j < numberOfEntries; j++) {
+        int i = WritableUtils.readVInt(in);
+        values[i] = in.readDouble();
+      }
+    }
+  }
+
+  private void setNumberOfTopics(int numberOfTopics) {
+    this.numberOfTopics = numberOfTopics;
+    if (values.length < numberOfTopics) {
+      values = new double[numberOfTopics];
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package cc.mrlda;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The value of a (topic, term) map output record, i.e., a phi value in log scale, or an alpha
+ * sufficient statistic, in double precision. The combiner and the reducer read the values through
+ * this class only, hence they are agnostic of the precision of the map output, see
+ * {@link FloatPhiWritable}.
+ *
+ * @author kzhai
+ */
+public class PhiWritable implements Writable {
+  private double value = 0;
+
+  public PhiWritable() {
+  }
+
+  public PhiWritable(double value) {
+    set(value);
+  }
+
+  /**
+   * @param floatPhi hold the value in single precision
+   * @return a new value of the given precision
+   */
+  public static PhiWritable newInstance(boolean floatPhi) {
+    return floatPhi ? new FloatPhiWritable() : new PhiWritable();
+  }
+
+  public double get() {
+    return value;
+  }
+
+  public void set(double value) {
+    this.value = value;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeDouble(value);
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    value = in.readDouble();
+  }
+
+  public String toString() {
+    return Double.toString(value);
+  }
+}
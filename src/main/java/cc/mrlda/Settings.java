@@ -16,9 +16,39 @@ public interface Settings {
 
   public static final String MAPPER_OPTION = "mapper";
   public static final String REDUCER_OPTION = "reducer";
+  public static final String MAPPER_THREAD_OPTION = "mapperthread";
 
   public static final int DEFAULT_NUMBER_OF_MAPPERS = 100;
   public static final int DEFAULT_NUMBER_OF_REDUCERS = 50;
+  public static final int DEFAULT_NUMBER_OF_MAPPER_THREADS = 1;
+  /**
+   * Maximum number of beta part files a mapper imports at once.
+   */
+  public static final int DEFAULT_NUMBER_OF_IMPORT_THREADS = 4;
+  /**
+   * Number of bits per beta value, either 64, 32, 16 or 8.
+   */
+  public static final int DEFAULT_BETA_PRECISION = 64;
+  /**
+   * Number of most likely terms kept in every topic of a truncated beta.
+   */
+  public static final int DEFAULT_TRUNCATION_SIZE = 10000;
+  /**
+   * Number of entries per chunk of a topic of a chunked beta.
+   */
+  public static final int DEFAULT_BETA_CHUNK_SIZE = 65536;
+  /**
+   * Encode the indices of the map output keys in a variable number of bytes.
+   */
+  public static final boolean DEFAULT_COMPACT_KEY = false;
+  /**
+   * Hold the values of the map output records in single precision.
+   */
+  public static final boolean DEFAULT_FLOAT_PHI = false;
+  /**
+   * Carry the phi values of the map output records in linear rather than log scale.
+   */
+  public static final boolean DEFAULT_LINEAR_PHI = false;
   public static final String DEFAULT_QUEUE_NAME = "default";
 
   public static final char SPACE = ' ';
@@ -50,11 +80,28 @@ public interface Settings {
   public static final String GAMMA = "gamma";
   public static final String BETA = "beta";
   public static final String ALPHA = "alpha";
+  public static final String NORMALIZER = "normalizer";
 
   public static final int MAXIMUM_LOCAL_ITERATION = 100;
   //public static final int BURN_IN_SWEEP = 5;
+
+  /**
+   * A document stops its gamma updates once the relative change of every gamma entry falls below
+   * this threshold, a non-positive value disables this test.
+   */
+  public static final float DEFAULT_GAMMA_UPDATE_CONVERGE_THRESHOLD = 0.0001f;
+  /**
+   * A document stops its gamma updates once the relative change of its likelihood falls below this
+   * threshold, a non-positive value disables this test.
+   */
+  public static final float DEFAULT_GAMMA_UPDATE_CONVERGE_CRITERIA = 0.000001f;
   public static final double DEFAULT_GLOBAL_CONVERGE_CRITERIA = 0.000001;
 
+  /**
+   * Use the fast approximations of {@link FastGamma} in the mapper, the reducer and the alpha update.
+   */
+  public static final boolean DEFAULT_FAST_GAMMA = false;
+
   public static final double DEFAULT_LOG_ETA = Math.log(1e-12);
 
   public static final float DEFAULT_ALPHA_UPDATE_CONVERGE_THRESHOLD = 0.000001f;
@@ -73,8 +120,27 @@ public interface Settings {
   public static final String DIRECT_EMIT = "directemit";
   public static final boolean DEFAULT_DIRECT_EMIT = false;
 
-  public static final int MEMORY_THRESHOLD = 64 * 1024 * 1024;
-  public static final int TOP_WORDS_FOR_CACHING = 10000;
+  /**
+   * Fraction of the maximum heap size given to the dense regions of the in-mapper combiners, split
+   * evenly among the mapper threads.
+   */
+  public static final float DEFAULT_COMBINER_MEMORY_FRACTION = 0.1f;
+  /**
+   * Maximum number of terms beyond the dense region an in-mapper combiner keeps, before it emits
+   * the least recently updated one.
+   */
+  public static final int DEFAULT_COMBINER_OVERFLOW_TERMS = 4096;
+
+  /**
+   * Mapper emits only the topics holding at least this fraction of the phi mass of a term, a
+   * non-positive value emits all topics.
+   */
+  public static final float DEFAULT_PHI_THRESHOLD = 0;
+  /**
+   * Mapper emits only this many most likely topics of a term, a non-positive value emits all
+   * topics.
+   */
+  public static final int DEFAULT_PHI_TOP_N = 0;
 
   // public static final int DEFAULT_MAPRED_TASK_TIMEOUT = 1000 * 60 * 60;
 
@@ -0,0 +1,146 @@
+package cc.mrlda;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * A {@link DoubleBetaStore} holding the rows of a given subset of the terms only, e.g., the terms
+ * of the input split of a mapper, so that its size scales with the vocabulary of the split rather
+ * than the vocabulary of the whole corpus. The rows are read from a binary beta file, see
+ * {@link MappedBetaStore}, by positioned reads of the ranges of consecutive terms, and decoded to
+ * double precision whatever the precision of the file is.
+ *
+ * @author kzhai
+ */
+public class ShardedBetaStore extends DoubleBetaStore {
+  /**
+   * maximum number of bytes read at once
+   */
+  private static final int READ_BUFFER_SIZE = 1 << 20;
+
+  /**
+   * the terms held by this store in ascending order, the row of a term is its position
+   */
+  private int[] termIDs = null;
+
+  /**
+   * @param termIDs the terms held by this store in ascending order, without duplicates
+   */
+  public ShardedBetaStore(int[] termIDs) {
+    this.termIDs = termIDs;
+  }
+
+  /**
+   * Read the rows of the given terms from a binary beta file.
+   *
+   * @param fs the file system of the binary beta file
+   * @param binaryBetaPath the binary beta file
+   * @param termIDs the terms to read in ascending order, without duplicates
+   * @return a store holding the rows of the given terms found in the binary beta file, and the
+   *         smoothing row if any
+   * @throws IOException
+   */
+  public static ShardedBetaStore load(FileSystem fs, Path binaryBetaPath, int[] termIDs)
+      throws IOException {
+    FSDataInputStream inputStream = null;
+    try {
+      inputStream = fs.open(binaryBetaPath);
+
+      byte[] header = new byte[MappedBetaStore.HEADER_SIZE];
+      inputStream.readFully(0, header);
+      int[] dimensions = MappedBetaStore.readHeader(ByteBuffer.wrap(header),
+          binaryBetaPath.toString());
+      int numberOfTopics = dimensions[0];
+      int numberOfTerms = dimensions[1];
+      int precision = dimensions[2];
+      long bitmapOffset = MappedBetaStore.getBitmapOffset(numberOfTopics, precision);
+      long dataOffset = MappedBetaStore.getDataOffset(numberOfTopics, numberOfTerms, precision);
+
+      float[] quantization = null;
+      if (precision == MappedBetaStore.BYTE_PRECISION) {
+        byte[] quantizationBytes = new byte[(int) (bitmapOffset - MappedBetaStore.HEADER_SIZE)];
+        inputStream.readFully(MappedBetaStore.HEADER_SIZE, quantizationBytes);
+        quantization = MappedBetaStore.readQuantization(ByteBuffer.wrap(quantizationBytes),
+            numberOfTopics);
+      }
+
+      // terms beyond the vocabulary of the file are left out, and initialized as missing terms
+      int numberOfTermsInFile = termIDs.length;
+      while (numberOfTermsInFile > 0 && termIDs[numberOfTermsInFile - 1] > numberOfTerms) {
+        numberOfTermsInFile--;
+      }
+      // the smoothing row of term 0 is always held
+      int[] heldTermIDs = new int[numberOfTermsInFile + 1];
+      System.arraycopy(termIDs, 0, heldTermIDs, 1, numberOfTermsInFile);
+      if (numberOfTermsInFile > 0 && termIDs[0] == 0) {
+        heldTermIDs = Arrays.copyOfRange(heldTermIDs, 1, heldTermIDs.length);
+      }
+      int numberOfHeldTerms = heldTermIDs.length;
+
+      ShardedBetaStore store = new ShardedBetaStore(heldTermIDs);
+      store.initialize(numberOfTopics, numberOfTerms);
+
+      byte[] bitmap = new byte[(int) (dataOffset - bitmapOffset)];
+      inputStream.readFully(bitmapOffset, bitmap);
+      ByteBuffer bitmapBuffer = ByteBuffer.wrap(bitmap).order(ByteOrder.LITTLE_ENDIAN);
+
+      int rowSize = numberOfTopics * precision;
+      int rowsPerRead = Math.max(1, READ_BUFFER_SIZE / rowSize);
+      byte[] buffer = new byte[rowsPerRead * rowSize];
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+
+      int i = 0;
+      while (i < numberOfHeldTerms) {
+        // read a range of consecutive terms at once
+        int j = i + 1;
+        while (j < numberOfHeldTerms && j - i < rowsPerRead
+            && heldTermIDs[j] == heldTermIDs[j - 1] + 1) {
+          j++;
+        }
+        inputStream.readFully(dataOffset + (long) heldTermIDs[i] * rowSize, buffer, 0, (j - i)
+            * rowSize);
+
+        for (int k = i; k < j; k++) {
+          int termID = heldTermIDs[k];
+          if ((bitmapBuffer.getLong(8 * (termID >>> 6)) & (1L << termID)) == 0) {
+            // the row was never written in the binary beta file
+            continue;
+          }
+
+          // the row of a term is its position, hence no lookup is needed
+          int page = k >>> store.pageShift;
+          int cell = (k & store.pageMask) * numberOfTopics;
+          int index = (k - i) * numberOfTopics;
+          store.ensureAllocated(page);
+          for (int topicIndex = 0; topicIndex < numberOfTopics; topicIndex++) {
+            store.setCell(page, cell + topicIndex, MappedBetaStore.getCell(byteBuffer, index
+                + topicIndex, topicIndex, precision, quantization));
+          }
+          store.loaded.set(termID);
+        }
+        i = j;
+      }
+
+      return store;
+    } finally {
+      IOUtils.closeStream(inputStream);
+    }
+  }
+
+  protected int getNumberOfRows() {
+    // a store of no term still has a page
+    return Math.max(1, termIDs.length);
+  }
+
+  protected int getRowIndex(int termID) {
+    int row = Arrays.binarySearch(termIDs, termID);
+    return row < 0 ? -1 : row;
+  }
+}
@@ -0,0 +1,35 @@
+package cc.mrlda;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+
+/**
+ * Partition the map output on (topic, block of terms) rather than on the topic only, so that more
+ * reducers than topics receive data. The terms of a topic are striped over its blocks, i.e., term
+ * i falls into block i mod B, which balances the blocks even though the term indices are assigned
+ * in descending order of frequency. The alpha sufficient statistics of topic 0 all go to the first
+ * reducer, as in {@link TermPartitioner}, to which this partitioner reduces with a single block.
+ *
+ * A reducer hence holds a part of a topic only, and the normalizer of a topic is aggregated over
+ * the partial normalizers of its blocks after the job, see {@link TermReducer}.
+ *
+ * @author kzhai
+ */
+public class TermBlockPartitioner implements Partitioner<TopicTermKey, PhiWritable> {
+  private int numberOfTermBlocks = 1;
+
+  public int getPartition(TopicTermKey key, PhiWritable value, int numReduceTasks) {
+    if (key.getTopic() == 0) {
+      return 0;
+    }
+
+    long block = (long) (key.getTopic() - 1) * numberOfTermBlocks + key.getTerm()
+        % numberOfTermBlocks;
+    return (int) ((block + 1) % numReduceTasks);
+  }
+
+  public void configure(JobConf conf) {
+    numberOfTermBlocks = Math.max(1,
+        conf.getInt(Settings.PROPERTY_PREFIX + "model.reducer.term.blocks", 1));
+  }
+}
@@ -3,32 +3,40 @@ package cc.mrlda;
 import java.io.IOException;
 import java.util.Iterator;
 
-import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 
-import edu.umd.cloud9.io.pair.PairOfInts;
-import edu.umd.cloud9.math.LogMath;
-
 public class TermCombiner extends MapReduceBase implements
-    Reducer<PairOfInts, DoubleWritable, PairOfInts, DoubleWritable> {
-  private DoubleWritable outputValue = new DoubleWritable();
+    Reducer<TopicTermKey, PhiWritable, TopicTermKey, PhiWritable> {
+  private LogSumAccumulator logSumAccumulator = new LogSumAccumulator();
+  private boolean linearPhi = Settings.DEFAULT_LINEAR_PHI;
+
+  public void configure(JobConf conf) {
+    linearPhi = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi",
+        Settings.DEFAULT_LINEAR_PHI);
+  }
 
-  public void reduce(PairOfInts key, Iterator<DoubleWritable> values,
-      OutputCollector<PairOfInts, DoubleWritable> output, Reporter reporter) throws IOException {
-    double sum = values.next().get();
-    if (key.getLeftElement() <= 0) {
-      // this is not a phi value
+  public void reduce(TopicTermKey key, Iterator<PhiWritable> values,
+      OutputCollector<TopicTermKey, PhiWritable> output, Reporter reporter) throws IOException {
+    // the output value is of the same class, hence of the same precision, as the input values
+    PhiWritable outputValue = values.next();
+    double sum = outputValue.get();
+    if (key.getTopic() <= 0 || linearPhi) {
+      // this is not a phi value, or a phi value in linear scale
       while (values.hasNext()) {
         sum += values.next().get();
       }
     } else {
       // this is a phi value
+      logSumAccumulator.clear();
+      logSumAccumulator.add(sum);
       while (values.hasNext()) {
-        sum = LogMath.add(sum, values.next().get());
+        logSumAccumulator.add(values.next().get());
       }
+      sum = logSumAccumulator.getLogSum();
     }
     outputValue.set(sum);
     output.collect(key, outputValue);
@@ -1,8 +1,8 @@
 package cc.mrlda;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Set;
 
 import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileSystem;
@@ -24,29 +24,62 @@ import com.google.common.base.Preconditions;
 
 import edu.umd.cloud9.io.map.HMapIDW;
 import edu.umd.cloud9.io.pair.PairOfIntFloat;
-import edu.umd.cloud9.io.pair.PairOfInts;
 import edu.umd.cloud9.math.Gamma;
 import edu.umd.cloud9.math.LogMath;
-import edu.umd.cloud9.util.map.HMapIV;
 
+/**
+ * The reducer of the map output of a (topic, term) key, which receives a topic at a time and writes
+ * beta topic-major, as a row of unnormalized values per topic keyed by the normalizer of the topic.
+ * If the topics are split into blocks of terms over the reducers, see {@link TermBlockPartitioner},
+ * a reducer holds part of a topic only, hence its rows are keyed by NaN, and it emits the partial
+ * normalizers of its topics in log scale as a separate output, which the driver aggregates. A topic
+ * row is optionally streamed as a sequence of {@link BetaChunkWritable} rather than held at once.
+ */
 public class TermReducer extends MapReduceBase implements
-    Reducer<PairOfInts, DoubleWritable, IntWritable, DoubleWritable> {
+    Reducer<TopicTermKey, PhiWritable, IntWritable, DoubleWritable> {
   // boolean approximateBeta = false;
-  // boolean truncateBeta = false;
-  // int truncationSize = 10000;
-  // TreeMap<Double, Integer> treeMap = new TreeMap<Double, Integer>();
-  // Iterator<Entry<Double, Integer>> itr = null;
 
-  private static HMapIV<Set<Integer>> lambdaMap = null;
+  private static EtaWritable[] lambdaMap = null;
 
   private static boolean learning = Settings.LEARNING_MODE;
+  private static boolean fastGamma = Settings.DEFAULT_FAST_GAMMA;
+  private static boolean truncateBeta = false;
+  private static int truncationSize = Settings.DEFAULT_TRUNCATION_SIZE;
+  private static boolean termBlocks = false;
+  private static boolean linearPhi = Settings.DEFAULT_LINEAR_PHI;
+  private static int betaChunkSize = 0;
   // private static int numberOfTerms = 0;
 
   private int topicIndex = 0;
-  private double logNormalizeFactor = 0;
+
+  /**
+   * the phi values of the current key, and the normalizer of the current topic, in log scale
+   */
+  private LogSumAccumulator logPhiAccumulator = new LogSumAccumulator();
+  private LogSumAccumulator logNormalizeAccumulator = new LogSumAccumulator();
+
+  /**
+   * min-heap of the most likely terms of the current topic of a truncated beta, ordered by their
+   * lambda values in log scale
+   */
+  private double[] heapLogLambda = null;
+  private int[] heapTermIDs = null;
+  private int heapSize = 0;
+  /**
+   * the terms of the heap packed with their positions in the heap, to sort the heap by term
+   */
+  private long[] heapOrder = null;
+
+  /**
+   * total lambda value in log scale and number of the terms truncated from the current topic
+   */
+  private LogSumAccumulator logResidualAccumulator = new LogSumAccumulator();
+  private int numberOfResiduals = 0;
 
   private MultipleOutputs multipleOutputs;
   private OutputCollector<PairOfIntFloat, HMapIDW> outputBeta;
+  private OutputCollector<PairOfIntFloat, BetaChunkWritable> outputBetaChunk;
+  private OutputCollector<IntWritable, DoubleWritable> outputNormalizer;
   // private OutputCollector<PairOfIntFloat, ProbDist> outputBeta;
   // private OutputCollector<PairOfIntFloat, HashMap> outputBeta;
   // private OutputCollector<PairOfIntFloat, BloomMap> outputBeta;
@@ -60,13 +93,30 @@ public class TermReducer extends MapReduceBase implements
   // private BloomMap outputValue = null;
   // private ProbDist outputValue = null;
   private HMapIDW outputValue = null;
+  private BetaChunkWritable outputChunk = null;
 
   public void configure(JobConf conf) {
     multipleOutputs = new MultipleOutputs(conf);
 
     learning = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.train", Settings.LEARNING_MODE);
-
-    // truncateBeta = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.truncate.beta", false);
+    fastGamma = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.fast.gamma",
+        Settings.DEFAULT_FAST_GAMMA);
+
+    truncateBeta = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.truncate.beta", false);
+    truncationSize = conf.getInt(Settings.PROPERTY_PREFIX + "model.truncate.beta.size",
+        Settings.DEFAULT_TRUNCATION_SIZE);
+    linearPhi = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi",
+        Settings.DEFAULT_LINEAR_PHI);
+    termBlocks = conf.getInt(Settings.PROPERTY_PREFIX + "model.reducer.term.blocks", 0) > 0;
+    betaChunkSize = conf.getInt(Settings.PROPERTY_PREFIX + "model.beta.chunk.size", 0);
+    if (truncateBeta) {
+      heapLogLambda = new double[truncationSize];
+      heapTermIDs = new int[truncationSize];
+      heapOrder = new long[truncationSize];
+    }
+    if (betaChunkSize > 0) {
+      outputChunk = new BetaChunkWritable(betaChunkSize);
+    }
 
     // outputValue = new HashMap();
     outputValue = new HMapIDW();
@@ -81,6 +131,43 @@ public class TermReducer extends MapReduceBase implements
     boolean informedPrior = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.informed.prior",
         false);
 
+    lambdaMap = importLambda(conf);
+
+    Preconditions.checkArgument(informedPrior == (lambdaMap != null),
+        "Fail to initialize informed prior...");
+
+    // System.out.println("======================================================================");
+    // System.out.println("Available processors (cores): " +
+    // Runtime.getRuntime().availableProcessors());
+    // long maxMemory = Runtime.getRuntime().maxMemory();
+    // System.out.println("Maximum memory (bytes): " + (maxMemory == Long.MAX_VALUE ? "no limit" :
+    // maxMemory));
+    // System.out.println("Free memory (bytes): " + Runtime.getRuntime().freeMemory());
+    // System.out.println("Total memory (bytes): " + Runtime.getRuntime().totalMemory());
+    // System.out.println("======================================================================");
+  }
+
+  /**
+   * Replace the named outputs of this reducer, e.g., by outputs held in memory, must be called
+   * after {@link #configure(JobConf)}.
+   * 
+   * @param multipleOutputs the named outputs of beta and of the normalizers
+   */
+  void setMultipleOutputs(MultipleOutputs multipleOutputs) {
+    this.multipleOutputs = multipleOutputs;
+  }
+
+  /**
+   * Import the informed prior from the distributed cache, through the model cache.
+   * 
+   * @param conf configuration of this task
+   * @return the informed prior, or null if none is in the distributed cache
+   */
+  static EtaWritable[] importLambda(JobConf conf) {
+    // the prior of a previous task is kept in the model cache only, in case the JVM is reused
+    EtaWritable[] lambdaMap = null;
+    int iteration = conf.getInt(Settings.PROPERTY_PREFIX + "model.iteration", 0);
+
     Path[] inputFiles;
     SequenceFile.Reader sequenceFileReader = null;
 
@@ -89,17 +176,25 @@ public class TermReducer extends MapReduceBase implements
 
       if (inputFiles != null) {
         for (Path path : inputFiles) {
+          if (path.getName().startsWith(Settings.BETA)) {
+            continue;
+          }
+
           try {
             sequenceFileReader = new SequenceFile.Reader(FileSystem.getLocal(conf), path, conf);
 
             if (path.getName().startsWith(Settings.ALPHA)) {
               continue;
-            } else if (path.getName().startsWith(Settings.BETA)) {
-              continue;
             } else if (path.getName().startsWith(InformedPrior.ETA)) {
               Preconditions.checkArgument(lambdaMap == null,
                   "Lambda matrix was initialized already...");
-              lambdaMap = InformedPrior.importEta(sequenceFileReader);
+              String identity = ModelCache.getIdentity(FileSystem.getLocal(conf), path, iteration);
+              lambdaMap = (EtaWritable[]) ModelCache.get(InformedPrior.ETA, identity);
+              if (lambdaMap == null) {
+                ModelCache.remove(InformedPrior.ETA);
+                lambdaMap = InformedPrior.importEta(sequenceFileReader);
+                ModelCache.put(InformedPrior.ETA, identity, lambdaMap);
+              }
             } else {
               throw new IllegalArgumentException("Unexpected file in distributed cache: "
                   + path.getName());
@@ -117,33 +212,22 @@ public class TermReducer extends MapReduceBase implements
       ioe.printStackTrace();
     }
 
-    Preconditions.checkArgument(informedPrior == (lambdaMap != null),
-        "Fail to initialize informed prior...");
-
-    // System.out.println("======================================================================");
-    // System.out.println("Available processors (cores): " +
-    // Runtime.getRuntime().availableProcessors());
-    // long maxMemory = Runtime.getRuntime().maxMemory();
-    // System.out.println("Maximum memory (bytes): " + (maxMemory == Long.MAX_VALUE ? "no limit" :
-    // maxMemory));
-    // System.out.println("Free memory (bytes): " + Runtime.getRuntime().freeMemory());
-    // System.out.println("Total memory (bytes): " + Runtime.getRuntime().totalMemory());
-    // System.out.println("======================================================================");
+    return lambdaMap;
   }
 
-  public void reduce(PairOfInts key, Iterator<DoubleWritable> values,
+  public void reduce(TopicTermKey key, Iterator<PhiWritable> values,
       OutputCollector<IntWritable, DoubleWritable> output, Reporter reporter) throws IOException {
     // if this value is the sufficient statistics for alpha updating
-    if (key.getLeftElement() == 0) {
+    if (key.getTopic() == 0) {
       double sum = values.next().get();
       while (values.hasNext()) {
         sum += values.next().get();
       }
 
-      Preconditions.checkArgument(key.getRightElement() > 0,
+      Preconditions.checkArgument(key.getTerm() > 0,
           "Unexpected sequence order for alpha sufficient statistics: " + key.toString());
 
-      intWritable.set(key.getRightElement());
+      intWritable.set(key.getTerm());
       doubleWritable.set(sum);
       output.collect(intWritable, doubleWritable);
 
@@ -154,86 +238,202 @@ public class TermReducer extends MapReduceBase implements
     Preconditions.checkArgument(learning, "Invalid key from Mapper");
     reporter.incrCounter(ParameterCounter.TOTAL_TERMS, 1);
 
-    double logPhiValue = values.next().get();
-    while (values.hasNext()) {
-      logPhiValue = LogMath.add(logPhiValue, values.next().get());
+    double logPhiValue;
+    if (linearPhi) {
+      // the only logarithm of the phi values of a (topic, term) pair
+      double phiValue = 0;
+      while (values.hasNext()) {
+        phiValue += values.next().get();
+      }
+      logPhiValue = Math.log(phiValue);
+    } else {
+      logPhiAccumulator.clear();
+      while (values.hasNext()) {
+        logPhiAccumulator.add(values.next().get());
+      }
+      logPhiValue = logPhiAccumulator.getLogSum();
     }
 
     if (lambdaMap != null) {
-      logPhiValue = LogMath.add(
-          InformedPrior.getLogEta(key.getRightElement(), lambdaMap.get(topicIndex)), logPhiValue);
+      // the key may open a new topic, hence the prior is of the topic of the key
+      logPhiValue = LogMath.add(InformedPrior.getLogEta(key.getTerm(),
+          InformedPrior.getEta(lambdaMap, key.getTopic())), logPhiValue);
     } else {
       logPhiValue = LogMath.add(Settings.DEFAULT_LOG_ETA, logPhiValue);
     }
 
-    if (topicIndex != key.getLeftElement()) {
+    if (topicIndex != key.getTopic()) {
       if (topicIndex == 0) {
-        outputBeta = multipleOutputs.getCollector(Settings.BETA, Settings.BETA, reporter);
+        if (outputChunk != null) {
+          outputBetaChunk = multipleOutputs.getCollector(Settings.BETA, Settings.BETA, reporter);
+        } else {
+          outputBeta = multipleOutputs.getCollector(Settings.BETA, Settings.BETA, reporter);
+        }
+        if (termBlocks) {
+          outputNormalizer = multipleOutputs.getCollector(Settings.NORMALIZER,
+              Settings.NORMALIZER, reporter);
+        }
       } else {
-        outputKey.set(topicIndex, (float) Gamma.digamma(Math.exp(logNormalizeFactor)));
-
-        // if (truncateBeta) {
-        // itr = treeMap.entrySet().iterator();
-        // Entry<Double, Integer> temp = null;
-        // outputValue.clear();
-        // while (itr.hasNext()) {
-        // temp = itr.next();
-        // outputValue.put(temp.getValue(), temp.getKey());
-        // }
-        // }
-
-        outputBeta.collect(outputKey, outputValue);
+        collectTopic();
       }
 
-      topicIndex = key.getLeftElement();
-      logNormalizeFactor = logPhiValue;
-      // if (truncateBeta) {
-      // treeMap.clear();
-      // treeMap.put(phiValue, key.getRightElement());
-      // } else {
-      outputValue.clear();
-      outputValue.put(key.getRightElement(), Gamma.digamma(Math.exp(logPhiValue)));
-      // }
+      topicIndex = key.getTopic();
+      logNormalizeAccumulator.clear();
+    }
+    logNormalizeAccumulator.add(logPhiValue);
+
+    if (truncateBeta) {
+      if (offerTerm(key.getTerm(), logPhiValue)) {
+        reporter.incrCounter(ParameterCounter.TRUNCATED_BETA, 1);
+      }
+    } else if (outputChunk != null) {
+      // the terms of a topic arrive in ascending order
+      addEntry(key.getTerm(), digamma(Math.exp(logPhiValue)));
     } else {
-      // if (truncateBeta) {
-      // if (treeMap.size() >= truncationSize) {
-      // if (treeMap.firstKey() < phiValue) {
-      // normalizeFactor = Math.log(Math.exp(normalizeFactor) - Math.exp(treeMap.firstKey()));
-      // treeMap.remove(treeMap.firstKey());
-      //
-      // treeMap.put(phiValue, key.getRightElement());
-      // normalizeFactor = LogMath.add(normalizeFactor, phiValue);
-      // }
-      // } else {
-      // treeMap.put(phiValue, key.getRightElement());
-      // normalizeFactor = LogMath.add(normalizeFactor, phiValue);
-      // }
-      // } else {
-      logNormalizeFactor = LogMath.add(logNormalizeFactor, logPhiValue);
-      outputValue.put(key.getRightElement(), Gamma.digamma(Math.exp(logPhiValue)));
-      // }
+      outputValue.put(key.getTerm(), digamma(Math.exp(logPhiValue)));
     }
   }
 
   public void close() throws IOException {
-    // if (truncateBeta) {
-    // if (!treeMap.isEmpty()) {
-    // outputKey.set(topicIndex, (float) normalizeFactor);
-    // itr = treeMap.entrySet().iterator();
-    // Entry<Double, Integer> temp = null;
-    // outputValue.clear();
-    // while (itr.hasNext()) {
-    // temp = itr.next();
-    // outputValue.put(temp.getValue(), temp.getKey().floatValue());
-    // }
-    // outputBeta.collect(outputKey, outputValue);
-    // }
-    // } else {
-    if (!outputValue.isEmpty()) {
-      outputKey.set(topicIndex, (float) Gamma.digamma(Math.exp(logNormalizeFactor)));
-      outputBeta.collect(outputKey, outputValue);
+    if (topicIndex != 0) {
+      collectTopic();
     }
-    // }
     multipleOutputs.close();
   }
+
+  /**
+   * Keep a term in the heap of the current topic if it is among the most likely terms so far, the
+   * term it replaces, or the term itself otherwise, is added to the residual of the topic.
+   * 
+   * @return true if a term was truncated from the topic
+   */
+  private boolean offerTerm(int termID, double logLambda) {
+    if (heapSize < truncationSize) {
+      // sift up
+      int i = heapSize++;
+      while (i > 0 && heapLogLambda[(i - 1) >>> 1] > logLambda) {
+        heapLogLambda[i] = heapLogLambda[(i - 1) >>> 1];
+        heapTermIDs[i] = heapTermIDs[(i - 1) >>> 1];
+        i = (i - 1) >>> 1;
+      }
+      heapLogLambda[i] = logLambda;
+      heapTermIDs[i] = termID;
+      return false;
+    }
+
+    if (logLambda <= heapLogLambda[0]) {
+      addResidual(logLambda);
+      return true;
+    }
+    addResidual(heapLogLambda[0]);
+
+    // replace the least likely term, and sift down
+    int i = 0;
+    while (2 * i + 1 < heapSize) {
+      int child = 2 * i + 1;
+      if (child + 1 < heapSize && heapLogLambda[child + 1] < heapLogLambda[child]) {
+        child++;
+      }
+      if (heapLogLambda[child] >= logLambda) {
+        break;
+      }
+      heapLogLambda[i] = heapLogLambda[child];
+      heapTermIDs[i] = heapTermIDs[child];
+      i = child;
+    }
+    heapLogLambda[i] = logLambda;
+    heapTermIDs[i] = termID;
+    return true;
+  }
+
+  private void addResidual(double logLambda) {
+    logResidualAccumulator.add(logLambda);
+    numberOfResiduals++;
+  }
+
+  /**
+   * Emit the current topic of beta. The terms truncated from a topic are summarized by a residual
+   * entry of term 0, i.e., the digamma of their average lambda value, with which the mappers smooth
+   * the truncated terms. A chunked topic is closed by an empty trailer chunk keyed by the normalizer.
+   */
+  private void collectTopic() throws IOException {
+    double logNormalizeFactor = logNormalizeAccumulator.getLogSum();
+
+    if (truncateBeta) {
+      double residual = Double.NaN;
+      if (numberOfResiduals > 0) {
+        residual = digamma(Math.exp(logResidualAccumulator.getLogSum()
+            - Math.log(numberOfResiduals)));
+      }
+
+      if (outputChunk != null) {
+        // the entries of a chunk are in ascending order of the terms, the residual entry first
+        if (numberOfResiduals > 0) {
+          addEntry(0, residual);
+        }
+        for (int i = 0; i < heapSize; i++) {
+          heapOrder[i] = ((long) heapTermIDs[i] << 32) | i;
+        }
+        Arrays.sort(heapOrder, 0, heapSize);
+        for (int i = 0; i < heapSize; i++) {
+          int index = (int) heapOrder[i];
+          addEntry(heapTermIDs[index], digamma(Math.exp(heapLogLambda[index])));
+        }
+      } else {
+        for (int i = 0; i < heapSize; i++) {
+          outputValue.put(heapTermIDs[i], digamma(Math.exp(heapLogLambda[i])));
+        }
+        if (numberOfResiduals > 0) {
+          outputValue.put(0, residual);
+        }
+      }
+      heapSize = 0;
+      logResidualAccumulator.clear();
+      numberOfResiduals = 0;
+    }
+
+    float normalizer = Float.NaN;
+    if (termBlocks) {
+      intWritable.set(topicIndex);
+      doubleWritable.set(logNormalizeFactor);
+      outputNormalizer.collect(intWritable, doubleWritable);
+    } else {
+      normalizer = (float) digamma(Math.exp(logNormalizeFactor));
+    }
+
+    if (outputChunk != null) {
+      if (outputChunk.size() > 0) {
+        collectChunk();
+      }
+      outputKey.set(topicIndex, normalizer);
+      outputBetaChunk.collect(outputKey, outputChunk);
+      outputChunk.setChunkIndex(0);
+    } else {
+      outputKey.set(topicIndex, normalizer);
+      outputBeta.collect(outputKey, outputValue);
+      outputValue.clear();
+    }
+  }
+
+  /**
+   * Add an entry to the current chunk of the current topic, which is emitted once full.
+   */
+  private void addEntry(int termID, double value) throws IOException {
+    outputChunk.add(termID, value);
+    if (outputChunk.size() >= betaChunkSize) {
+      collectChunk();
+    }
+  }
+
+  private void collectChunk() throws IOException {
+    // the normalizer of the topic is only known in the trailer
+    outputKey.set(topicIndex, Float.NaN);
+    outputBetaChunk.collect(outputKey, outputChunk);
+    outputChunk.setChunkIndex(outputChunk.getChunkIndex() + 1);
+    outputChunk.clear();
+  }
+
+  private static double digamma(double x) {
+    return fastGamma ? FastGamma.digamma(x) : Gamma.digamma(x);
+  }
 }
\ No newline at end of file
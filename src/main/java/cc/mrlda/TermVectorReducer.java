@@ -0,0 +1,143 @@
+package cc.mrlda;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+
+import cc.mrlda.VariationalInference.ParameterCounter;
+
+import com.google.common.base.Preconditions;
+
+import edu.umd.cloud9.math.Gamma;
+
+/**
+ * The reducer of the vector-valued map output, see {@link PhiVectorWritable}. Unlike
+ * {@link TermReducer}, which receives a topic at a time, this reducer receives a term at a time,
+ * hence beta is written term-major, as a row of K unnormalized values per term. The normalizer of
+ * a topic sums over all the terms, i.e., over all the reducers, hence every reducer emits its
+ * partial normalizers in log scale as a separate output, which the driver aggregates.
+ */
+public class TermVectorReducer extends MapReduceBase implements
+    Reducer<IntWritable, PhiVectorWritable, IntWritable, DoubleWritable> {
+  /**
+   * name of the file of the normalizers of all topics, next to the beta parts
+   */
+  public static final String NORMALIZER_FILE = Settings.BETA + Settings.DASH
+      + Settings.NORMALIZER;
+
+  private static EtaWritable[] lambdaMap = null;
+
+  private static boolean learning = Settings.LEARNING_MODE;
+  private static boolean fastGamma = Settings.DEFAULT_FAST_GAMMA;
+
+  private int numberOfTopics = 0;
+
+  /**
+   * partial normalizers of all topics in log scale, over the terms of this reducer
+   */
+  private double[] logNormalizeFactors = null;
+
+  private MultipleOutputs multipleOutputs;
+  private OutputCollector<IntWritable, PhiVectorWritable> outputBeta;
+  private OutputCollector<IntWritable, DoubleWritable> outputNormalizer;
+
+  private IntWritable intWritable = new IntWritable();
+  private DoubleWritable doubleWritable = new DoubleWritable();
+
+  private PhiVectorWritable outputValue = new PhiVectorWritable();
+
+  public void configure(JobConf conf) {
+    multipleOutputs = new MultipleOutputs(conf);
+
+    learning = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.train", Settings.LEARNING_MODE);
+    fastGamma = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.fast.gamma",
+        Settings.DEFAULT_FAST_GAMMA);
+
+    numberOfTopics = conf.getInt(Settings.PROPERTY_PREFIX + "model.topics", 0);
+    logNormalizeFactors = new double[numberOfTopics];
+    Arrays.fill(logNormalizeFactors, Double.NEGATIVE_INFINITY);
+
+    boolean informedPrior = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.informed.prior",
+        false);
+    lambdaMap = TermReducer.importLambda(conf);
+    Preconditions.checkArgument(informedPrior == (lambdaMap != null),
+        "Fail to initialize informed prior...");
+  }
+
+  public void reduce(IntWritable key, Iterator<PhiVectorWritable> values,
+      OutputCollector<IntWritable, DoubleWritable> output, Reporter reporter) throws IOException {
+    // the value object is reused by the iterator, hence copy it
+    outputValue.set(values.next());
+    double[] vector = outputValue.getValues();
+
+    // if this value is the sufficient statistics for alpha updating
+    if (key.get() == 0) {
+      while (values.hasNext()) {
+        outputValue.add(values.next());
+      }
+
+      for (int i = 0; i < numberOfTopics; i++) {
+        intWritable.set(i + 1);
+        doubleWritable.set(vector[i]);
+        output.collect(intWritable, doubleWritable);
+      }
+
+      return;
+    }
+
+    // I would be very surprised to get here...
+    Preconditions.checkArgument(learning, "Invalid key from Mapper");
+    Preconditions.checkArgument(outputValue.getNumberOfTopics() == numberOfTopics,
+        "Invalid phi vector for term " + key.get() + "...");
+    reporter.incrCounter(ParameterCounter.TOTAL_TERMS, numberOfTopics);
+
+    while (values.hasNext()) {
+      outputValue.logAdd(values.next());
+    }
+
+    for (int i = 0; i < numberOfTopics; i++) {
+      // topics dropped by the sparse phi emission receive the prior only
+      double logLambda;
+      if (lambdaMap != null) {
+        logLambda = PhiVectorWritable.logAdd(
+            InformedPrior.getLogEta(key.get(), InformedPrior.getEta(lambdaMap, i + 1)), vector[i]);
+      } else {
+        logLambda = PhiVectorWritable.logAdd(Settings.DEFAULT_LOG_ETA, vector[i]);
+      }
+
+      logNormalizeFactors[i] = PhiVectorWritable.logAdd(logNormalizeFactors[i], logLambda);
+      vector[i] = digamma(Math.exp(logLambda));
+    }
+
+    if (outputBeta == null) {
+      outputBeta = multipleOutputs.getCollector(Settings.BETA, Settings.BETA, reporter);
+      outputNormalizer = multipleOutputs.getCollector(Settings.NORMALIZER, Settings.NORMALIZER,
+          reporter);
+    }
+    outputBeta.collect(key, outputValue);
+  }
+
+  public void close() throws IOException {
+    if (outputNormalizer != null) {
+      for (int i = 0; i < numberOfTopics; i++) {
+        intWritable.set(i + 1);
+        doubleWritable.set(logNormalizeFactors[i]);
+        outputNormalizer.collect(intWritable, doubleWritable);
+      }
+    }
+    multipleOutputs.close();
+  }
+
+  private static double digamma(double x) {
+    return fastGamma ? FastGamma.digamma(x) : Gamma.digamma(x);
+  }
+}
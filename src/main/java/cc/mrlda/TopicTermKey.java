@@ -0,0 +1,194 @@
+package cc.mrlda;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The intermediate key of the mappers, i.e., a (language, topic, term) triple, where the language
+ * is always 0 in the mono-lingual pipeline. A key of topic 0 carries the alpha sufficient
+ * statistics, hence it sorts ahead of the phi values. The keys are sorted and grouped on their
+ * serialized bytes by the registered comparators, without deserialization, and the
+ * {@link Compact} key encodes the indices in a variable number of bytes.
+ *
+ * @author kzhai
+ */
+public class TopicTermKey implements WritableComparable<TopicTermKey> {
+  private int language = 0;
+  private int topic = 0;
+  private int term = 0;
+
+  public TopicTermKey() {
+  }
+
+  public TopicTermKey(int language, int topic, int term) {
+    set(language, topic, term);
+  }
+
+  /**
+   * @param compact encode the indices in a variable number of bytes
+   * @return a new key of the given encoding
+   */
+  public static TopicTermKey newInstance(boolean compact) {
+    return compact ? new Compact() : new TopicTermKey();
+  }
+
+  public void set(int language, int topic, int term) {
+    this.language = language;
+    this.topic = topic;
+    this.term = term;
+  }
+
+  /**
+   * Set a key of the mono-lingual pipeline.
+   */
+  public void set(int topic, int term) {
+    set(0, topic, term);
+  }
+
+  public int getLanguage() {
+    return language;
+  }
+
+  public int getTopic() {
+    return topic;
+  }
+
+  public int getTerm() {
+    return term;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(language);
+    out.writeInt(topic);
+    out.writeInt(term);
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    language = in.readInt();
+    topic = in.readInt();
+    term = in.readInt();
+  }
+
+  public int compareTo(TopicTermKey key) {
+    return compare(language, topic, term, key.language, key.topic, key.term);
+  }
+
+  public boolean equals(Object object) {
+    if (!(object instanceof TopicTermKey)) {
+      return false;
+    }
+    TopicTermKey key = (TopicTermKey) object;
+    return language == key.language && topic == key.topic && term == key.term;
+  }
+
+  public int hashCode() {
+    return (language * 31 + topic) * 31 + term;
+  }
+
+  public String toString() {
+    return "(" + language + ", " + topic + ", " + term + ")";
+  }
+
+  private static int compare(int language1, int topic1, int term1, int language2, int topic2,
+      int term2) {
+    if (language1 != language2) {
+      return language1 < language2 ? -1 : 1;
+    }
+    if (topic1 != topic2) {
+      return topic1 < topic2 ? -1 : 1;
+    }
+    if (term1 != term2) {
+      return term1 < term2 ? -1 : 1;
+    }
+    return 0;
+  }
+
+  /**
+   * Sort the keys on their serialized bytes, i.e., three fixed size integers.
+   */
+  public static class Comparator extends WritableComparator {
+    public Comparator() {
+      super(TopicTermKey.class);
+    }
+
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return TopicTermKey.compare(readInt(b1, s1), readInt(b1, s1 + 4), readInt(b1, s1 + 8),
+          readInt(b2, s2), readInt(b2, s2 + 4), readInt(b2, s2 + 8));
+    }
+  }
+
+  /**
+   * Group the values of a key on its serialized bytes. The encoding of a key is unique, hence two
+   * keys are equal if and only if their bytes are, whichever encoding they use, and the bytes need
+   * not be decoded.
+   */
+  public static class GroupingComparator extends WritableComparator {
+    public GroupingComparator() {
+      super(TopicTermKey.class);
+    }
+
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return compareBytes(b1, s1, l1, b2, s2, l2);
+    }
+  }
+
+  /**
+   * A {@link TopicTermKey} encoded as variable length integers, which takes 3 to 5 bytes rather
+   * than 12 for topics below 128 and terms below 65536.
+   */
+  public static class Compact extends TopicTermKey {
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, getLanguage());
+      WritableUtils.writeVInt(out, getTopic());
+      WritableUtils.writeVInt(out, getTerm());
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      int language = WritableUtils.readVInt(in);
+      int topic = WritableUtils.readVInt(in);
+      set(language, topic, WritableUtils.readVInt(in));
+    }
+
+    /**
+     * Sort the keys on their serialized bytes, i.e., three variable length integers.
+     */
+    public static class Comparator extends WritableComparator {
+      public Comparator() {
+        super(Compact.class);
+      }
+
+      public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        try {
+          int language1 = readVInt(b1, s1);
+          s1 += WritableUtils.decodeVIntSize(b1[s1]);
+          int topic1 = readVInt(b1, s1);
+          s1 += WritableUtils.decodeVIntSize(b1[s1]);
+          int term1 = readVInt(b1, s1);
+
+          int language2 = readVInt(b2, s2);
+          s2 += WritableUtils.decodeVIntSize(b2[s2]);
+          int topic2 = readVInt(b2, s2);
+          s2 += WritableUtils.decodeVIntSize(b2[s2]);
+          int term2 = readVInt(b2, s2);
+
+          return TopicTermKey.compare(language1, topic1, term1, language2, topic2, term2);
+        } catch (IOException ioe) {
+          throw new IllegalArgumentException(ioe);
+        }
+      }
+    }
+
+    static {
+      WritableComparator.define(Compact.class, new Comparator());
+    }
+  }
+
+  static {
+    WritableComparator.define(TopicTermKey.class, new Comparator());
+  }
+}
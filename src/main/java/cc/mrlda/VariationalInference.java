@@ -1,6 +1,7 @@
 package cc.mrlda;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
@@ -13,6 +14,7 @@ import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
@@ -22,6 +24,7 @@ import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.hadoop.mapred.lib.MultithreadedMapRunner;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
@@ -31,7 +34,6 @@ import com.google.common.base.Preconditions;
 import edu.umd.cloud9.io.FileMerger;
 import edu.umd.cloud9.io.map.HMapIDW;
 import edu.umd.cloud9.io.pair.PairOfIntFloat;
-import edu.umd.cloud9.io.pair.PairOfInts;
 import edu.umd.cloud9.math.Gamma;
 
 /**
@@ -44,8 +46,15 @@ public class VariationalInference extends Configured implements Tool {
 
   static enum ParameterCounter {
     TOTAL_DOCS, TOTAL_TERMS, LOG_LIKELIHOOD, CONFIG_TIME, TRAINING_TIME, DUMMY_COUNTER,
+    GAMMA_ITERATION, DROPPED_PHI, DROPPED_PHI_MASS, COMBINED_PHI, COMBINER_EVICTION, COMBINER_FLUSH,
+    MISSING_BETA, TRUNCATED_BETA, MISSING_GAMMA,
   }
 
+  /**
+   * Counter group recording a histogram of the number of gamma update iterations per document.
+   */
+  static final String GAMMA_ITERATION_HISTOGRAM = "Gamma Update Iterations";
+
   @SuppressWarnings("unchecked")
   public int run(String[] args) throws Exception {
     // Appender loggingAppender = new WriterAppender(new TTCCLayout(), new FileOutputStream(
@@ -76,6 +85,7 @@ public class VariationalInference extends Configured implements Tool {
     int numberOfIterations = variationalOptions.getNumberOfIterations();
     int mapperTasks = variationalOptions.getMapperTasks();
     int reducerTasks = variationalOptions.getReducerTasks();
+    int mapperThreads = variationalOptions.getMapperThreads();
     boolean localMerge = variationalOptions.isLocalMerge();
     boolean training = variationalOptions.isTraining();
     boolean randomStartGamma = variationalOptions.isRandomStartGamma();
@@ -87,6 +97,47 @@ public class VariationalInference extends Configured implements Tool {
     boolean symmetricAlpha = variationalOptions.isSymmetricAlpha();
 
     boolean truncateBeta = variationalOptions.isTruncateBeta();
+    int truncationSize = variationalOptions.getTruncationSize();
+    boolean binaryBeta = variationalOptions.isBinaryBeta();
+    boolean shardedBeta = variationalOptions.isShardedBeta();
+    boolean partBeta = variationalOptions.isPartBeta();
+    int betaPrecision = variationalOptions.getBetaPrecision();
+    boolean vectorEmit = variationalOptions.isVectorEmit();
+    boolean termBlocks = variationalOptions.isTermBlocks();
+    int numberOfTermBlocks = variationalOptions.getNumberOfTermBlocks();
+    if (termBlocks && numberOfTermBlocks == 0) {
+      // every reducer receives at least a block of a topic
+      numberOfTermBlocks = Math.max(1, (reducerTasks + numberOfTopics - 1) / numberOfTopics);
+    }
+    boolean chunkBeta = variationalOptions.isChunkBeta();
+    int betaChunkSize = variationalOptions.getBetaChunkSize();
+    // the rows of beta are either chunks or whole maps of a topic
+    Class<? extends Writable> betaValueClass = chunkBeta ? BetaChunkWritable.class : HMapIDW.class;
+
+    float gammaConvergeThreshold = configuration.getFloat(Settings.PROPERTY_PREFIX
+        + "model.mapper.converge.gamma", Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_THRESHOLD);
+    float likelihoodConvergeThreshold = configuration.getFloat(Settings.PROPERTY_PREFIX
+        + "model.mapper.converge.likelihood", Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_CRITERIA);
+    boolean fastGamma = configuration.getBoolean(Settings.PROPERTY_PREFIX + "model.fast.gamma",
+        Settings.DEFAULT_FAST_GAMMA);
+    float phiThreshold = configuration.getFloat(Settings.PROPERTY_PREFIX
+        + "model.mapper.phi.threshold", Settings.DEFAULT_PHI_THRESHOLD);
+    int phiTopN = configuration.getInt(Settings.PROPERTY_PREFIX + "model.mapper.phi.topn",
+        Settings.DEFAULT_PHI_TOP_N);
+    float combinerMemoryFraction = configuration.getFloat(Settings.PROPERTY_PREFIX
+        + "model.mapper.combiner.memory", Settings.DEFAULT_COMBINER_MEMORY_FRACTION);
+    int combinerOverflowTerms = configuration.getInt(Settings.PROPERTY_PREFIX
+        + "model.mapper.combiner.overflow", Settings.DEFAULT_COMBINER_OVERFLOW_TERMS);
+    boolean compactKey = configuration.getBoolean(Settings.PROPERTY_PREFIX + "model.compact.key",
+        Settings.DEFAULT_COMPACT_KEY);
+    boolean floatPhi = configuration.getBoolean(Settings.PROPERTY_PREFIX + "model.float.phi",
+        Settings.DEFAULT_FLOAT_PHI);
+    boolean linearPhi = configuration.getBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi",
+        Settings.DEFAULT_LINEAR_PHI);
+    if (linearPhi && vectorEmit) {
+      sLogger.info("Warning: linear phi ignored together with vector emit...");
+      linearPhi = false;
+    }
 
     sLogger.info("Tool: " + VariationalInference.class.getSimpleName());
     sLogger.info(" - input path: " + inputPath);
@@ -96,14 +147,40 @@ public class VariationalInference extends Configured implements Tool {
     sLogger.info(" - number of iterations: " + numberOfIterations);
     sLogger.info(" - number of mappers: " + mapperTasks);
     sLogger.info(" - number of reducers: " + reducerTasks);
+    sLogger.info(" - number of threads per mapper: " + mapperThreads);
     sLogger.info(" - local merge: " + localMerge);
     sLogger.info(" - training mode: " + training);
     sLogger.info(" - random start gamma: " + randomStartGamma);
     sLogger.info(" - resume training: " + resume);
     sLogger.info(" - direct emit from mapper: " + directEmit);
+    sLogger.info(" - vector emit from mapper: " + vectorEmit);
+    if (termBlocks) {
+      sLogger.info(" - blocks of terms per topic in reducers: " + numberOfTermBlocks);
+    }
+    sLogger.info(" - chunked beta: " + chunkBeta);
+    if (chunkBeta) {
+      sLogger.info(" - terms per chunk of chunked beta: " + betaChunkSize);
+    }
     sLogger.info(" - truncation beta: " + truncateBeta);
+    if (truncateBeta) {
+      sLogger.info(" - terms per topic in truncated beta: " + truncationSize);
+    }
+    sLogger.info(" - binary beta: " + binaryBeta);
+    sLogger.info(" - sharded beta: " + shardedBeta);
+    sLogger.info(" - beta in parts: " + partBeta);
+    sLogger.info(" - bits per beta value: " + betaPrecision);
     sLogger.info(" - informed prior: " + informedPrior);
     sLogger.info(" - symmetric alpha: " + symmetricAlpha);
+    sLogger.info(" - gamma converge threshold: " + gammaConvergeThreshold);
+    sLogger.info(" - likelihood converge threshold: " + likelihoodConvergeThreshold);
+    sLogger.info(" - fast gamma functions: " + fastGamma);
+    sLogger.info(" - phi emission threshold: " + phiThreshold);
+    sLogger.info(" - phi emission top topics: " + phiTopN);
+    sLogger.info(" - combiner heap fraction: " + combinerMemoryFraction);
+    sLogger.info(" - combiner overflow terms: " + combinerOverflowTerms);
+    sLogger.info(" - compact map output key: " + compactKey);
+    sLogger.info(" - single precision map output value: " + floatPhi);
+    sLogger.info(" - linear scale map output value: " + linearPhi);
 
     JobConf conf = new JobConf(configuration, VariationalInference.class);
     FileSystem fs = FileSystem.get(conf);
@@ -123,6 +200,18 @@ public class VariationalInference extends Configured implements Tool {
       FileUtil.copy(fs, eta, fs, informedPrior, false, conf);
     }
 
+    // the informed prior fills the cells missing from a binary beta, the way the mappers do
+    EtaWritable[] lambdaMap = null;
+    if (informedPrior != null && (binaryBeta || shardedBeta)) {
+      SequenceFile.Reader sequenceFileReader = null;
+      try {
+        sequenceFileReader = new SequenceFile.Reader(fs, informedPrior, conf);
+        lambdaMap = InformedPrior.importEta(sequenceFileReader);
+      } finally {
+        IOUtils.closeStream(sequenceFileReader);
+      }
+    }
+
     Path inputDir = new Path(inputPath);
     Path tempDir = new Path(outputPath + Settings.TEMP + FileMerger.generateRandomString());
 
@@ -133,8 +222,9 @@ public class VariationalInference extends Configured implements Tool {
     Path betaDir = null;
     Path gammaDir = null;
 
+    // the side files of gamma written by the mappers, the corpus itself is never rewritten
     Path documentGlobDir = new Path(tempDir.toString() + Path.SEPARATOR + Settings.GAMMA
-        + Settings.UNDER_SCORE + Settings.GAMMA + Settings.DASH + Settings.STAR);
+        + Settings.DASH + Settings.STAR);
 
     SequenceFile.Reader sequenceFileReader = null;
     SequenceFile.Writer sequenceFileWriter = null;
@@ -143,6 +233,8 @@ public class VariationalInference extends Configured implements Tool {
     String betaPath = outputPath + Settings.BETA + Settings.DASH;
     String betaGlobDir = tempDir.toString() + Path.SEPARATOR + Settings.BETA + Settings.UNDER_SCORE
         + Settings.BETA + Settings.DASH + Settings.STAR;
+    String normalizerGlobDir = tempDir.toString() + Path.SEPARATOR + Settings.NORMALIZER
+        + Settings.UNDER_SCORE + Settings.NORMALIZER + Settings.DASH + Settings.STAR;
 
     String alphaPath = outputPath + Settings.ALPHA + Settings.DASH;
     Path alphaSufficientStatisticsDir = new Path(tempDir.toString() + Path.SEPARATOR + "part-00000");
@@ -170,7 +262,12 @@ public class VariationalInference extends Configured implements Tool {
         alphaDir = new Path(alphaPath + snapshotIndex);
         betaDir = new Path(betaPath + snapshotIndex);
 
-        inputDir = new Path(outputPath + Settings.GAMMA + Settings.DASH + snapshotIndex);
+        gammaDir = new Path(outputPath + Settings.GAMMA + Settings.DASH + snapshotIndex);
+        if (!GammaStore.isSideStore(fs, conf, gammaDir)) {
+          // a snapshot written before the corpus was kept apart holds the documents with gamma
+          inputDir = gammaDir;
+          gammaDir = null;
+        }
       }
     }
 
@@ -190,7 +287,26 @@ public class VariationalInference extends Configured implements Tool {
 
       if (iterationCount != 0) {
         Preconditions.checkArgument(fs.exists(betaDir), "Missing model parameter beta...");
-        DistributedCache.addCacheFile(betaDir.toUri(), conf);
+        // mappers memory map the binary beta file rather than deserialize beta, if available
+        Path binaryBetaDir = new Path(betaDir.toString() + MappedBetaStore.SUFFIX);
+        boolean binaryBetaCurrent = isBinaryBetaCurrent(fs, conf, betaDir, binaryBetaDir,
+            numberOfTopics, numberOfTerms, betaPrecision);
+        if (shardedBeta) {
+          // mappers read the rows of their own terms from the binary beta file directly
+          if (!binaryBetaCurrent) {
+            // never written next to the beta of the model of a test, but to the output
+            binaryBetaDir = new Path(outputPath + betaDir.getName() + MappedBetaStore.SUFFIX);
+            exportBinaryBeta(fs, conf, betaDir, binaryBetaDir, numberOfTopics, numberOfTerms,
+                betaPrecision, lambdaMap);
+          }
+          conf.set(Settings.PROPERTY_PREFIX + "model.beta.sharded", binaryBetaDir.toString());
+        } else if (binaryBetaCurrent) {
+          DistributedCache.addCacheFile(binaryBetaDir.toUri(), conf);
+        } else {
+          for (Path betaPartDir : DocumentMapper.listBetaParts(fs, betaDir)) {
+            DistributedCache.addCacheFile(betaPartDir.toUri(), conf);
+          }
+        }
       }
       Preconditions.checkArgument(fs.exists(alphaDir), "Missing model parameter alpha...");
       DistributedCache.addCacheFile(alphaDir.toUri(), conf);
@@ -200,27 +316,61 @@ public class VariationalInference extends Configured implements Tool {
         DistributedCache.addCacheFile(informedPrior.toUri(), conf);
       }
 
-      // conf.setFloat(Settings.PROPERTY_PREFIX + "model.mapper.converge.gamma",
-      // Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_THRESHOLD);
-      // conf.setFloat(Settings.PROPERTY_PREFIX + "model.mapper.converge.likelihood",
-      // Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_CRITERIA);
+      conf.setFloat(Settings.PROPERTY_PREFIX + "model.mapper.converge.gamma",
+          gammaConvergeThreshold);
+      conf.setFloat(Settings.PROPERTY_PREFIX + "model.mapper.converge.likelihood",
+          likelihoodConvergeThreshold);
       conf.setInt(Settings.PROPERTY_PREFIX + "model.mapper.converge.iteration",
           Settings.MAXIMUM_LOCAL_ITERATION);
 
       conf.setInt(Settings.PROPERTY_PREFIX + "model.topics", numberOfTopics);
       conf.setInt(Settings.PROPERTY_PREFIX + "corpus.terms", numberOfTerms);
+      conf.setInt(Settings.PROPERTY_PREFIX + "model.iteration", iterationCount);
       conf.setBoolean(Settings.PROPERTY_PREFIX + "model.train", training);
       conf.setBoolean(Settings.PROPERTY_PREFIX + "model.random.start", randomStartGamma);
       conf.setBoolean(Settings.PROPERTY_PREFIX + "model.informed.prior", informedPrior != null);
       conf.setBoolean(Settings.PROPERTY_PREFIX + "model.mapper.direct.emit", directEmit);
+      conf.setBoolean(Settings.PROPERTY_PREFIX + "model.mapper.vector.emit", vectorEmit);
+      conf.setInt(Settings.PROPERTY_PREFIX + "model.reducer.term.blocks",
+          termBlocks ? numberOfTermBlocks : 0);
+      conf.setInt(Settings.PROPERTY_PREFIX + "model.beta.chunk.size", chunkBeta ? betaChunkSize
+          : 0);
       conf.setBoolean(Settings.PROPERTY_PREFIX + "model.truncate.beta", truncateBeta);
+      conf.setInt(Settings.PROPERTY_PREFIX + "model.truncate.beta.size", truncationSize);
+      conf.setBoolean(Settings.PROPERTY_PREFIX + "model.fast.gamma", fastGamma);
+      conf.setFloat(Settings.PROPERTY_PREFIX + "model.mapper.phi.threshold", phiThreshold);
+      conf.setInt(Settings.PROPERTY_PREFIX + "model.mapper.phi.topn", phiTopN);
+      conf.setFloat(Settings.PROPERTY_PREFIX + "model.mapper.combiner.memory",
+          combinerMemoryFraction);
+      conf.setInt(Settings.PROPERTY_PREFIX + "model.mapper.combiner.overflow",
+          combinerOverflowTerms);
+      conf.setBoolean(Settings.PROPERTY_PREFIX + "model.compact.key", compactKey);
+      conf.setBoolean(Settings.PROPERTY_PREFIX + "model.float.phi", floatPhi);
+      conf.setBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi", linearPhi);
+      if (betaPrecision == 32) {
+        conf.setClass(Settings.PROPERTY_PREFIX + "model.beta.store", FloatBetaStore.class,
+            BetaStore.class);
+      } else if (betaPrecision < 32) {
+        // beta is quantized in the binary beta file only
+        conf.setClass(Settings.PROPERTY_PREFIX + "model.beta.store", HalfBetaStore.class,
+            BetaStore.class);
+      }
 
       conf.setNumMapTasks(mapperTasks);
       conf.setNumReduceTasks(reducerTasks);
 
-      if (training) {
+      if (training && vectorEmit) {
+        MultipleOutputs.addMultiNamedOutput(conf, Settings.BETA, SequenceFileOutputFormat.class,
+            IntWritable.class, PhiVectorWritable.class);
+        MultipleOutputs.addMultiNamedOutput(conf, Settings.NORMALIZER,
+            SequenceFileOutputFormat.class, IntWritable.class, DoubleWritable.class);
+      } else if (training) {
         MultipleOutputs.addMultiNamedOutput(conf, Settings.BETA, SequenceFileOutputFormat.class,
-            PairOfIntFloat.class, HMapIDW.class);
+            PairOfIntFloat.class, betaValueClass);
+        if (termBlocks) {
+          MultipleOutputs.addMultiNamedOutput(conf, Settings.NORMALIZER,
+              SequenceFileOutputFormat.class, IntWritable.class, DoubleWritable.class);
+        }
         // MultipleOutputs.addMultiNamedOutput(conf, Settings.BETA, SequenceFileOutputFormat.class,
         // PairOfIntFloat.class, ProbDist.class);
         // MultipleOutputs.addMultiNamedOutput(conf, Settings.BETA, SequenceFileOutputFormat.class,
@@ -229,18 +379,33 @@ public class VariationalInference extends Configured implements Tool {
         // PairOfIntFloat.class, BloomMap.class);
       }
 
-      if (!randomStartGamma || !training) {
-        MultipleOutputs.addMultiNamedOutput(conf, Settings.GAMMA, SequenceFileOutputFormat.class,
-            IntWritable.class, Document.class);
+      if (gammaDir != null) {
+        conf.set(Settings.PROPERTY_PREFIX + "model.gamma.dir", gammaDir.toString());
       }
 
       conf.setMapperClass(DocumentMapper.class);
-      conf.setReducerClass(TermReducer.class);
-      conf.setCombinerClass(TermCombiner.class);
-      conf.setPartitionerClass(TermPartitioner.class);
+      if (mapperThreads > 1) {
+        // all threads of a mapper share one copy of beta and alpha
+        conf.setMapRunnerClass(MultithreadedMapRunner.class);
+        conf.setInt("mapred.map.multithreadedrunner.threads", mapperThreads);
+      }
+      if (vectorEmit) {
+        // the terms are spread over the reducers by the default hash partitioner
+        conf.setReducerClass(TermVectorReducer.class);
+        conf.setCombinerClass(PhiVectorCombiner.class);
 
-      conf.setMapOutputKeyClass(PairOfInts.class);
-      conf.setMapOutputValueClass(DoubleWritable.class);
+        conf.setMapOutputKeyClass(IntWritable.class);
+        conf.setMapOutputValueClass(PhiVectorWritable.class);
+      } else {
+        conf.setReducerClass(TermReducer.class);
+        conf.setCombinerClass(TermCombiner.class);
+        conf.setPartitionerClass(termBlocks ? TermBlockPartitioner.class : TermPartitioner.class);
+
+        // the keys are sorted and grouped on their bytes by the comparators registered by the key
+        conf.setMapOutputKeyClass(compactKey ? TopicTermKey.Compact.class : TopicTermKey.class);
+        conf.setMapOutputValueClass(floatPhi ? FloatPhiWritable.class : PhiWritable.class);
+        conf.setOutputValueGroupingComparator(TopicTermKey.GroupingComparator.class);
+      }
       conf.setOutputKeyClass(IntWritable.class);
       conf.setOutputValueClass(DoubleWritable.class);
 
@@ -264,7 +429,15 @@ public class VariationalInference extends Configured implements Tool {
 
         numberOfDocuments = (int) counters.findCounter(ParameterCounter.TOTAL_DOCS).getCounter();
         sLogger.info("Total number of documents is: " + numberOfDocuments);
-        numberOfTerms = (int) (counters.findCounter(ParameterCounter.TOTAL_TERMS).getCounter() / numberOfTopics);
+        int reducedTerms = (int) (counters.findCounter(ParameterCounter.TOTAL_TERMS).getCounter()
+            / numberOfTopics);
+        if (phiThreshold > 0 || phiTopN > 0) {
+          // sparse phi emission leaves some (topic, term) pairs out, hence never shrink the
+          // vocabulary
+          numberOfTerms = Math.max(numberOfTerms, reducedTerms);
+        } else {
+          numberOfTerms = reducedTerms;
+        }
         sLogger.info("Total number of terms is: " + numberOfTerms);
 
         double configurationTime = counters.findCounter(ParameterCounter.CONFIG_TIME).getCounter()
@@ -273,6 +446,38 @@ public class VariationalInference extends Configured implements Tool {
         double trainingTime = counters.findCounter(ParameterCounter.TRAINING_TIME).getCounter()
             * 1.0 / numberOfDocuments;
         sLogger.info("Average time elapsed for processing a document (ms): " + trainingTime);
+        double gammaIteration = counters.findCounter(ParameterCounter.GAMMA_ITERATION)
+            .getCounter() * 1.0 / numberOfDocuments;
+        sLogger.info("Average number of gamma update iterations per document: " + gammaIteration);
+        for (Counters.Counter counter : counters.getGroup(GAMMA_ITERATION_HISTOGRAM)) {
+          sLogger.info(" - documents took " + counter.getDisplayName() + " iterations: "
+              + counter.getCounter());
+        }
+        if (phiThreshold > 0 || phiTopN > 0) {
+          sLogger.info("Total number of phi entries dropped by sparse emission: "
+              + counters.findCounter(ParameterCounter.DROPPED_PHI).getCounter());
+          sLogger.info("Total phi mass dropped by sparse emission (tokens): "
+              + counters.findCounter(ParameterCounter.DROPPED_PHI_MASS).getCounter() * 1.0
+              / Settings.DEFAULT_COUNTER_SCALE);
+        }
+        sLogger.info("Total number of document terms initialized or smoothed for missing beta in "
+            + "mappers: " + counters.findCounter(ParameterCounter.MISSING_BETA).getCounter());
+        if (gammaDir != null) {
+          sLogger.info("Total number of documents initialized for missing gamma in mappers: "
+              + counters.findCounter(ParameterCounter.MISSING_GAMMA).getCounter());
+        }
+        if (truncateBeta) {
+          sLogger.info("Total number of beta entries truncated in reducers: "
+              + counters.findCounter(ParameterCounter.TRUNCATED_BETA).getCounter());
+        }
+        if (!directEmit) {
+          sLogger.info("Total number of phi entries combined in mappers: "
+              + counters.findCounter(ParameterCounter.COMBINED_PHI).getCounter());
+          sLogger.info("Total number of terms evicted from mapper combiners: "
+              + counters.findCounter(ParameterCounter.COMBINER_EVICTION).getCounter());
+          sLogger.info("Total number of mapper combiner flushes: "
+              + counters.findCounter(ParameterCounter.COMBINER_FLUSH).getCounter());
+        }
 
         // break out of the loop if in testing mode
         if (training) {
@@ -301,13 +506,13 @@ public class VariationalInference extends Configured implements Tool {
               }
               oldAlpha /= numberOfTopics;
               double newAlpha = updateScalarAlpha(numberOfTopics, numberOfDocuments, oldAlpha,
-                  totalAlphaSufficientStatistics);
+                  totalAlphaSufficientStatistics, fastGamma);
               for (int i = 0; i < numberOfTopics; i++) {
                 alphaVector[i] = newAlpha;
               }
             } else {
               alphaVector = updateVectorAlpha(numberOfTopics, numberOfDocuments, alphaVector,
-                  alphaSufficientStatistics);
+                  alphaSufficientStatistics, fastGamma);
             }
             sLogger.info("Successfully update new alpha vector.");
 
@@ -342,9 +547,23 @@ public class VariationalInference extends Configured implements Tool {
             // betaDir = FileMerger.mergeSequenceFiles(betaGlobDir, betaPath + (iterationCount + 1),
             // 0,
             // PairOfIntFloat.class, HashMap.class, true, true);
+          } else if (partBeta) {
+            // mappers import the parts concurrently, hence move them rather than merge them
+            betaDir = new Path(betaPath + (iterationCount + 1));
+            fs.mkdirs(betaDir);
+            FileStatus[] fileStatus = fs.globStatus(new Path(betaGlobDir));
+            for (FileStatus file : fileStatus) {
+              fs.rename(file.getPath(), new Path(betaDir, file.getPath().getName()));
+            }
+            sLogger.info("Successfully move " + fileStatus.length + " beta parts to directory "
+                + betaDir);
+
+            if (vectorEmit || termBlocks) {
+              exportNormalizers(fs, conf, normalizerGlobDir, betaDir, numberOfTopics);
+            }
           } else {
             betaDir = FileMerger.mergeSequenceFiles(new Configuration(), betaGlobDir, betaPath
-                + (iterationCount + 1), reducerTasks, PairOfIntFloat.class, HMapIDW.class, true,
+                + (iterationCount + 1), reducerTasks, PairOfIntFloat.class, betaValueClass, true,
                 true);
             // betaDir = FileMerger.mergeSequenceFiles(betaGlobDir, betaPath + (iterationCount + 1),
             // reducerTasks, PairOfIntFloat.class, ProbDist.class, true, true);
@@ -353,28 +572,33 @@ public class VariationalInference extends Configured implements Tool {
             // betaDir = FileMerger.mergeSequenceFiles(betaGlobDir, betaPath + (iterationCount + 1),
             // reducerTasks, PairOfIntFloat.class, HashMap.class, true, true);
           }
+
+          if (binaryBeta || shardedBeta) {
+            exportBinaryBeta(fs, conf, betaDir, new Path(betaDir.toString()
+                + MappedBetaStore.SUFFIX), numberOfTopics, numberOfTerms, betaPrecision, lambdaMap);
+          }
         }
         
-        // merge gamma (for alpha update) first and move document to the correct directory
+        // move the side files of gamma to the correct directory, the input stays the corpus
         if (!randomStartGamma || !training) {
-          gammaDir = inputDir;
-          inputDir = new Path(outputPath + Settings.GAMMA + Settings.DASH + (iterationCount + 1));
+          Path previousGammaDir = gammaDir;
+          gammaDir = new Path(outputPath + Settings.GAMMA + Settings.DASH + (iterationCount + 1));
 
           // TODO: technically, can rename the entire directory at this point of time, but found out
           // there are a lot of "part-*" files left-over, and set the outputformat to
           // NullOutputFormat does not resolve this problem, hence, need to rename them one-by-one.
 
-          // fs.rename(tempDir, inputDir);
-          fs.mkdirs(inputDir);
+          // fs.rename(tempDir, gammaDir);
+          fs.mkdirs(gammaDir);
           FileStatus[] fileStatus = fs.globStatus(documentGlobDir);
           for (FileStatus file : fileStatus) {
-            Path newPath = new Path(inputDir.toString() + Path.SEPARATOR + file.getPath().getName());
+            Path newPath = new Path(gammaDir, file.getPath().getName());
             fs.rename(file.getPath(), newPath);
           }
 
-          if (iterationCount != 0) {
-            // remove old gamma and document output
-            fs.delete(gammaDir, true);
+          if (previousGammaDir != null) {
+            // remove old gamma output, which never holds the corpus
+            fs.delete(previousGammaDir, true);
           }
         }
 
@@ -408,6 +632,23 @@ public class VariationalInference extends Configured implements Tool {
    */
   public static double[] updateVectorAlpha(int numberOfTopics, int numberOfDocuments,
       double[] alphaVector, double[] alphaSufficientStatistics) {
+    return updateVectorAlpha(numberOfTopics, numberOfDocuments, alphaVector,
+        alphaSufficientStatistics, false);
+  }
+
+  /**
+   * This method updates the hyper-parameter alpha vector of the topic Dirichlet prior, which is an
+   * asymmetric Dirichlet prior.
+   * 
+   * @param numberOfTopics the number of topics
+   * @param numberOfDocuments the number of documents in this corpus
+   * @param alphaVector the current alpha vector
+   * @param alphaSufficientStatistics the alpha sufficient statistics collected from the corpus
+   * @param fastGamma use {@link FastGamma} rather than {@link Gamma}
+   * @return
+   */
+  public static double[] updateVectorAlpha(int numberOfTopics, int numberOfDocuments,
+      double[] alphaVector, double[] alphaSufficientStatistics, boolean fastGamma) {
     double[] alphaVectorUpdate = new double[numberOfTopics];
     double[] alphaGradientVector = new double[numberOfTopics];
     double[] alphaHessianVector = new double[numberOfTopics];
@@ -431,11 +672,11 @@ public class VariationalInference extends Configured implements Tool {
         for (int i = 0; i < numberOfTopics; i++) {
           // compute alphaGradient
           alphaGradientVector[i] = numberOfDocuments
-              * (Gamma.digamma(alphaSum) - Gamma.digamma(alphaVector[i]))
+              * (digamma(alphaSum, fastGamma) - digamma(alphaVector[i], fastGamma))
               + alphaSufficientStatistics[i];
 
           // compute alphaHessian
-          alphaHessianVector[i] = -numberOfDocuments * Gamma.trigamma(alphaVector[i]);
+          alphaHessianVector[i] = -numberOfDocuments * trigamma(alphaVector[i], fastGamma);
 
           if (alphaGradientVector[i] == Double.POSITIVE_INFINITY
               || alphaGradientVector[i] == Double.NEGATIVE_INFINITY) {
@@ -446,7 +687,7 @@ public class VariationalInference extends Configured implements Tool {
           sum1_H += 1 / alphaHessianVector[i];
         }
 
-        double z = numberOfDocuments * Gamma.trigamma(alphaSum);
+        double z = numberOfDocuments * trigamma(alphaSum, fastGamma);
         double c = sumG_H / (1 / z + sum1_H);
 
         while (true) {
@@ -557,6 +798,136 @@ public class VariationalInference extends Configured implements Tool {
     }
   }
 
+  /**
+   * This method converts beta to a binary beta file, in the given precision, or in single
+   * precision if the mappers keep beta in a {@link FloatBetaStore} at 64 bits.
+   * 
+   * @param fs the file system of beta
+   * @param conf the job configuration
+   * @param betaDir a beta file, or a directory of beta part files
+   * @param binaryBetaDir the binary beta file to write
+   * @param numberOfTopics the number of topics
+   * @param numberOfTerms the number of terms
+   * @param betaPrecision bits per beta value, 64, 32, 16 or 8
+   * @param lambdaMap the informed prior indexed by topic, or null if the prior is not informed
+   * @throws IOException
+   */
+  private void exportBinaryBeta(FileSystem fs, JobConf conf, Path betaDir, Path binaryBetaDir,
+      int numberOfTopics, int numberOfTerms, int betaPrecision, EtaWritable[] lambdaMap)
+      throws IOException {
+    MappedBetaStore.exportBeta(fs, conf, DocumentMapper.listBetaParts(fs, betaDir),
+        binaryBetaDir, numberOfTopics, numberOfTerms, getBinaryBetaPrecision(conf, betaPrecision),
+        lambdaMap);
+    sLogger.info("Successfully export binary beta to file " + binaryBetaDir);
+  }
+
+  /**
+   * This method checks whether a binary beta file left by an earlier run can be reused, i.e., it
+   * is of the current dimension and precision, and was written after every part of beta.
+   * 
+   * @param fs the file system of beta
+   * @param conf the job configuration
+   * @param betaDir a beta file, or a directory of beta part files
+   * @param binaryBetaDir the binary beta file of beta
+   * @param numberOfTopics the number of topics
+   * @param numberOfTerms the number of terms
+   * @param betaPrecision bits per beta value, 64, 32, 16 or 8
+   * @return true if the binary beta file exists and can be reused
+   * @throws IOException
+   */
+  private boolean isBinaryBetaCurrent(FileSystem fs, JobConf conf, Path betaDir,
+      Path binaryBetaDir, int numberOfTopics, int numberOfTerms, int betaPrecision)
+      throws IOException {
+    if (!fs.exists(binaryBetaDir)
+        || !MappedBetaStore.matches(fs, binaryBetaDir, numberOfTopics, numberOfTerms,
+            getBinaryBetaPrecision(conf, betaPrecision))) {
+      return false;
+    }
+
+    long modificationTime = fs.getFileStatus(binaryBetaDir).getModificationTime();
+    for (Path betaPartDir : DocumentMapper.listBetaParts(fs, betaDir)) {
+      if (fs.getFileStatus(betaPartDir).getModificationTime() > modificationTime) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param conf the job configuration
+   * @param betaPrecision bits per beta value, 64, 32, 16 or 8
+   * @return precision in bytes of the binary beta file
+   */
+  private static int getBinaryBetaPrecision(JobConf conf, int betaPrecision) {
+    int precision = betaPrecision / 8;
+    if (precision == MappedBetaStore.DOUBLE_PRECISION
+        && FloatBetaStore.class.equals(conf.getClass(Settings.PROPERTY_PREFIX
+            + "model.beta.store", DoubleBetaStore.class, BetaStore.class))) {
+      precision = MappedBetaStore.SINGLE_PRECISION;
+    }
+    return precision;
+  }
+
+  /**
+   * This method sums up the partial normalizers of the topics written by every
+   * {@link TermVectorReducer}, or by every {@link TermReducer} of topics split into blocks of
+   * terms, and writes them next to the beta parts.
+   * 
+   * @param fs the file system of beta
+   * @param conf the job configuration
+   * @param normalizerGlobDir the partial normalizers of all the reducers
+   * @param betaDir the directory of beta part files
+   * @param numberOfTopics the number of topics
+   * @throws IOException
+   */
+  private void exportNormalizers(FileSystem fs, JobConf conf, String normalizerGlobDir,
+      Path betaDir, int numberOfTopics) throws IOException {
+    double[] logNormalizers = new double[numberOfTopics];
+    Arrays.fill(logNormalizers, Double.NEGATIVE_INFINITY);
+
+    SequenceFile.Reader sequenceFileReader = null;
+    SequenceFile.Writer sequenceFileWriter = null;
+    try {
+      IntWritable intWritable = new IntWritable();
+      DoubleWritable doubleWritable = new DoubleWritable();
+      for (FileStatus file : fs.globStatus(new Path(normalizerGlobDir))) {
+        IOUtils.closeStream(sequenceFileReader);
+        sequenceFileReader = new SequenceFile.Reader(fs, file.getPath(), conf);
+        while (sequenceFileReader.next(intWritable, doubleWritable)) {
+          Preconditions.checkArgument(intWritable.get() > 0 && intWritable.get() <= numberOfTopics,
+              "Invalid normalizer for topic " + intWritable.get() + "...");
+          logNormalizers[intWritable.get() - 1] = PhiVectorWritable.logAdd(
+              logNormalizers[intWritable.get() - 1], doubleWritable.get());
+        }
+      }
+
+      boolean fastGamma = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.fast.gamma",
+          Settings.DEFAULT_FAST_GAMMA);
+      for (int i = 0; i < numberOfTopics; i++) {
+        if (logNormalizers[i] == Double.NEGATIVE_INFINITY) {
+          // topic received no term at all
+          logNormalizers[i] = Double.NaN;
+        } else {
+          double normalizer = Math.exp(logNormalizers[i]);
+          logNormalizers[i] = fastGamma ? FastGamma.digamma(normalizer) : Gamma
+              .digamma(normalizer);
+        }
+      }
+
+      Path normalizerPath = new Path(betaDir, TermVectorReducer.NORMALIZER_FILE);
+      sequenceFileWriter = new SequenceFile.Writer(fs, conf, normalizerPath, IntWritable.class,
+          PhiVectorWritable.class);
+      intWritable.set(0);
+      PhiVectorWritable vector = new PhiVectorWritable();
+      vector.set(logNormalizers);
+      sequenceFileWriter.append(intWritable, vector);
+      sLogger.info("Successfully export beta normalizers to file " + normalizerPath);
+    } finally {
+      IOUtils.closeStream(sequenceFileReader);
+      IOUtils.closeStream(sequenceFileWriter);
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     int res = ToolRunner.run(new Configuration(), new VariationalInference(), args);
     System.exit(res);
@@ -572,6 +943,21 @@ public class VariationalInference extends Configured implements Tool {
    */
   public static double updateScalarAlpha(int numberOfTopics, int numberOfDocuments,
       double alphaInit, double alphaSufficientStatistics) {
+    return updateScalarAlpha(numberOfTopics, numberOfDocuments, alphaInit,
+        alphaSufficientStatistics, false);
+  }
+
+  /**
+   * @deprecated
+   * @param numberOfTopics
+   * @param numberOfDocuments
+   * @param alphaInit
+   * @param alphaSufficientStatistics
+   * @param fastGamma use {@link FastGamma} rather than {@link Gamma}
+   * @return
+   */
+  public static double updateScalarAlpha(int numberOfTopics, int numberOfDocuments,
+      double alphaInit, double alphaSufficientStatistics, boolean fastGamma) {
     int alphaUpdateIterationCount = 0;
     double alphaGradient = 0;
     double alphaHessian = 0;
@@ -594,13 +980,13 @@ public class VariationalInference extends Configured implements Tool {
 
         // compute alphaGradient
         alphaGradient = numberOfDocuments
-            * (numberOfTopics * Gamma.digamma(alphaSum) - numberOfTopics
-                * Gamma.digamma(alphaUpdate)) + alphaSufficientStatistics;
+            * (numberOfTopics * digamma(alphaSum, fastGamma) - numberOfTopics
+                * digamma(alphaUpdate, fastGamma)) + alphaSufficientStatistics;
 
         // compute alphaHessian
         alphaHessian = numberOfDocuments
-            * (numberOfTopics * numberOfTopics * Gamma.trigamma(alphaSum) - numberOfTopics
-                * Gamma.trigamma(alphaUpdate));
+            * (numberOfTopics * numberOfTopics * trigamma(alphaSum, fastGamma) - numberOfTopics
+                * trigamma(alphaUpdate, fastGamma));
 
         alphaUpdate = Math.exp(Math.log(alphaUpdate) - alphaGradient
             / (alphaHessian * alphaUpdate + alphaGradient));
@@ -623,4 +1009,12 @@ public class VariationalInference extends Configured implements Tool {
 
     return alphaUpdate;
   }
+
+  private static double digamma(double x, boolean fastGamma) {
+    return fastGamma ? FastGamma.digamma(x) : Gamma.digamma(x);
+  }
+
+  private static double trigamma(double x, boolean fastGamma) {
+    return fastGamma ? FastGamma.trigamma(x) : Gamma.trigamma(x);
+  }
 }
\ No newline at end of file
@@ -26,9 +26,26 @@ public class VariationalInferenceOptions {
   public static final DateFormat dateFormat = new SimpleDateFormat("yyMMdd-HHmmss-SS");
 
   public static final String TRUNCATE_BETA_OPTION = "truncatebeta";
+  public static final String BINARY_BETA_OPTION = "binarybeta";
+  public static final String PART_BETA_OPTION = "partbeta";
+  public static final String SHARDED_BETA_OPTION = "shardedbeta";
+  public static final String BETA_PRECISION_OPTION = "betaprecision";
+  public static final String VECTOR_EMIT_OPTION = "vectoremit";
+  public static final String TERM_BLOCKS_OPTION = "termblocks";
+  public static final String CHUNK_BETA_OPTION = "chunkbeta";
 
   private boolean directEmit = false;
   private boolean truncateBeta = false;
+  private int truncationSize = Settings.DEFAULT_TRUNCATION_SIZE;
+  private boolean binaryBeta = false;
+  private boolean partBeta = false;
+  private boolean shardedBeta = false;
+  private int betaPrecision = Settings.DEFAULT_BETA_PRECISION;
+  private boolean vectorEmit = false;
+  private boolean termBlocks = false;
+  private int numberOfTermBlocks = 0;
+  private boolean chunkBeta = false;
+  private int betaChunkSize = Settings.DEFAULT_BETA_CHUNK_SIZE;
 
   private String inputPath = null;
   private String outputPath = null;
@@ -40,6 +57,7 @@ public class VariationalInferenceOptions {
   private int numberOfIterations = Settings.DEFAULT_GLOBAL_MAXIMUM_ITERATION;
   private int mapperTasks = Settings.DEFAULT_NUMBER_OF_MAPPERS;
   private int reducerTasks = Settings.DEFAULT_NUMBER_OF_REDUCERS;
+  private int mapperThreads = Settings.DEFAULT_NUMBER_OF_MAPPER_THREADS;
 
   private int numberOfTerms = 0;
 
@@ -86,6 +104,13 @@ public class VariationalInferenceOptions {
         .withDescription(
             "number of reducers (default - " + Settings.DEFAULT_NUMBER_OF_REDUCERS + ")")
         .create(Settings.REDUCER_OPTION));
+    options.addOption(OptionBuilder
+        .withArgName(Settings.INTEGER_INDICATOR)
+        .hasArg()
+        .withDescription(
+            "number of threads per mapper, sharing one copy of the model (default - "
+                + Settings.DEFAULT_NUMBER_OF_MAPPER_THREADS + ")")
+        .create(Settings.MAPPER_THREAD_OPTION));
 
     options.addOption(OptionBuilder.withArgName(Settings.PATH_INDICATOR).hasArgs()
         .withDescription("run program in inference mode, i.e. test held-out likelihood")
@@ -106,19 +131,46 @@ public class VariationalInferenceOptions {
     options.addOption(Settings.DIRECT_EMIT, false,
         "disable in-mapper-combiner, enable this option if memory is limited");
 
-    // "minimum memory threshold is " + Settings.MEMORY_THRESHOLD + " bytes and up to top " +
-    // Settings.TOP_WORDS_FOR_CACHING + " frequent words"
-
-    // options.addOption(Settings.TRUNCATE_BETA_OPTION, false,
-    // "enable beta truncation of top 1000");
-
+    options.addOption(BINARY_BETA_OPTION, false,
+        "also write beta of every iteration as a binary file, which mappers memory map");
+    options.addOption(PART_BETA_OPTION, false,
+        "keep beta of every iteration as a directory of reducer outputs rather than merge them");
+    options.addOption(SHARDED_BETA_OPTION, false,
+        "mappers load beta of the terms in their input splits only, from the binary beta file");
     options.addOption(OptionBuilder
         .withArgName(Settings.INTEGER_INDICATOR)
         .hasArg()
         .withDescription(
-            "number of reducers (default - " + Settings.DEFAULT_NUMBER_OF_REDUCERS + ")")
+            "bits per beta value held by mappers, 64, 32, 16 or 8, i.e., quantized, implies "
+                + BINARY_BETA_OPTION + " below 64 (default - " + Settings.DEFAULT_BETA_PRECISION
+                + ")").create(BETA_PRECISION_OPTION));
+
+    options.addOption(OptionBuilder
+        .withArgName(Settings.INTEGER_INDICATOR)
+        .hasOptionalArg()
+        .withDescription(
+            "keep only the given number of most likely terms of every topic in beta, and smooth "
+                + "the others (default - " + Settings.DEFAULT_TRUNCATION_SIZE + ")")
         .create(TRUNCATE_BETA_OPTION));
 
+    options.addOption(VECTOR_EMIT_OPTION, false,
+        "emit one record of all topics per term from mappers, and keep beta term-major, implies "
+            + PART_BETA_OPTION);
+    options.addOption(OptionBuilder
+        .withArgName(Settings.INTEGER_INDICATOR)
+        .hasOptionalArg()
+        .withDescription(
+            "split every topic into the given number of blocks of terms over the reducers, so that "
+                + "more reducers than topics do work, implies " + PART_BETA_OPTION
+                + " (default - as many as fill the reducers)").create(TERM_BLOCKS_OPTION));
+    options.addOption(OptionBuilder
+        .withArgName(Settings.INTEGER_INDICATOR)
+        .hasOptionalArg()
+        .withDescription(
+            "stream every topic out of the reducers in chunks of the given number of terms, rather "
+                + "than hold the whole topic in memory (default - "
+                + Settings.DEFAULT_BETA_CHUNK_SIZE + ")").create(CHUNK_BETA_OPTION));
+
     CommandLineParser parser = new GnuParser();
     HelpFormatter formatter = new HelpFormatter();
     try {
@@ -198,14 +250,96 @@ public class VariationalInferenceOptions {
         directEmit = true;
       }
 
+      if (line.hasOption(BINARY_BETA_OPTION)) {
+        if (training) {
+          binaryBeta = true;
+        } else {
+          sLogger.info("Warning: " + BINARY_BETA_OPTION + " ignored in testing mode...");
+        }
+      }
+
+      if (line.hasOption(PART_BETA_OPTION)) {
+        if (training) {
+          partBeta = true;
+        } else {
+          sLogger.info("Warning: " + PART_BETA_OPTION + " ignored in testing mode...");
+        }
+      }
+
+      if (line.hasOption(SHARDED_BETA_OPTION)) {
+        shardedBeta = true;
+      }
+
+      if (line.hasOption(BETA_PRECISION_OPTION)) {
+        betaPrecision = Integer.parseInt(line.getOptionValue(BETA_PRECISION_OPTION));
+        Preconditions.checkArgument(betaPrecision == 64 || betaPrecision == 32
+            || betaPrecision == 16 || betaPrecision == 8, "Illegal settings for "
+            + BETA_PRECISION_OPTION + " option: must be 64, 32, 16 or 8...");
+        // the reducers write beta in double precision, it is only shipped in lower precision as a
+        // binary beta file
+        if (betaPrecision < 64 && training) {
+          binaryBeta = true;
+        }
+      }
+
       if (line.hasOption(TRUNCATE_BETA_OPTION)) {
         if (training) {
           truncateBeta = true;
+          if (line.getOptionValue(TRUNCATE_BETA_OPTION) != null) {
+            truncationSize = Integer.parseInt(line.getOptionValue(TRUNCATE_BETA_OPTION));
+          }
+          Preconditions.checkArgument(truncationSize > 0, "Illegal settings for "
+              + TRUNCATE_BETA_OPTION + " option: must be strictly positive...");
         } else {
           sLogger.info("Warning: " + TRUNCATE_BETA_OPTION + " ignored in testing mode...");
         }
       }
 
+      if (line.hasOption(VECTOR_EMIT_OPTION)) {
+        if (training) {
+          Preconditions.checkArgument(!truncateBeta, "Illegal settings for " + VECTOR_EMIT_OPTION
+              + " option: not supported together with " + TRUNCATE_BETA_OPTION + "...");
+          vectorEmit = true;
+          // the term-major parts are not merged
+          partBeta = true;
+        } else {
+          sLogger.info("Warning: " + VECTOR_EMIT_OPTION + " ignored in testing mode...");
+        }
+      }
+
+      if (line.hasOption(TERM_BLOCKS_OPTION)) {
+        if (training) {
+          Preconditions.checkArgument(!truncateBeta && !vectorEmit, "Illegal settings for "
+              + TERM_BLOCKS_OPTION + " option: not supported together with "
+              + TRUNCATE_BETA_OPTION + " or " + VECTOR_EMIT_OPTION + "...");
+          termBlocks = true;
+          if (line.getOptionValue(TERM_BLOCKS_OPTION) != null) {
+            numberOfTermBlocks = Integer.parseInt(line.getOptionValue(TERM_BLOCKS_OPTION));
+            Preconditions.checkArgument(numberOfTermBlocks > 0, "Illegal settings for "
+                + TERM_BLOCKS_OPTION + " option: must be strictly positive...");
+          }
+          // the blocks of a topic are only normalized when beta is imported
+          partBeta = true;
+        } else {
+          sLogger.info("Warning: " + TERM_BLOCKS_OPTION + " ignored in testing mode...");
+        }
+      }
+
+      if (line.hasOption(CHUNK_BETA_OPTION)) {
+        if (training) {
+          Preconditions.checkArgument(!vectorEmit, "Illegal settings for " + CHUNK_BETA_OPTION
+              + " option: not supported together with " + VECTOR_EMIT_OPTION + "...");
+          chunkBeta = true;
+          if (line.getOptionValue(CHUNK_BETA_OPTION) != null) {
+            betaChunkSize = Integer.parseInt(line.getOptionValue(CHUNK_BETA_OPTION));
+            Preconditions.checkArgument(betaChunkSize > 0, "Illegal settings for "
+                + CHUNK_BETA_OPTION + " option: must be strictly positive...");
+          }
+        } else {
+          sLogger.info("Warning: " + CHUNK_BETA_OPTION + " ignored in testing mode...");
+        }
+      }
+
       if (line.hasOption(Settings.TOPIC_OPTION)) {
         numberOfTopics = Integer.parseInt(line.getOptionValue(Settings.TOPIC_OPTION));
       } else {
@@ -246,6 +380,12 @@ public class VariationalInferenceOptions {
       Preconditions.checkArgument(mapperTasks > 0, "Illegal settings for " + Settings.MAPPER_OPTION
           + " option: must be strictly positive...");
 
+      if (line.hasOption(Settings.MAPPER_THREAD_OPTION)) {
+        mapperThreads = Integer.parseInt(line.getOptionValue(Settings.MAPPER_THREAD_OPTION));
+      }
+      Preconditions.checkArgument(mapperThreads > 0, "Illegal settings for "
+          + Settings.MAPPER_THREAD_OPTION + " option: must be strictly positive...");
+
       if (line.hasOption(Settings.REDUCER_OPTION)) {
         if (training) {
           reducerTasks = Integer.parseInt(line.getOptionValue(Settings.REDUCER_OPTION));
@@ -303,6 +443,52 @@ public class VariationalInferenceOptions {
     return truncateBeta;
   }
 
+  public int getTruncationSize() {
+    return truncationSize;
+  }
+
+  public boolean isBinaryBeta() {
+    return binaryBeta;
+  }
+
+  public boolean isPartBeta() {
+    return partBeta;
+  }
+
+  public boolean isShardedBeta() {
+    return shardedBeta;
+  }
+
+  public int getBetaPrecision() {
+    return betaPrecision;
+  }
+
+  public boolean isVectorEmit() {
+    return vectorEmit;
+  }
+
+  public boolean isTermBlocks() {
+    return termBlocks;
+  }
+
+  /**
+   * @return number of blocks of terms per topic, or 0 for as many as fill the reducers
+   */
+  public int getNumberOfTermBlocks() {
+    return numberOfTermBlocks;
+  }
+
+  public boolean isChunkBeta() {
+    return chunkBeta;
+  }
+
+  /**
+   * @return number of entries per chunk of a topic of a chunked beta
+   */
+  public int getBetaChunkSize() {
+    return betaChunkSize;
+  }
+
   public String getInputPath() {
     return inputPath;
   }
@@ -335,6 +521,10 @@ public class VariationalInferenceOptions {
     return reducerTasks;
   }
 
+  public int getMapperThreads() {
+    return mapperThreads;
+  }
+
   public int getNumberOfTerms() {
     return numberOfTerms;
   }
@@ -2,6 +2,7 @@ package cc.mrlda.polylda;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 
 import org.apache.hadoop.filecache.DistributedCache;
@@ -19,21 +20,23 @@ import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.lib.MultipleOutputs;
 
 import cc.mrlda.InformedPrior;
+import cc.mrlda.TopicTermKey;
 import cc.mrlda.polylda.VariationalInference.ParameterCounter;
 
 import com.google.common.base.Preconditions;
 
-import edu.umd.cloud9.io.triple.TripleOfInts;
 import edu.umd.cloud9.math.Gamma;
 import edu.umd.cloud9.util.map.HMapII;
 import edu.umd.cloud9.util.map.HMapIV;
 
 public class DocumentMapper extends MapReduceBase implements
-    Mapper<IntWritable, Document, TripleOfInts, DoubleWritable> {
+    Mapper<IntWritable, Document, TopicTermKey, DoubleWritable> {
   private long configurationTime = 0;
   private long trainingTime = 0;
 
   private static HMapIV<double[]>[] beta = null;
+  // terms missing from the loaded beta, whose rows were initialized into beta by this task
+  private static HashSet<Integer>[] missingTerms = null;
 
   private static double[] alpha = null;
   private static double likelihoodAlpha = 0;
@@ -46,8 +49,9 @@ public class DocumentMapper extends MapReduceBase implements
 
   private static boolean learning = Settings.LEARNING_MODE;
   private static boolean randomStartGamma = Settings.RANDOM_START_GAMMA;
+  private static boolean linearPhi = Settings.DEFAULT_LINEAR_PHI;
 
-  private TripleOfInts outputKey = new TripleOfInts();
+  private TopicTermKey outputKey = null;
   private DoubleWritable outputValue = new DoubleWritable();
 
   // boolean seededGamma = false;
@@ -73,6 +77,10 @@ public class DocumentMapper extends MapReduceBase implements
     numberOfTopics = conf.getInt(Settings.PROPERTY_PREFIX + "model.topics", 0);
     numberOfLanguages = conf.getInt(Settings.PROPERTY_PREFIX + "model.languages", 0);
     beta = new HMapIV[numberOfLanguages];
+    missingTerms = new HashSet[numberOfLanguages];
+    for (int languageIndex = 0; languageIndex < numberOfLanguages; languageIndex++) {
+      missingTerms[languageIndex] = new HashSet<Integer>();
+    }
 
     numberOfTerms = new int[numberOfLanguages];
     // language index starts from 1
@@ -86,6 +94,10 @@ public class DocumentMapper extends MapReduceBase implements
     learning = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.train", Settings.LEARNING_MODE);
     randomStartGamma = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.random.start",
         Settings.RANDOM_START_GAMMA);
+    outputKey = TopicTermKey.newInstance(conf.getBoolean(Settings.PROPERTY_PREFIX
+        + "model.compact.key", Settings.DEFAULT_COMPACT_KEY));
+    linearPhi = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi",
+        Settings.DEFAULT_LINEAR_PHI);
 
     multipleOutputs = new MultipleOutputs(conf);
 
@@ -184,7 +196,7 @@ public class DocumentMapper extends MapReduceBase implements
 
   @SuppressWarnings("deprecation")
   public void map(IntWritable key, Document value,
-      OutputCollector<TripleOfInts, DoubleWritable> output, Reporter reporter) throws IOException {
+      OutputCollector<TopicTermKey, DoubleWritable> output, Reporter reporter) throws IOException {
     reporter.incrCounter(ParameterCounter.CONFIG_TIME, configurationTime);
     reporter.incrCounter(ParameterCounter.TOTAL_DOC, 1);
     trainingTime = System.currentTimeMillis();
@@ -238,7 +250,14 @@ public class DocumentMapper extends MapReduceBase implements
             phiTable[languageIndex].put(termID, phi);
           }
 
-          // acquire the corresponding beta vector for this term
+          // acquire the corresponding beta vector for this term, a missing term is counted once
+          // per document it appears in, even after its initialized row is cached into beta
+          if (!beta[languageIndex].containsKey(termID)) {
+            missingTerms[languageIndex].add(termID);
+          }
+          if (gammaUpdateIterationCount == 1 && missingTerms[languageIndex].contains(termID)) {
+            reporter.incrCounter(ParameterCounter.MISSING_BETA, 1);
+          }
           tempBeta = cc.mrlda.DocumentMapper.retrieveBeta(numberOfTopics, beta[languageIndex],
               termID, numberOfTerms[languageIndex]);
 
@@ -288,7 +307,7 @@ public class DocumentMapper extends MapReduceBase implements
           for (int i = 0; i < numberOfTopics; i++) {
             // emit phi values.
             outputKey.set(languageIndex + 1, i + 1, termID);
-            outputValue.set(phi[i]);
+            outputValue.set(linearPhi ? Math.exp(phi[i]) : phi[i]);
             // System.out.println("phi\t" + outputKey + "\t" + outputValue);
             output.collect(outputKey, outputValue);
           }
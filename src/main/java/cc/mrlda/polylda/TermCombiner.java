@@ -5,37 +5,54 @@ import java.util.Iterator;
 
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 
-import com.google.common.base.Preconditions;
+import cc.mrlda.LogSumAccumulator;
+import cc.mrlda.TopicTermKey;
 
-import edu.umd.cloud9.io.triple.TripleOfInts;
-import edu.umd.cloud9.math.LogMath;
+import com.google.common.base.Preconditions;
 
 public class TermCombiner extends MapReduceBase implements
-    Reducer<TripleOfInts, DoubleWritable, TripleOfInts, DoubleWritable> {
+    Reducer<TopicTermKey, DoubleWritable, TopicTermKey, DoubleWritable> {
   private DoubleWritable outputValue = new DoubleWritable();
+  private LogSumAccumulator logSumAccumulator = new LogSumAccumulator();
+  private boolean linearPhi = Settings.DEFAULT_LINEAR_PHI;
 
-  public void reduce(TripleOfInts key, Iterator<DoubleWritable> values,
-      OutputCollector<TripleOfInts, DoubleWritable> output, Reporter reporter) throws IOException {
-    Preconditions.checkArgument(key.getLeftElement() >= 0, "Unexpected key pattern...");
+  public void configure(JobConf conf) {
+    linearPhi = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi",
+        Settings.DEFAULT_LINEAR_PHI);
+  }
+
+  public void reduce(TopicTermKey key, Iterator<DoubleWritable> values,
+      OutputCollector<TopicTermKey, DoubleWritable> output, Reporter reporter) throws IOException {
+    Preconditions.checkArgument(key.getLanguage() >= 0, "Unexpected key pattern...");
     double sum = values.next().get();
-    if (key.getLeftElement() == 0) {
-      Preconditions.checkArgument(key.getMiddleElement() > 0 && key.getRightElement() == 0,
+    if (key.getLanguage() == 0) {
+      Preconditions.checkArgument(key.getTopic() > 0 && key.getTerm() == 0,
           "Unexpected key pattern...");
       // this is a alpha sufficient statistics term
       while (values.hasNext()) {
         sum += values.next().get();
       }
     } else {
-      Preconditions.checkArgument(key.getMiddleElement() > 0 && key.getRightElement() > 0,
+      Preconditions.checkArgument(key.getTopic() > 0 && key.getTerm() > 0,
           "Unexpected key pattern...");
       // this is a phi value
-      while (values.hasNext()) {
-        sum = LogMath.add(sum, values.next().get());
+      if (linearPhi) {
+        while (values.hasNext()) {
+          sum += values.next().get();
+        }
+      } else {
+        logSumAccumulator.clear();
+        logSumAccumulator.add(sum);
+        while (values.hasNext()) {
+          logSumAccumulator.add(values.next().get());
+        }
+        sum = logSumAccumulator.getLogSum();
       }
     }
     outputValue.set(sum);
@@ -4,11 +4,11 @@ import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Partitioner;
 
-import edu.umd.cloud9.io.triple.TripleOfInts;
+import cc.mrlda.TopicTermKey;
 
-public class TermPartitioner implements Partitioner<TripleOfInts, DoubleWritable> {
-  public int getPartition(TripleOfInts key, DoubleWritable value, int numReduceTasks) {
-    return (key.getLeftElement() * key.getMiddleElement() & Integer.MAX_VALUE) % numReduceTasks;
+public class TermPartitioner implements Partitioner<TopicTermKey, DoubleWritable> {
+  public int getPartition(TopicTermKey key, DoubleWritable value, int numReduceTasks) {
+    return (key.getLanguage() * key.getTopic() & Integer.MAX_VALUE) % numReduceTasks;
   }
 
   public void configure(JobConf conf) {
@@ -12,21 +12,23 @@ import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.lib.MultipleOutputs;
 
+import cc.mrlda.LogSumAccumulator;
+import cc.mrlda.TopicTermKey;
+
 import com.google.common.base.Preconditions;
 
 import edu.umd.cloud9.io.map.HMapIDW;
 import edu.umd.cloud9.io.pair.PairOfIntFloat;
-import edu.umd.cloud9.io.triple.TripleOfInts;
 import edu.umd.cloud9.math.Gamma;
-import edu.umd.cloud9.math.LogMath;
 
 public class TermReducer extends MapReduceBase implements
-    Reducer<TripleOfInts, DoubleWritable, IntWritable, DoubleWritable> {
+    Reducer<TopicTermKey, DoubleWritable, IntWritable, DoubleWritable> {
   // private TripleOfIntsDouble outputKey = new TripleOfIntsDouble();
   private PairOfIntFloat outputKey = new PairOfIntFloat();
   private HMapIDW outputValue = new HMapIDW();
 
   private static boolean learning = Settings.LEARNING_MODE;
+  private static boolean linearPhi = Settings.DEFAULT_LINEAR_PHI;
   private MultipleOutputs multipleOutputs;
 
   private IntWritable intWritable = new IntWritable();
@@ -34,7 +36,12 @@ public class TermReducer extends MapReduceBase implements
 
   private int topicIndex = 0;
   private int languageIndex = 0;
-  private double normalizeFactor = 0;
+
+  /**
+   * the phi values of the current key, and the normalizer of the current topic, in log scale
+   */
+  private LogSumAccumulator logPhiAccumulator = new LogSumAccumulator();
+  private LogSumAccumulator normalizeAccumulator = new LogSumAccumulator();
 
   private OutputCollector<PairOfIntFloat, HMapIDW> outputBeta;
 
@@ -42,6 +49,8 @@ public class TermReducer extends MapReduceBase implements
     multipleOutputs = new MultipleOutputs(conf);
 
     learning = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.train", Settings.LEARNING_MODE);
+    linearPhi = conf.getBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi",
+        Settings.DEFAULT_LINEAR_PHI);
 
     // System.out.println("======================================================================");
     // System.out.println("Available processors (cores): " +
@@ -54,35 +63,46 @@ public class TermReducer extends MapReduceBase implements
     // System.out.println("======================================================================");
   }
 
-  public void reduce(TripleOfInts key, Iterator<DoubleWritable> values,
+  public void reduce(TopicTermKey key, Iterator<DoubleWritable> values,
       OutputCollector<IntWritable, DoubleWritable> output, Reporter reporter) throws IOException {
     Preconditions.checkArgument(learning, "Invalid key from Mapper...");
 
     // if this value is the sufficient statistics for alpha updating
-    if (key.getLeftElement() == 0) {
+    if (key.getLanguage() == 0) {
       double sum = values.next().get();
       while (values.hasNext()) {
         sum += values.next().get();
       }
 
-      Preconditions.checkArgument(key.getMiddleElement() > 0 && key.getRightElement() == 0,
+      Preconditions.checkArgument(key.getTopic() > 0 && key.getTerm() == 0,
           "Unexpected sequence order for alpha sufficient statistics: " + key.toString());
 
-      intWritable.set(key.getMiddleElement());
+      intWritable.set(key.getTopic());
       doubleWritable.set(sum);
       output.collect(intWritable, doubleWritable);
 
       return;
     }
 
-    double logPhiValue = values.next().get();
-    while (values.hasNext()) {
-      logPhiValue = LogMath.add(logPhiValue, values.next().get());
+    double logPhiValue;
+    if (linearPhi) {
+      // the only logarithm of the phi values of a (topic, term) pair
+      double phiValue = 0;
+      while (values.hasNext()) {
+        phiValue += values.next().get();
+      }
+      logPhiValue = Math.log(phiValue);
+    } else {
+      logPhiAccumulator.clear();
+      while (values.hasNext()) {
+        logPhiAccumulator.add(values.next().get());
+      }
+      logPhiValue = logPhiAccumulator.getLogSum();
     }
 
     // get the beta output for this language, language index starts from 1
-    if (languageIndex != key.getLeftElement()) {
-      languageIndex = key.getLeftElement();
+    if (languageIndex != key.getLanguage()) {
+      languageIndex = key.getLanguage();
       outputBeta = multipleOutputs.getCollector(Settings.BETA, Settings.LANGUAGE_INDICATOR
           + languageIndex, reporter);
     }
@@ -92,26 +112,29 @@ public class TermReducer extends MapReduceBase implements
         + languageIndex, 1);
 
     // topic index starts from 1
-    if (topicIndex != key.getMiddleElement()) {
+    if (topicIndex != key.getTopic()) {
       if (topicIndex != 0) {
-        outputKey.set(topicIndex, (float) Gamma.digamma(Math.exp(normalizeFactor)));
+        outputKey.set(topicIndex,
+            (float) Gamma.digamma(Math.exp(normalizeAccumulator.getLogSum())));
         outputBeta.collect(outputKey, outputValue);
       }
 
-      topicIndex = key.getMiddleElement();
-      normalizeFactor = logPhiValue;
+      topicIndex = key.getTopic();
+      normalizeAccumulator.clear();
+      normalizeAccumulator.add(logPhiValue);
 
       outputValue.clear();
-      outputValue.put(key.getRightElement(), Gamma.digamma(Math.exp(logPhiValue)));
+      outputValue.put(key.getTerm(), Gamma.digamma(Math.exp(logPhiValue)));
     } else {
-      normalizeFactor = LogMath.add(normalizeFactor, logPhiValue);
-      outputValue.put(key.getRightElement(), Gamma.digamma(Math.exp(logPhiValue)));
+      normalizeAccumulator.add(logPhiValue);
+      outputValue.put(key.getTerm(), Gamma.digamma(Math.exp(logPhiValue)));
     }
   }
 
   public void close() throws IOException {
     if (!outputValue.isEmpty()) {
-      outputKey.set(topicIndex, (float) Gamma.digamma(Math.exp(normalizeFactor)));
+      outputKey.set(topicIndex,
+          (float) Gamma.digamma(Math.exp(normalizeAccumulator.getLogSum())));
       outputBeta.collect(outputKey, outputValue);
     }
 
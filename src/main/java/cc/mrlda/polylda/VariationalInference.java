@@ -30,12 +30,13 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
 
+import cc.mrlda.TopicTermKey;
+
 import com.google.common.base.Preconditions;
 
 import edu.umd.cloud9.io.FileMerger;
 import edu.umd.cloud9.io.map.HMapIDW;
 import edu.umd.cloud9.io.pair.PairOfIntFloat;
-import edu.umd.cloud9.io.triple.TripleOfInts;
 
 /**
  * @author kzhai
@@ -45,7 +46,7 @@ public class VariationalInference extends Configured implements Tool {
   static final Logger sLogger = Logger.getLogger(VariationalInference.class);
 
   static enum ParameterCounter {
-    TOTAL_DOC, LOG_LIKELIHOOD, CONFIG_TIME, TRAINING_TIME, DUMMY_COUNTER,
+    TOTAL_DOC, LOG_LIKELIHOOD, CONFIG_TIME, TRAINING_TIME, DUMMY_COUNTER, MISSING_BETA,
   }
 
   @SuppressWarnings("unchecked")
@@ -314,6 +315,12 @@ public class VariationalInference extends Configured implements Tool {
     sLogger.info(" - training mode: " + training);
     sLogger.info(" - random start gamma: " + randomStartGamma);
     sLogger.info(" - resume training: " + resume);
+    boolean compactKey = configuration.getBoolean(Settings.PROPERTY_PREFIX + "model.compact.key",
+        Settings.DEFAULT_COMPACT_KEY);
+    sLogger.info(" - compact map output key: " + compactKey);
+    boolean linearPhi = configuration.getBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi",
+        Settings.DEFAULT_LINEAR_PHI);
+    sLogger.info(" - linear scale map output value: " + linearPhi);
     // sLogger.info(" - in-mapper-combiner: " + mapperCombiner);
     // sLogger.info(" - truncation beta: " + truncateBeta);
     // sLogger.info(" - informed prior: " + informedPrior);
@@ -447,6 +454,8 @@ public class VariationalInference extends Configured implements Tool {
       }
       conf.setBoolean(Settings.PROPERTY_PREFIX + "model.train", training);
       conf.setBoolean(Settings.PROPERTY_PREFIX + "model.random.start", randomStartGamma);
+      conf.setBoolean(Settings.PROPERTY_PREFIX + "model.compact.key", compactKey);
+      conf.setBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi", linearPhi);
       // conf.setBoolean(Settings.PROPERTY_PREFIX + "model.informed.prior", informedPrior != null);
       // conf.setBoolean(Settings.PROPERTY_PREFIX + "model.mapper.combiner", mapperCombiner);
       // conf.setBoolean(Settings.PROPERTY_PREFIX + "model.truncate.beta", truncateBeta
@@ -470,8 +479,10 @@ public class VariationalInference extends Configured implements Tool {
       conf.setCombinerClass(TermCombiner.class);
       conf.setPartitionerClass(TermPartitioner.class);
 
-      conf.setMapOutputKeyClass(TripleOfInts.class);
+      // the keys are sorted and grouped on their bytes by the comparators registered by the key
+      conf.setMapOutputKeyClass(compactKey ? TopicTermKey.Compact.class : TopicTermKey.class);
       conf.setMapOutputValueClass(DoubleWritable.class);
+      conf.setOutputValueGroupingComparator(TopicTermKey.GroupingComparator.class);
       conf.setOutputKeyClass(IntWritable.class);
       conf.setOutputValueClass(DoubleWritable.class);
 
@@ -495,6 +506,8 @@ public class VariationalInference extends Configured implements Tool {
 
         numberOfDocuments = (int) counters.findCounter(ParameterCounter.TOTAL_DOC).getCounter();
         sLogger.info("Total number of documents is: " + numberOfDocuments);
+        sLogger.info("Total number of document terms initialized for missing beta in mappers: "
+            + counters.findCounter(ParameterCounter.MISSING_BETA).getCounter());
 
         for (int languageIndex = 0; languageIndex < numberOfLanguages; languageIndex++) {
           numberOfTerms[languageIndex] = (int) (counters.findCounter(
@@ -0,0 +1,70 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class BetaChunkWritableTest {
+  private static void roundTrip(BetaChunkWritable chunk, BetaChunkWritable copy)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    chunk.write(new DataOutputStream(bytes));
+    copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Random random = new Random(1234567);
+    BetaChunkWritable chunk = new BetaChunkWritable();
+    // the copy is reused over chunks of different sizes
+    BetaChunkWritable copy = new BetaChunkWritable(4);
+    for (int numberOfEntries : new int[] { 0, 1, 100, 3, 1000, 0 }) {
+      chunk.clear();
+      chunk.setChunkIndex(numberOfEntries);
+      int termID = 0;
+      for (int i = 0; i < numberOfEntries; i++) {
+        termID += 1 + random.nextInt(random.nextBoolean() ? 10 : 100000);
+        chunk.add(termID, Math.log(random.nextDouble()));
+      }
+
+      roundTrip(chunk, copy);
+      assertEquals(numberOfEntries, copy.getChunkIndex());
+      assertEquals(numberOfEntries, copy.size());
+      for (int i = 0; i < numberOfEntries; i++) {
+        assertEquals(chunk.getTermID(i), copy.getTermID(i));
+        assertEquals(chunk.getValue(i), copy.getValue(i), 0);
+      }
+    }
+  }
+
+  @Test
+  public void testResidualTerm() throws IOException {
+    // the residual entry of a truncated topic is term 0, ahead of the kept terms
+    BetaChunkWritable chunk = new BetaChunkWritable();
+    chunk.add(0, -1);
+    chunk.add(7, Double.NEGATIVE_INFINITY);
+    chunk.add(Integer.MAX_VALUE, -2);
+
+    BetaChunkWritable copy = new BetaChunkWritable();
+    roundTrip(chunk, copy);
+    assertEquals(3, copy.size());
+    assertEquals(0, copy.getTermID(0));
+    assertEquals(-1, copy.getValue(0), 0);
+    assertEquals(7, copy.getTermID(1));
+    assertEquals(Double.NEGATIVE_INFINITY, copy.getValue(1), 0);
+    assertEquals(Integer.MAX_VALUE, copy.getTermID(2));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BetaChunkWritableTest.class);
+  }
+}
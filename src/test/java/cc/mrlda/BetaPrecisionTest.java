@@ -0,0 +1,192 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+import edu.umd.cloud9.math.Gamma;
+import edu.umd.cloud9.util.map.HMapII;
+
+/**
+ * Measures the drift of the log likelihood of an iteration, i.e., the E-step over a synthetic
+ * corpus, when beta is held in lower precision than double.
+ */
+public class BetaPrecisionTest {
+  public static final int NUMBER_OF_TOPICS = 20;
+  public static final int NUMBER_OF_TERMS = 5000;
+  public static final int NUMBER_OF_DOCUMENTS = 200;
+  public static final int NUMBER_OF_TOKENS = 100;
+  public static final double ALPHA = 0.1;
+
+  /**
+   * @return a synthetic beta in log scale as the mappers import it from {@link TermReducer}, i.e.,
+   *         digamma(phi + eta) - digamma(sum of phi + eta) over the terms of a topic, where a term
+   *         without any phi in a topic is filled with digamma(eta) minus the normalizer, and some
+   *         terms only get a near-zero phi
+   */
+  static double[][] getLogBeta() {
+    Random random = new Random(1234567);
+    double eta = Math.exp(Settings.DEFAULT_LOG_ETA);
+    double[][] logBeta = new double[NUMBER_OF_TOPICS][NUMBER_OF_TERMS];
+    double[] lambda = new double[NUMBER_OF_TERMS];
+    for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+      double sum = 0;
+      for (int j = 0; j < NUMBER_OF_TERMS; j++) {
+        double u = random.nextDouble();
+        if (u < 0.5) {
+          // the term received no phi in the topic, hence is missing from the reducer output
+          lambda[j] = Double.NaN;
+          continue;
+        }
+        // log-normal phi gives a heavy tail of rare terms, as in a real vocabulary
+        double phi = u < 0.6 ? 1e-10 * random.nextDouble() : Math.exp(3 * random.nextGaussian());
+        lambda[j] = phi + eta;
+        sum += lambda[j];
+      }
+
+      double logNormalizer = Gamma.digamma(sum);
+      for (int j = 0; j < NUMBER_OF_TERMS; j++) {
+        logBeta[i][j] = Gamma.digamma(Double.isNaN(lambda[j]) ? eta : lambda[j]) - logNormalizer;
+      }
+    }
+    return logBeta;
+  }
+
+  static HMapII[] getDocuments(double[][] logBeta) {
+    Random random = new Random(7654321);
+    double[][] cumulativeBeta = new double[NUMBER_OF_TOPICS][NUMBER_OF_TERMS];
+    for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+      double sum = 0;
+      for (int j = 0; j < NUMBER_OF_TERMS; j++) {
+        sum += Math.exp(logBeta[i][j]);
+        cumulativeBeta[i][j] = sum;
+      }
+    }
+
+    HMapII[] documents = new HMapII[NUMBER_OF_DOCUMENTS];
+    for (int d = 0; d < NUMBER_OF_DOCUMENTS; d++) {
+      // every document mixes a few topics
+      int[] topics = { random.nextInt(NUMBER_OF_TOPICS), random.nextInt(NUMBER_OF_TOPICS),
+          random.nextInt(NUMBER_OF_TOPICS) };
+      documents[d] = new HMapII();
+      for (int n = 0; n < NUMBER_OF_TOKENS; n++) {
+        double[] cumulative = cumulativeBeta[topics[random.nextInt(topics.length)]];
+        double u = random.nextDouble() * cumulative[NUMBER_OF_TERMS - 1];
+        int j = 0;
+        while (j < NUMBER_OF_TERMS - 1 && cumulative[j] < u) {
+          j++;
+        }
+        documents[d].increment(j + 1);
+      }
+    }
+    return documents;
+  }
+
+  static BetaStore fill(BetaStore store, double[][] logBeta) {
+    store.initialize(NUMBER_OF_TOPICS, NUMBER_OF_TERMS);
+    for (int j = 0; j < NUMBER_OF_TERMS; j++) {
+      for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+        store.set(j + 1, i, logBeta[i][j]);
+      }
+    }
+    return store;
+  }
+
+  /**
+   * @return the log likelihood of the corpus, computed as in {@link DocumentMapper}
+   */
+  private static double getLogLikelihood(BetaStore expectLogBeta, HMapII[] documents) {
+    DocumentInference inference = new DocumentInference(NUMBER_OF_TOPICS, NUMBER_OF_TERMS,
+        Settings.MAXIMUM_LOCAL_ITERATION, Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_THRESHOLD,
+        Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_CRITERIA, new LogSumExpPhiKernel(), true);
+
+    double[] alpha = new double[NUMBER_OF_TOPICS];
+    Arrays.fill(alpha, ALPHA);
+    double likelihoodAlpha = FastGamma.lngamma(ALPHA * NUMBER_OF_TOPICS) - NUMBER_OF_TOPICS
+        * FastGamma.lngamma(ALPHA);
+
+    double logLikelihood = 0;
+    double[] gamma = new double[NUMBER_OF_TOPICS];
+    for (HMapII document : documents) {
+      Arrays.fill(gamma, ALPHA + 1.0 * NUMBER_OF_TOKENS / NUMBER_OF_TOPICS);
+      inference.infer(document, gamma, expectLogBeta, alpha, Reporter.NULL);
+
+      double sumGamma = 0;
+      double likelihoodGamma = 0;
+      for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+        sumGamma += gamma[i];
+        likelihoodGamma += FastGamma.lngamma(gamma[i]);
+      }
+      likelihoodGamma -= FastGamma.lngamma(sumGamma);
+      logLikelihood += likelihoodAlpha + likelihoodGamma + inference.getLikelihoodPhi();
+    }
+    return logLikelihood;
+  }
+
+  private static double getDrift(BetaStore store) {
+    double[][] logBeta = getLogBeta();
+    HMapII[] documents = getDocuments(logBeta);
+    double baseline = getLogLikelihood(fill(new DoubleBetaStore(), logBeta), documents);
+    assertFalse(Double.isNaN(baseline) || Double.isInfinite(baseline));
+    double logLikelihood = getLogLikelihood(store, documents);
+    assertFalse(Double.isNaN(logLikelihood) || Double.isInfinite(logLikelihood));
+    return Math.abs((logLikelihood - baseline) / baseline);
+  }
+
+  @Test
+  public void testFloatDrift() {
+    assertTrue(getDrift(fill(new FloatBetaStore(), getLogBeta())) < 1e-7);
+  }
+
+  @Test
+  public void testHalfDrift() {
+    assertTrue(getDrift(fill(new HalfBetaStore(), getLogBeta())) < 1e-4);
+  }
+
+  @Test
+  public void testQuantizedDrift() throws IOException {
+    File file = File.createTempFile(Settings.BETA, MappedBetaStore.SUFFIX);
+    try {
+      MappedBetaStore.quantize(fill(new DoubleBetaStore(), getLogBeta()), file).close();
+      assertTrue(getDrift(MappedBetaStore.open(file)) < 1e-3);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testHalf() {
+    for (int i = 0; i < 0x10000; i++) {
+      double value = HalfBetaStore.toDouble((short) i);
+      if (!Double.isNaN(value)) {
+        assertEquals(i, HalfBetaStore.toHalf(value) & 0xffff);
+      }
+    }
+    assertTrue(Double.isNaN(HalfBetaStore.toDouble(HalfBetaStore.toHalf(Double.NaN))));
+    assertEquals(Double.NEGATIVE_INFINITY, HalfBetaStore.toDouble(HalfBetaStore.toHalf(-1e6)), 0);
+    // log beta is clamped to a finite floor rather than overflowing
+    assertEquals(HalfBetaStore.LOG_BETA_FLOOR,
+        HalfBetaStore.toDouble(HalfBetaStore.toHalfLogBeta(-1e12)), 0);
+    assertEquals(HalfBetaStore.LOG_BETA_FLOOR,
+        HalfBetaStore.toDouble(HalfBetaStore.toHalfLogBeta(Double.NEGATIVE_INFINITY)), 0);
+    assertEquals(-5.5, HalfBetaStore.toDouble(HalfBetaStore.toHalfLogBeta(-5.5)), 0);
+    assertTrue(Double.isNaN(HalfBetaStore.toDouble(HalfBetaStore.toHalfLogBeta(Double.NaN))));
+    // ties to even
+    assertEquals(2048, HalfBetaStore.toDouble(HalfBetaStore.toHalf(2049)), 0);
+    assertEquals(2052, HalfBetaStore.toDouble(HalfBetaStore.toHalf(2051)), 0);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BetaPrecisionTest.class);
+  }
+}
@@ -0,0 +1,56 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class EtaWritableTest {
+  @Test
+  public void testLogEta() throws IOException {
+    EtaWritable eta = new EtaWritable();
+    eta.add(3, InformedPrior.DEFAULT_INFORMED_LOG_ETA);
+    eta.add(70000, (float) Math.log(50));
+    eta.add(70001, 0);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    eta.write(new DataOutputStream(bytes));
+    EtaWritable copy = new EtaWritable();
+    copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(3, copy.size());
+    assertEquals(InformedPrior.DEFAULT_INFORMED_LOG_ETA, InformedPrior.getLogEta(3, copy), 0);
+    assertEquals((float) Math.log(50), InformedPrior.getLogEta(70000, copy), 0);
+    assertEquals(0, InformedPrior.getLogEta(70001, copy), 0);
+    for (int termID : new int[] { 0, 2, 4, 69999, 70002 }) {
+      assertEquals(InformedPrior.DEFAULT_UNINFORMED_LOG_ETA, InformedPrior.getLogEta(termID, copy),
+          0);
+    }
+    // a topic without informed prior
+    assertEquals(InformedPrior.DEFAULT_UNINFORMED_LOG_ETA, InformedPrior.getLogEta(3, null), 0);
+  }
+
+  @Test
+  public void testOrder() {
+    EtaWritable eta = new EtaWritable();
+    eta.add(5, 0);
+    try {
+      eta.add(5, 0);
+      fail("Terms out of order were accepted");
+    } catch (IllegalArgumentException iae) {
+      assertEquals(1, eta.size());
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(EtaWritableTest.class);
+  }
+}
@@ -0,0 +1,149 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import edu.umd.cloud9.math.Gamma;
+
+public class FastGammaTest {
+  public static double PRECISION_8 = 1e-8;
+
+  /**
+   * the error bounds documented by {@link FastGamma}
+   */
+  public static double DIGAMMA_PRECISION = 2e-11;
+  public static double TRIGAMMA_PRECISION = 1e-13;
+  public static double LNGAMMA_PRECISION = 2e-12;
+
+  /**
+   * the argument from which the reference functions use their asymptotic series, far enough for
+   * the series to be exact in double precision
+   */
+  private static double REFERENCE_THRESHOLD = 40;
+
+  private static double[] getArguments() {
+    Random random = new Random(1234567);
+    double[] arguments = new double[100000];
+    for (int i = 0; i < arguments.length; i++) {
+      switch (i % 3) {
+      case 0:
+        // the table range and around it
+        arguments[i] = 12 * random.nextDouble();
+        break;
+      case 1:
+        // small and large arguments spread over many orders of magnitude
+        arguments[i] = Math.exp(24 * random.nextDouble() - 12);
+        break;
+      default:
+        // the knots of the table
+        arguments[i] = 1 + random.nextInt(9 * 256) / 256.0;
+      }
+    }
+    return arguments;
+  }
+
+  private static void assertClose(double expected, double actual) {
+    assertClose(expected, actual, PRECISION_8);
+  }
+
+  /**
+   * Assert the error is below the precision, absolute where the expected value is below 1 in
+   * magnitude and relative elsewhere.
+   */
+  private static void assertClose(double expected, double actual, double precision) {
+    assertEquals(expected, actual, precision * Math.max(1, Math.abs(expected)));
+  }
+
+  /**
+   * digamma shifted by the recurrence far into the asymptotic series
+   */
+  private static double referenceDigamma(double x) {
+    double shift = 0;
+    while (x < REFERENCE_THRESHOLD) {
+      shift -= 1 / x;
+      x += 1;
+    }
+    double inverse2 = 1 / (x * x);
+    return shift + Math.log(x) - 0.5 / x - inverse2
+        * (1.0 / 12 - inverse2 * (1.0 / 120 - inverse2 * (1.0 / 252 - inverse2 / 240)));
+  }
+
+  /**
+   * trigamma shifted by the recurrence far into the asymptotic series
+   */
+  private static double referenceTrigamma(double x) {
+    double shift = 0;
+    while (x < REFERENCE_THRESHOLD) {
+      shift += 1 / (x * x);
+      x += 1;
+    }
+    double inverse = 1 / x;
+    double inverse2 = inverse * inverse;
+    return shift + inverse
+        * (1 + inverse * (0.5 + inverse * (1.0 / 6 - inverse2 * (1.0 / 30 - inverse2 / 42))));
+  }
+
+  /**
+   * lngamma shifted by the recurrence far into the Stirling series
+   */
+  private static double referenceLngamma(double x) {
+    double shift = 0;
+    while (x < REFERENCE_THRESHOLD) {
+      shift -= Math.log(x);
+      x += 1;
+    }
+    double inverse = 1 / x;
+    double inverse2 = inverse * inverse;
+    return shift + (x - 0.5) * Math.log(x) - x + 0.5 * Math.log(2 * Math.PI) + inverse
+        * (1.0 / 12 - inverse2 * (1.0 / 360 - inverse2 / 1260));
+  }
+
+  @Test
+  public void testDigamma() {
+    for (double x : getArguments()) {
+      assertClose(Gamma.digamma(x), FastGamma.digamma(x));
+      assertClose(referenceDigamma(x), FastGamma.digamma(x), DIGAMMA_PRECISION);
+    }
+  }
+
+  @Test
+  public void testTrigamma() {
+    for (double x : getArguments()) {
+      assertClose(Gamma.trigamma(x), FastGamma.trigamma(x));
+      assertClose(referenceTrigamma(x), FastGamma.trigamma(x), TRIGAMMA_PRECISION);
+    }
+  }
+
+  @Test
+  public void testLngamma() {
+    for (double x : getArguments()) {
+      assertClose(Gamma.lngamma(x), FastGamma.lngamma(x));
+      assertClose(referenceLngamma(x), FastGamma.lngamma(x), LNGAMMA_PRECISION);
+    }
+  }
+
+  @Test
+  public void testUpdateAlphaVector() {
+    double[] alphaVector = { 0.4736839726180464, 9.928726975283879, 8.319361678447014 };
+    double[] alphaSufficientStatistics = { -23792.9569126969113, -22519.9434073184025,
+        -23973.2360888324797 };
+    double[] alphaUpdateVector = VariationalInference.updateVectorAlpha(3, 112, alphaVector,
+        alphaSufficientStatistics, false);
+    double[] fastAlphaUpdateVector = VariationalInference.updateVectorAlpha(3, 112, alphaVector,
+        alphaSufficientStatistics, true);
+
+    assertEquals(alphaUpdateVector.length, fastAlphaUpdateVector.length);
+    for (int i = 0; i < alphaUpdateVector.length; i++) {
+      assertClose(alphaUpdateVector[i], fastAlphaUpdateVector[i]);
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FastGammaTest.class);
+  }
+}
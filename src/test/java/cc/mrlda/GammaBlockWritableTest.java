@@ -0,0 +1,48 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class GammaBlockWritableTest {
+  @Test
+  public void testGamma() throws IOException {
+    GammaBlockWritable block = new GammaBlockWritable(3);
+    // the documents of a multi-threaded mapper come out of order
+    block.add(70000, new double[] { 0.5, 1.25, 300 });
+    block.add(3, new double[] { 1, 2, 3 });
+    block.add(70001, new double[] { 0.1, 0.2, 0.3 });
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    block.write(new DataOutputStream(bytes));
+    GammaBlockWritable copy = new GammaBlockWritable();
+    copy.add(5, new double[0]);
+    copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(3, copy.getNumberOfTopics());
+    assertEquals(3, copy.size());
+    assertEquals(70000, copy.getDocumentID(0));
+    assertEquals(3, copy.getDocumentID(1));
+    assertEquals(70001, copy.getDocumentID(2));
+
+    double[] gamma = new double[3];
+    copy.getGamma(0, gamma);
+    assertEquals(0.5, gamma[0], 0);
+    assertEquals(1.25, gamma[1], 0);
+    assertEquals(300, gamma[2], 0);
+    copy.getGamma(2, gamma);
+    assertEquals((float) 0.2, gamma[1], 0);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GammaBlockWritableTest.class);
+  }
+}
@@ -0,0 +1,158 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.junit.Test;
+
+import edu.umd.cloud9.util.map.HMapII;
+
+public class GammaStoreTest {
+  private static Path createTempDir() throws IOException {
+    File file = File.createTempFile("gamma", "");
+    file.delete();
+    file.mkdirs();
+    file.deleteOnExit();
+    return new Path(file.getAbsolutePath());
+  }
+
+  private static void writeSideFile(FileSystem fs, Configuration conf, Path path,
+      GammaBlockWritable... blocks) throws IOException {
+    SequenceFile.Writer sequenceFileWriter = new SequenceFile.Writer(fs, conf, path,
+        IntWritable.class, GammaBlockWritable.class);
+    for (GammaBlockWritable block : blocks) {
+      sequenceFileWriter.append(new IntWritable(block.getDocumentID(0)), block);
+    }
+    sequenceFileWriter.close();
+  }
+
+  @Test
+  public void testUnsortedBlocks() throws IOException {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path gammaDir = createTempDir();
+
+    // every thread of a multi-threaded mapper fills its own block, in the order of its documents
+    GammaBlockWritable block1 = new GammaBlockWritable(2);
+    block1.add(7, new double[] { 7, 0.5 });
+    block1.add(2, new double[] { 2, 0.5 });
+    block1.add(9, new double[] { 9, 0.5 });
+    GammaBlockWritable block2 = new GammaBlockWritable(2);
+    block2.add(1, new double[] { 1, 0.25 });
+    block2.add(5, new double[] { 5, 0.25 });
+    // a block of a different number of topics is skipped
+    GammaBlockWritable block3 = new GammaBlockWritable(3);
+    block3.add(3, new double[] { 3, 3, 3 });
+    Path gammaPath = new Path(gammaDir, GammaStore.getSideFileName("part-00000", 0));
+    writeSideFile(fs, conf, gammaPath, block1, block2, block3);
+
+    List<Path> gammaPaths = GammaStore.listSideFiles(fs, gammaDir, "part-00000", 0);
+    GammaStore gammaStore = GammaStore.load(fs, conf, gammaPaths, 2);
+    assertEquals(5, gammaStore.size());
+
+    double[] gamma = new double[2];
+    for (int documentID : new int[] { 1, 2, 5, 7, 9 }) {
+      assertTrue(gammaStore.getGamma(documentID, gamma));
+      assertEquals(documentID, gamma[0], 0);
+      assertEquals(documentID % 2 == 1 && documentID < 7 ? 0.25 : 0.5, gamma[1], 0);
+    }
+
+    gamma[0] = -1;
+    assertFalse(gammaStore.getGamma(3, gamma));
+    assertFalse(gammaStore.getGamma(0, gamma));
+    assertFalse(gammaStore.getGamma(10, gamma));
+    assertEquals(-1, gamma[0], 0);
+
+    fs.delete(gammaDir, true);
+  }
+
+  @Test
+  public void testSplitFallback() throws IOException {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path gammaDir = createTempDir();
+
+    GammaBlockWritable block = new GammaBlockWritable(1);
+    block.add(0, new double[] { 1 });
+    writeSideFile(fs, conf, new Path(gammaDir, GammaStore.getSideFileName("input/part-00000",
+        0)), block);
+    block.clear();
+    block.add(1, new double[] { 2 });
+    writeSideFile(fs, conf, new Path(gammaDir, GammaStore.getSideFileName("input/part-00000",
+        1000)), block);
+    block.clear();
+    block.add(2, new double[] { 3 });
+    writeSideFile(fs, conf, new Path(gammaDir, GammaStore.getSideFileName("input/part-00001",
+        0)), block);
+
+    // the split has not changed, its own side file is loaded only
+    List<Path> gammaPaths = GammaStore.listSideFiles(fs, gammaDir, "input/part-00000", 1000);
+    assertEquals(1, gammaPaths.size());
+    assertEquals(GammaStore.getSideFileName("input/part-00000", 1000), gammaPaths.get(0)
+        .getName());
+
+    // the split starts elsewhere, all the side files of its input file are loaded
+    gammaPaths = GammaStore.listSideFiles(fs, gammaDir, "input/part-00000", 500);
+    assertEquals(2, gammaPaths.size());
+    GammaStore gammaStore = GammaStore.load(fs, conf, gammaPaths, 1);
+    assertEquals(2, gammaStore.size());
+    double[] gamma = new double[1];
+    assertTrue(gammaStore.getGamma(0, gamma));
+    assertEquals(1, gamma[0], 0);
+    assertTrue(gammaStore.getGamma(1, gamma));
+    assertEquals(2, gamma[0], 0);
+    assertFalse(gammaStore.getGamma(2, gamma));
+
+    assertEquals(3, GammaStore.listSideFiles(fs, gammaDir).size());
+    assertEquals(0, GammaStore.listSideFiles(fs, gammaDir, "input/part-00002", 0).size());
+
+    fs.delete(gammaDir, true);
+  }
+
+  @Test
+  public void testIsSideStore() throws IOException {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+
+    Path emptyDir = createTempDir();
+    assertTrue(GammaStore.isSideStore(fs, conf, emptyDir));
+    fs.delete(emptyDir, true);
+
+    Path gammaDir = createTempDir();
+    fs.createNewFile(new Path(gammaDir, "_SUCCESS"));
+    GammaBlockWritable block = new GammaBlockWritable(1);
+    block.add(0, new double[] { 1 });
+    writeSideFile(fs, conf, new Path(gammaDir, GammaStore.getSideFileName("part-00000", 0)),
+        block);
+    assertTrue(GammaStore.isSideStore(fs, conf, gammaDir));
+    fs.delete(gammaDir, true);
+
+    // a snapshot of the documents together with their gamma vectors
+    Path documentDir = createTempDir();
+    fs.createNewFile(new Path(documentDir, "_SUCCESS"));
+    HMapII content = new HMapII();
+    content.put(0, 2);
+    SequenceFile.Writer sequenceFileWriter = new SequenceFile.Writer(fs, conf, new Path(
+        documentDir, "part-00000"), IntWritable.class, Document.class);
+    sequenceFileWriter.append(new IntWritable(0), new Document(content, new double[] { 1 }));
+    sequenceFileWriter.close();
+    assertFalse(GammaStore.isSideStore(fs, conf, documentDir));
+    fs.delete(documentDir, true);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GammaStoreTest.class);
+  }
+}
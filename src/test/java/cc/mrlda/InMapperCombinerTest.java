@@ -0,0 +1,173 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+import edu.umd.cloud9.math.LogMath;
+
+public class InMapperCombinerTest {
+  public static final int NUMBER_OF_TOPICS = 3;
+  public static final int NUMBER_OF_TERMS = 8;
+  public static final int NUMBER_OF_HOT_TERMS = 2;
+  public static final int OVERFLOW_CAPACITY = 2;
+
+  /**
+   * Sums up the emitted phi values by topic and term in log scale, and keeps the emitted terms in
+   * order.
+   */
+  private static class PhiCollector implements OutputCollector<Writable, Writable> {
+    private double[][] logPhi = newLogPhi();
+    private List<Integer> termIDs = new ArrayList<Integer>();
+
+    public void collect(Writable key, Writable value) {
+      TopicTermKey topicTermKey = (TopicTermKey) key;
+      int termID = topicTermKey.getTerm();
+      logPhi[termID][topicTermKey.getTopic() - 1] = LogMath.add(
+          logPhi[termID][topicTermKey.getTopic() - 1], ((PhiWritable) value).get());
+      if (topicTermKey.getTopic() == 1) {
+        termIDs.add(termID);
+      }
+    }
+  }
+
+  private static double[][] newLogPhi() {
+    double[][] logPhi = new double[NUMBER_OF_TERMS + 1][NUMBER_OF_TOPICS];
+    for (double[] row : logPhi) {
+      Arrays.fill(row, Double.NEGATIVE_INFINITY);
+    }
+    return logPhi;
+  }
+
+  private static double[] getLogPhi(Random random) {
+    double[] logPhi = new double[NUMBER_OF_TOPICS];
+    for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+      logPhi[i] = random.nextGaussian();
+    }
+    return logPhi;
+  }
+
+  /**
+   * Accumulate random phi vectors of random terms, both through a combiner and as expected totals.
+   */
+  private static void add(InMapperCombiner combiner, double[][] expectedLogPhi, Random random,
+      int numberOfVectors, PhiEmitter emitter, PhiCollector output) throws IOException {
+    for (int n = 0; n < numberOfVectors; n++) {
+      int termID = 1 + random.nextInt(NUMBER_OF_TERMS);
+      double[] logPhi = getLogPhi(random);
+      for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+        expectedLogPhi[termID][i] = LogMath.add(expectedLogPhi[termID][i], logPhi[i]);
+      }
+      combiner.add(termID, logPhi, emitter, output, Reporter.NULL);
+      // the combiner does not retain the vector
+      Arrays.fill(logPhi, Double.NaN);
+    }
+  }
+
+  private static void assertLogPhi(double[][] expectedLogPhi, double[][] logPhi) {
+    for (int j = 0; j <= NUMBER_OF_TERMS; j++) {
+      for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+        assertEquals(expectedLogPhi[j][i], logPhi[j][i], 1e-10);
+      }
+    }
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    InMapperCombiner combiner = new InMapperCombiner(NUMBER_OF_TOPICS, NUMBER_OF_HOT_TERMS,
+        OVERFLOW_CAPACITY);
+    PhiEmitter emitter = new PhiEmitter(NUMBER_OF_TOPICS, 0, 0);
+    PhiCollector output = new PhiCollector();
+    Random random = new Random(1234567);
+
+    double[] logPhi3 = getLogPhi(random);
+    double[] logPhi4 = getLogPhi(random);
+    combiner.add(1, getLogPhi(random), emitter, output, Reporter.NULL);
+    combiner.add(3, logPhi3, emitter, output, Reporter.NULL);
+    combiner.add(4, logPhi4, emitter, output, Reporter.NULL);
+    combiner.add(3, logPhi3, emitter, output, Reporter.NULL);
+    assertTrue(output.termIDs.isEmpty());
+
+    // the overflow region is full, the least recently updated term is emitted
+    double[] logPhi5 = getLogPhi(random);
+    combiner.add(5, logPhi5, emitter, output, Reporter.NULL);
+    assertEquals(Arrays.asList(4), output.termIDs);
+    for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+      assertEquals(logPhi4[i], output.logPhi[4][i], 0);
+    }
+
+    combiner.add(6, getLogPhi(random), emitter, output, Reporter.NULL);
+    assertEquals(Arrays.asList(4, 3), output.termIDs);
+    for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+      assertEquals(LogMath.add(logPhi3[i], logPhi3[i]), output.logPhi[3][i], 1e-10);
+    }
+
+    // the vector of the evicted term is reused, and holds the new term only
+    output = new PhiCollector();
+    combiner.flush(emitter, output, Reporter.NULL);
+    assertEquals(Arrays.asList(1, 5, 6), output.termIDs);
+    for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+      assertEquals(logPhi5[i], output.logPhi[5][i], 0);
+    }
+  }
+
+  @Test
+  public void testFlush() throws IOException {
+    InMapperCombiner combiner = new InMapperCombiner(NUMBER_OF_TOPICS, NUMBER_OF_HOT_TERMS,
+        OVERFLOW_CAPACITY);
+    PhiEmitter emitter = new PhiEmitter(NUMBER_OF_TOPICS, 0, 0);
+    PhiCollector output = new PhiCollector();
+    double[][] expectedLogPhi = newLogPhi();
+    add(combiner, expectedLogPhi, new Random(1234567), 200, emitter, output);
+
+    // the hot terms are only emitted on flush
+    assertTrue(!output.termIDs.contains(1) && !output.termIDs.contains(2));
+    assertTrue(output.termIDs.size() > 0);
+    combiner.flush(emitter, output, Reporter.NULL);
+    assertLogPhi(expectedLogPhi, output.logPhi);
+
+    // a flush clears the combiner
+    output = new PhiCollector();
+    combiner.flush(emitter, output, Reporter.NULL);
+    assertTrue(output.termIDs.isEmpty());
+  }
+
+  @Test
+  public void testMerge() throws IOException {
+    InMapperCombiner combiner = new InMapperCombiner(NUMBER_OF_TOPICS, NUMBER_OF_HOT_TERMS,
+        OVERFLOW_CAPACITY);
+    InMapperCombiner threadCombiner = new InMapperCombiner(NUMBER_OF_TOPICS, NUMBER_OF_HOT_TERMS,
+        OVERFLOW_CAPACITY);
+    PhiEmitter emitter = new PhiEmitter(NUMBER_OF_TOPICS, 0, 0);
+    PhiCollector output = new PhiCollector();
+    double[][] expectedLogPhi = newLogPhi();
+    Random random = new Random(7654321);
+    add(combiner, expectedLogPhi, random, 100, emitter, output);
+    add(threadCombiner, expectedLogPhi, random, 100, emitter, output);
+
+    // the hot and overflow regions of the other combiner are accumulated, then cleared
+    combiner.merge(threadCombiner, emitter, output, Reporter.NULL);
+    PhiCollector threadOutput = new PhiCollector();
+    threadCombiner.flush(emitter, threadOutput, Reporter.NULL);
+    assertTrue(threadOutput.termIDs.isEmpty());
+
+    combiner.flush(emitter, output, Reporter.NULL);
+    assertLogPhi(expectedLogPhi, output.logPhi);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(InMapperCombinerTest.class);
+  }
+}
@@ -0,0 +1,60 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import edu.umd.cloud9.math.LogMath;
+
+public class LogSumAccumulatorTest {
+  @Test
+  public void testLogSum() {
+    Random random = new Random(1234567);
+    LogSumAccumulator accumulator = new LogSumAccumulator(16);
+    for (int numberOfValues : new int[] { 1, 2, 15, 16, 17, 100, 1000 }) {
+      accumulator.clear();
+      double expected = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < numberOfValues; i++) {
+        double logValue = random.nextInt(10) == 0 ? Double.NEGATIVE_INFINITY : random
+            .nextGaussian() * 20;
+        accumulator.add(logValue);
+        expected = LogMath.add(expected, logValue);
+      }
+      assertEquals(expected, accumulator.getLogSum(), 1e-10 * Math.max(1, Math.abs(expected)));
+    }
+  }
+
+  @Test
+  public void testSpecialValues() {
+    LogSumAccumulator accumulator = new LogSumAccumulator(4);
+    assertEquals(Double.NEGATIVE_INFINITY, accumulator.getLogSum(), 0);
+
+    for (int i = 0; i < 10; i++) {
+      accumulator.add(Double.NEGATIVE_INFINITY);
+    }
+    assertEquals(Double.NEGATIVE_INFINITY, accumulator.getLogSum(), 0);
+
+    accumulator.add(Double.NaN);
+    for (int i = 0; i < 10; i++) {
+      accumulator.add(i);
+    }
+    assertTrue(Double.isNaN(accumulator.getLogSum()));
+
+    // the accumulator is reusable
+    accumulator.clear();
+    accumulator.add(Math.log(2));
+    accumulator.add(Math.log(3));
+    assertEquals(Math.log(5), accumulator.getLogSum(), 1e-12);
+    accumulator.add(Math.log(5));
+    assertEquals(Math.log(10), accumulator.getLogSum(), 1e-12);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogSumAccumulatorTest.class);
+  }
+}
@@ -0,0 +1,157 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+import edu.umd.cloud9.math.LogMath;
+import edu.umd.cloud9.util.map.HMapII;
+
+/**
+ * Measures the error of lambda, computed from the map output of an iteration over a synthetic
+ * corpus, when the map output values are held in single rather than double precision, or in linear
+ * rather than log scale.
+ */
+public class PhiPrecisionTest {
+  /**
+   * Collects the map output records as the shuffle delivers them, i.e., serialized and deserialized
+   * again, and grouped by key.
+   */
+  private static class ShuffleCollector<K extends Writable, V extends Writable> implements
+      OutputCollector<K, V> {
+    private boolean floatPhi = false;
+    private TreeMap<TopicTermKey, List<PhiWritable>> records =
+        new TreeMap<TopicTermKey, List<PhiWritable>>();
+
+    private ShuffleCollector(boolean floatPhi) {
+      this.floatPhi = floatPhi;
+    }
+
+    public void collect(K key, V value) throws IOException {
+      TopicTermKey topicTermKey = new TopicTermKey();
+      copy(key, topicTermKey);
+      PhiWritable phiWritable = PhiWritable.newInstance(floatPhi);
+      copy(value, phiWritable);
+
+      if (!records.containsKey(topicTermKey)) {
+        records.put(topicTermKey, new ArrayList<PhiWritable>());
+      }
+      records.get(topicTermKey).add(phiWritable);
+    }
+
+    private static void copy(Writable from, Writable to) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      from.write(new DataOutputStream(bytes));
+      to.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+  }
+
+  /**
+   * @return lambda in log scale, computed from the output of {@link TermCombiner} as in
+   *         {@link TermReducer}, or NaN for the cells without phi mass
+   */
+  private static double[][] getLogLambda(boolean floatPhi, boolean linearPhi) throws IOException {
+    int numberOfTopics = BetaPrecisionTest.NUMBER_OF_TOPICS;
+    int numberOfTerms = BetaPrecisionTest.NUMBER_OF_TERMS;
+
+    double[][] logBeta = BetaPrecisionTest.getLogBeta();
+    HMapII[] documents = BetaPrecisionTest.getDocuments(logBeta);
+    BetaStore expectLogBeta = BetaPrecisionTest.fill(new DoubleBetaStore(), logBeta);
+
+    DocumentInference inference = new DocumentInference(numberOfTopics, numberOfTerms,
+        Settings.MAXIMUM_LOCAL_ITERATION, Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_THRESHOLD,
+        Settings.DEFAULT_GAMMA_UPDATE_CONVERGE_CRITERIA, new LogSumExpPhiKernel(), true);
+    PhiEmitter emitter = new PhiEmitter(numberOfTopics, 0, 0, false, linearPhi,
+        new TopicTermKey(), PhiWritable.newInstance(floatPhi));
+
+    double[] alpha = new double[numberOfTopics];
+    Arrays.fill(alpha, BetaPrecisionTest.ALPHA);
+    double[] gamma = new double[numberOfTopics];
+    ShuffleCollector<Writable, Writable> mapOutput = new ShuffleCollector<Writable, Writable>(
+        floatPhi);
+    for (HMapII document : documents) {
+      Arrays.fill(gamma, BetaPrecisionTest.ALPHA + 1.0 * BetaPrecisionTest.NUMBER_OF_TOKENS
+          / numberOfTopics);
+      inference.infer(document, gamma, expectLogBeta, alpha, Reporter.NULL);
+      for (int j = 0; j < inference.getNumberOfDistinctTerms(); j++) {
+        emitter.emit(inference.getTermID(j), inference.getLogPhi(j), mapOutput, Reporter.NULL);
+      }
+    }
+
+    JobConf conf = new JobConf();
+    conf.setBoolean(Settings.PROPERTY_PREFIX + "model.linear.phi", linearPhi);
+    TermCombiner combiner = new TermCombiner();
+    combiner.configure(conf);
+    ShuffleCollector<TopicTermKey, PhiWritable> combinerOutput =
+        new ShuffleCollector<TopicTermKey, PhiWritable>(floatPhi);
+    for (Map.Entry<TopicTermKey, List<PhiWritable>> record : mapOutput.records.entrySet()) {
+      combiner.reduce(record.getKey(), record.getValue().iterator(), combinerOutput,
+          Reporter.NULL);
+    }
+
+    double[][] logLambda = new double[numberOfTopics][numberOfTerms + 1];
+    for (int i = 0; i < numberOfTopics; i++) {
+      Arrays.fill(logLambda[i], Double.NaN);
+    }
+    for (Map.Entry<TopicTermKey, List<PhiWritable>> record : combinerOutput.records.entrySet()) {
+      double logPhi = record.getValue().get(0).get();
+      if (linearPhi) {
+        logPhi = Math.log(logPhi);
+      }
+      logLambda[record.getKey().getTopic() - 1][record.getKey().getTerm()] = LogMath.add(
+          Settings.DEFAULT_LOG_ETA, logPhi);
+    }
+    return logLambda;
+  }
+
+  /**
+   * @return the maximum absolute difference between two matrices, which must hold NaN in the same
+   *         cells
+   */
+  private static double getMaximumError(double[][] baseline, double[][] logLambda) {
+    double maximumError = 0;
+    for (int i = 0; i < baseline.length; i++) {
+      for (int j = 0; j < baseline[i].length; j++) {
+        assertTrue(Double.isNaN(baseline[i][j]) == Double.isNaN(logLambda[i][j]));
+        if (!Double.isNaN(baseline[i][j])) {
+          maximumError = Math.max(maximumError, Math.abs(logLambda[i][j] - baseline[i][j]));
+        }
+      }
+    }
+    return maximumError;
+  }
+
+  @Test
+  public void testFloatPhi() throws IOException {
+    // lambda itself is perturbed by a relative error of 1e-5 at most
+    assertTrue(getMaximumError(getLogLambda(false, false), getLogLambda(true, false)) < 1e-5);
+  }
+
+  @Test
+  public void testLinearPhi() throws IOException {
+    double[][] baseline = getLogLambda(false, false);
+    assertTrue(getMaximumError(baseline, getLogLambda(false, true)) < 1e-10);
+    assertTrue(getMaximumError(baseline, getLogLambda(true, true)) < 1e-5);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PhiPrecisionTest.class);
+  }
+}
@@ -0,0 +1,123 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class ShardedBetaStoreTest {
+  public static final int NUMBER_OF_TOPICS = 3;
+  public static final int NUMBER_OF_TERMS = 200;
+
+  /**
+   * @return a beta value in log scale, exactly representable in half precision
+   */
+  private static double getLogBeta(int termID, int topicIndex) {
+    return -1 - (termID % 16) - 0.25 * topicIndex;
+  }
+
+  /**
+   * @return true if the row of the term is written to the binary beta file
+   */
+  private static boolean isWritten(int termID) {
+    return termID % 7 != 0;
+  }
+
+  private static void fill(BetaStore store) {
+    for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+      store.setSmoothing(i, getLogBeta(0, i) - 10);
+    }
+    for (int termID = 1; termID <= NUMBER_OF_TERMS; termID++) {
+      for (int i = 0; isWritten(termID) && i < NUMBER_OF_TOPICS; i++) {
+        store.set(termID, i, getLogBeta(termID, i));
+      }
+    }
+  }
+
+  private static void testLoad(File file, int precision) throws IOException {
+    if (precision == MappedBetaStore.BYTE_PRECISION) {
+      DoubleBetaStore source = new DoubleBetaStore();
+      source.initialize(NUMBER_OF_TOPICS, NUMBER_OF_TERMS);
+      fill(source);
+      MappedBetaStore.quantize(source, file).close();
+    } else {
+      MappedBetaStore store = MappedBetaStore.create(file, NUMBER_OF_TOPICS, NUMBER_OF_TERMS,
+          precision);
+      fill(store);
+      store.close();
+    }
+    // the values of a quantized file are compared to the file mapped as a whole
+    MappedBetaStore expected = MappedBetaStore.open(file);
+
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path path = new Path(file.getAbsolutePath());
+    // ranges of consecutive terms, unwritten rows, and terms beyond the vocabulary
+    int[][] termIDs = { { 0, 1, 2, 3, 6, 7, 8, 50, 51, 52, 199, 200, 201, 500 },
+        { 5, 13, 14, 15, 100, 202 }, {} };
+    double[] logBeta = new double[NUMBER_OF_TOPICS];
+    double[] logBetaSmoothing = new double[NUMBER_OF_TOPICS];
+    assertTrue(expected.getSmoothingRow(logBetaSmoothing));
+    for (int[] shard : termIDs) {
+      ShardedBetaStore store = ShardedBetaStore.load(fs, path, shard);
+      assertEquals(NUMBER_OF_TOPICS, store.getNumberOfTopics());
+      assertEquals(NUMBER_OF_TERMS, store.getNumberOfTerms());
+
+      // the smoothing row is held once, whether term 0 is asked for or not
+      assertTrue(store.getSmoothingRow(logBeta));
+      for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+        assertEquals(logBetaSmoothing[i], logBeta[i], 0);
+        if (precision != MappedBetaStore.BYTE_PRECISION) {
+          assertEquals(getLogBeta(0, i) - 10, logBeta[i], 0);
+        }
+      }
+
+      for (int termID = 1; termID <= NUMBER_OF_TERMS + 1; termID++) {
+        boolean held = false;
+        for (int heldTermID : shard) {
+          held |= heldTermID == termID;
+        }
+        held &= termID <= NUMBER_OF_TERMS && isWritten(termID);
+        assertEquals(held, store.containsTerm(termID));
+        if (!held) {
+          assertFalse(store.getRow(termID, logBeta));
+          continue;
+        }
+
+        assertTrue(store.getRow(termID, logBeta));
+        for (int i = 0; i < NUMBER_OF_TOPICS; i++) {
+          assertEquals(expected.get(termID, i), logBeta[i], 0);
+          if (precision != MappedBetaStore.BYTE_PRECISION) {
+            assertEquals(getLogBeta(termID, i), logBeta[i], 0);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testLoad() throws IOException {
+    int[] precisions = { MappedBetaStore.DOUBLE_PRECISION, MappedBetaStore.SINGLE_PRECISION,
+        MappedBetaStore.HALF_PRECISION, MappedBetaStore.BYTE_PRECISION };
+    for (int precision : precisions) {
+      File file = File.createTempFile(Settings.BETA, MappedBetaStore.SUFFIX);
+      try {
+        testLoad(file, precision);
+      } finally {
+        file.delete();
+      }
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ShardedBetaStoreTest.class);
+  }
+}
@@ -0,0 +1,64 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+public class TermBlockPartitionerTest {
+  private static TermBlockPartitioner getPartitioner(int numberOfTermBlocks) {
+    JobConf conf = new JobConf();
+    conf.setInt(Settings.PROPERTY_PREFIX + "model.reducer.term.blocks", numberOfTermBlocks);
+    TermBlockPartitioner partitioner = new TermBlockPartitioner();
+    partitioner.configure(conf);
+    return partitioner;
+  }
+
+  @Test
+  public void testSingleBlock() {
+    // a single block per topic partitions as the topic partitioner
+    TermBlockPartitioner partitioner = getPartitioner(1);
+    TermPartitioner topicPartitioner = new TermPartitioner();
+    for (int topic = 0; topic <= 20; topic++) {
+      for (int term = 0; term < 100; term++) {
+        TopicTermKey key = new TopicTermKey(0, topic, term);
+        assertEquals(topicPartitioner.getPartition(key, null, 7),
+            partitioner.getPartition(key, null, 7));
+      }
+    }
+  }
+
+  @Test
+  public void testAllReducers() {
+    int numberOfTopics = 20;
+    int numberOfReducers = 200;
+    TermBlockPartitioner partitioner = getPartitioner(numberOfReducers / numberOfTopics);
+
+    Set<Integer> partitions = new HashSet<Integer>();
+    for (int topic = 1; topic <= numberOfTopics; topic++) {
+      for (int term = 1; term <= 1000; term++) {
+        int partition = partitioner.getPartition(new TopicTermKey(0, topic, term), null,
+            numberOfReducers);
+        assertTrue(partition >= 0 && partition < numberOfReducers);
+        partitions.add(partition);
+      }
+    }
+    assertEquals(numberOfReducers, partitions.size());
+
+    // the alpha sufficient statistics all go to the first reducer
+    for (int term = 1; term <= numberOfTopics; term++) {
+      assertEquals(0, partitioner.getPartition(new TopicTermKey(0, 0, term), null,
+          numberOfReducers));
+    }
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TermBlockPartitionerTest.class);
+  }
+}
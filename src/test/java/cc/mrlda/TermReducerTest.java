@@ -0,0 +1,239 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.junit.Test;
+
+import edu.umd.cloud9.io.map.HMapIDW;
+import edu.umd.cloud9.io.pair.PairOfIntFloat;
+import edu.umd.cloud9.math.Gamma;
+import edu.umd.cloud9.math.LogMath;
+
+public class TermReducerTest {
+  public static final int TRUNCATION_SIZE = 5;
+  public static final int CHUNK_SIZE = 2;
+
+  /**
+   * Holds the records of the named outputs in memory, in the order they are collected.
+   */
+  private static class MemoryOutputs extends MultipleOutputs {
+    private JobConf conf = null;
+    private List<PairOfIntFloat> keys = new ArrayList<PairOfIntFloat>();
+    private List<Writable> values = new ArrayList<Writable>();
+
+    private MemoryOutputs(JobConf conf) {
+      super(conf);
+      this.conf = conf;
+    }
+
+    @SuppressWarnings("rawtypes")
+    public OutputCollector getCollector(String namedOutput, String multiName, Reporter reporter) {
+      assertEquals(Settings.BETA, namedOutput);
+      return new OutputCollector<PairOfIntFloat, Writable>() {
+        public void collect(PairOfIntFloat key, Writable value) throws IOException {
+          // the reducer reuses its key and value objects
+          keys.add(WritableUtils.clone(key, conf));
+          values.add(WritableUtils.clone(value, conf));
+        }
+      };
+    }
+
+    public void close() {
+    }
+  }
+
+  /**
+   * @return lambda in log scale of the terms of a topic, from term 1, as the reducer computes it
+   */
+  private static double[] getLogLambda(double[] logPhi) {
+    double[] logLambda = new double[logPhi.length];
+    for (int j = 0; j < logPhi.length; j++) {
+      logLambda[j] = LogMath.add(Settings.DEFAULT_LOG_ETA, logPhi[j]);
+    }
+    return logLambda;
+  }
+
+  /**
+   * @return the expected entries of a truncated topic by term, i.e., the most likely terms and the
+   *         residual of term 0 if any term is truncated, NaN for the other terms
+   */
+  private static double[] getBeta(double[] logPhi) {
+    final double[] logLambda = getLogLambda(logPhi);
+    List<Integer> terms = new ArrayList<Integer>();
+    for (int j = 0; j < logLambda.length; j++) {
+      terms.add(j);
+    }
+    Collections.sort(terms, new Comparator<Integer>() {
+      public int compare(Integer term1, Integer term2) {
+        return Double.compare(logLambda[term2], logLambda[term1]);
+      }
+    });
+
+    double[] beta = new double[logLambda.length + 1];
+    Arrays.fill(beta, Double.NaN);
+    double residual = 0;
+    for (int k = 0; k < terms.size(); k++) {
+      int j = terms.get(k);
+      if (k < TRUNCATION_SIZE) {
+        beta[j + 1] = Gamma.digamma(Math.exp(logLambda[j]));
+      } else {
+        residual += Math.exp(logLambda[j]);
+      }
+    }
+    if (terms.size() > TRUNCATION_SIZE) {
+      beta[0] = Gamma.digamma(residual / (terms.size() - TRUNCATION_SIZE));
+    }
+    return beta;
+  }
+
+  private static float getNormalizer(double[] logPhi) {
+    double sum = 0;
+    for (double logLambda : getLogLambda(logPhi)) {
+      sum += Math.exp(logLambda);
+    }
+    return (float) Gamma.digamma(sum);
+  }
+
+  /**
+   * @return the phi values in log scale of the terms of the topics, from term 1
+   */
+  private static double[][] getLogPhi() {
+    Random random = new Random(1234567);
+    // more terms than the truncation size, as many, and fewer
+    int[] numberOfTerms = { 40, TRUNCATION_SIZE, 3 };
+    double[][] logPhi = new double[numberOfTerms.length][];
+    for (int i = 0; i < logPhi.length; i++) {
+      logPhi[i] = new double[numberOfTerms[i]];
+      for (int j = 0; j < numberOfTerms[i]; j++) {
+        logPhi[i][j] = 3 * random.nextGaussian();
+      }
+    }
+    return logPhi;
+  }
+
+  private static MemoryOutputs reduce(double[][] logPhi, boolean chunkBeta) throws IOException {
+    JobConf conf = new JobConf();
+    conf.setBoolean(Settings.PROPERTY_PREFIX + "model.train", true);
+    conf.setBoolean(Settings.PROPERTY_PREFIX + "model.truncate.beta", true);
+    conf.setInt(Settings.PROPERTY_PREFIX + "model.truncate.beta.size", TRUNCATION_SIZE);
+    conf.setInt(Settings.PROPERTY_PREFIX + "model.beta.chunk.size", chunkBeta ? CHUNK_SIZE : 0);
+
+    TermReducer reducer = new TermReducer();
+    reducer.configure(conf);
+    MemoryOutputs outputs = new MemoryOutputs(conf);
+    reducer.setMultipleOutputs(outputs);
+
+    OutputCollector<IntWritable, DoubleWritable> output =
+        new OutputCollector<IntWritable, DoubleWritable>() {
+          public void collect(IntWritable key, DoubleWritable value) {
+          }
+        };
+    TopicTermKey key = new TopicTermKey();
+    for (int i = 0; i < logPhi.length; i++) {
+      // the terms of a topic arrive in ascending order
+      for (int j = 0; j < logPhi[i].length; j++) {
+        key.set(i + 1, j + 1);
+        reducer.reduce(key, Arrays.asList(new PhiWritable(logPhi[i][j])).iterator(), output,
+            Reporter.NULL);
+      }
+    }
+    reducer.close();
+    return outputs;
+  }
+
+  @Test
+  public void testTruncatedBeta() throws IOException {
+    double[][] logPhi = getLogPhi();
+    MemoryOutputs outputs = reduce(logPhi, false);
+
+    assertEquals(logPhi.length, outputs.keys.size());
+    for (int i = 0; i < logPhi.length; i++) {
+      assertEquals(i + 1, outputs.keys.get(i).getLeftElement());
+      assertEquals(getNormalizer(logPhi[i]), outputs.keys.get(i).getRightElement(), 1e-4);
+
+      double[] beta = getBeta(logPhi[i]);
+      HMapIDW value = (HMapIDW) outputs.values.get(i);
+      int numberOfEntries = 0;
+      for (int j = 0; j < beta.length; j++) {
+        assertEquals(!Double.isNaN(beta[j]), value.containsKey(j));
+        if (!Double.isNaN(beta[j])) {
+          assertEquals(beta[j], value.get(j), 1e-10 * Math.abs(beta[j]));
+          numberOfEntries++;
+        }
+      }
+      assertEquals(numberOfEntries, value.size());
+      assertEquals(Math.min(TRUNCATION_SIZE, logPhi[i].length) + (Double.isNaN(beta[0]) ? 0 : 1),
+          value.size());
+    }
+    // no residual unless a term is truncated
+    assertFalse(((HMapIDW) outputs.values.get(1)).containsKey(0));
+  }
+
+  @Test
+  public void testTruncatedBetaChunks() throws IOException {
+    double[][] logPhi = getLogPhi();
+    MemoryOutputs outputs = reduce(logPhi, true);
+
+    int record = 0;
+    for (int i = 0; i < logPhi.length; i++) {
+      double[] beta = getBeta(logPhi[i]);
+      int numberOfEntries = 0;
+      int previousTermID = -1;
+      for (int chunkIndex = 0;; chunkIndex++) {
+        PairOfIntFloat key = outputs.keys.get(record);
+        BetaChunkWritable chunk = (BetaChunkWritable) outputs.values.get(record);
+        record++;
+        assertEquals(i + 1, key.getLeftElement());
+        assertEquals(chunkIndex, chunk.getChunkIndex());
+        if (chunk.size() == 0) {
+          // the trailer of the topic carries the normalizer
+          assertEquals(getNormalizer(logPhi[i]), key.getRightElement(), 1e-4);
+          break;
+        }
+        assertTrue(Float.isNaN(key.getRightElement()));
+        assertTrue(chunk.size() <= CHUNK_SIZE);
+
+        for (int k = 0; k < chunk.size(); k++) {
+          // the entries come in ascending order of the terms, the residual first
+          int termID = chunk.getTermID(k);
+          assertTrue(termID > previousTermID);
+          previousTermID = termID;
+          assertFalse(Double.isNaN(beta[termID]));
+          assertEquals(beta[termID], chunk.getValue(k), 1e-10 * Math.abs(beta[termID]));
+          numberOfEntries++;
+        }
+      }
+
+      int expectedEntries = 0;
+      for (double value : beta) {
+        expectedEntries += Double.isNaN(value) ? 0 : 1;
+      }
+      assertEquals(expectedEntries, numberOfEntries);
+    }
+    assertEquals(outputs.keys.size(), record);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TermReducerTest.class);
+  }
+}
@@ -0,0 +1,68 @@
+package cc.mrlda;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+public class TopicTermKeyTest {
+  private static final int[] INDICES = { 0, 1, 127, 128, 255, 256, 65535, 65536,
+      Integer.MAX_VALUE };
+
+  private static byte[] serialize(TopicTermKey key) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    key.write(new DataOutputStream(bytes));
+    return bytes.toByteArray();
+  }
+
+  private static void testComparators(boolean compact) throws IOException {
+    WritableComparator comparator = WritableComparator.get(compact ? TopicTermKey.Compact.class
+        : TopicTermKey.class);
+    WritableComparator groupingComparator = new TopicTermKey.GroupingComparator();
+
+    Random random = new Random(1234567);
+    for (int i = 0; i < 10000; i++) {
+      TopicTermKey key1 = TopicTermKey.newInstance(compact);
+      key1.set(random.nextInt(3), INDICES[random.nextInt(5)],
+          INDICES[random.nextInt(INDICES.length)]);
+      TopicTermKey key2 = TopicTermKey.newInstance(compact);
+      key2.set(random.nextInt(3), INDICES[random.nextInt(5)],
+          INDICES[random.nextInt(INDICES.length)]);
+
+      byte[] bytes1 = serialize(key1);
+      byte[] bytes2 = serialize(key2);
+      assertEquals(Integer.signum(key1.compareTo(key2)), Integer.signum(comparator.compare(
+          bytes1, 0, bytes1.length, bytes2, 0, bytes2.length)));
+      assertEquals(key1.equals(key2), groupingComparator.compare(bytes1, 0, bytes1.length, bytes2,
+          0, bytes2.length) == 0);
+    }
+  }
+
+  @Test
+  public void testComparator() throws IOException {
+    testComparators(false);
+  }
+
+  @Test
+  public void testCompactComparator() throws IOException {
+    testComparators(true);
+  }
+
+  @Test
+  public void testAlphaFirst() {
+    // the alpha sufficient statistics sort ahead of the phi values
+    assertEquals(-1, new TopicTermKey(0, 0, 5).compareTo(new TopicTermKey(0, 1, 1)));
+    assertEquals(-1, new TopicTermKey(0, 5, 0).compareTo(new TopicTermKey(1, 1, 1)));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopicTermKeyTest.class);
+  }
+}